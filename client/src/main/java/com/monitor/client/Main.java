@@ -1,8 +1,13 @@
 package com.monitor.client;
 
 import com.monitor.client.command.CommandHandler;
+import com.monitor.client.heartbeat.HeartbeatDeltaEncoder;
 import com.monitor.client.heartbeat.HeartbeatManager;
+import com.monitor.client.heartbeat.HeartbeatReplayer;
+import com.monitor.client.heartbeat.HeartbeatSpool;
+import com.monitor.client.http.HttpTransport;
 import com.monitor.client.monitor.SystemMonitor;
+import com.monitor.client.screen.ScreenStreamer;
 import com.monitor.client.websocket.ClientWebSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,10 +15,10 @@ import org.slf4j.LoggerFactory;
 import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import com.google.gson.Gson;
@@ -30,6 +35,12 @@ import oshi.software.os.OperatingSystem;
  * Hoặc:
  * java -jar client.jar
  * (sẽ dùng giá trị mặc định: localhost:8080)
+ * 
+ * Tùy chọn:
+ * --heartbeat.transport=websocket|http (mặc định: websocket, tự fallback HTTP khi socket đóng)
+ * --heartbeat.encoding=delta|full (mặc định: delta - chỉ gửi các trường thay đổi, keyframe mỗi 60 giây)
+ * --heartbeat.delta-epsilon=0.5 (độ lệch tối thiểu của số thực để được coi là thay đổi)
+ * --heartbeat.spool=PATH (file spool heartbeat khi mất kết nối, mặc định: ~/.monitor-client/heartbeat.spool)
  */
 public class Main {
 
@@ -38,10 +49,20 @@ public class Main {
     // Cấu hình mặc định
     private static final String DEFAULT_SERVER_URL = "http://localhost:8080";
     private static final String DEFAULT_MACHINE_ID = generateStableMachineId();
+    // Kích thước file spool heartbeat (~ vài giờ heartbeat khi mất kết nối)
+    private static final int HEARTBEAT_SPOOL_SIZE = 8 * 1024 * 1024;
+    // Heartbeat delta: gửi lại keyframe đầy đủ định kỳ và ngưỡng thay đổi mặc định của số thực
+    private static final long HEARTBEAT_KEYFRAME_INTERVAL_MS = 60000;
+    private static final double DEFAULT_DELTA_EPSILON = 0.5;
 
     private ClientWebSocket webSocketClient;
     private CommandHandler commandHandler;
     private HeartbeatManager heartbeatManager;
+    private SystemMonitor systemMonitor;
+    private HttpTransport httpTransport;
+    private HeartbeatSpool heartbeatSpool;
+    private HeartbeatReplayer heartbeatReplayer;
+    private ScreenStreamer screenStreamer;
     private String serverUrl;
     private String machineId;
 
@@ -93,6 +114,9 @@ public class Main {
         logger.info("Server URL: {}", serverUrl);
         logger.info("Machine ID: {}", machineId);
 
+        // Kết nối HTTP dùng chung cho đăng ký, heartbeat và upload ảnh
+        httpTransport = new HttpTransport(serverUrl);
+
         try {
             // Lấy thông tin hệ thống
             SystemInfo systemInfo = new SystemInfo();
@@ -111,17 +135,26 @@ public class Main {
             }
 
             // Khởi tạo command handler
-            commandHandler = new CommandHandler(serverUrl, machineId);
+            commandHandler = new CommandHandler(httpTransport, machineId);
 
             // Khởi tạo system monitor
-            SystemMonitor systemMonitor = new SystemMonitor();
+            systemMonitor = new SystemMonitor();
 
             // Khởi tạo command handler
-            commandHandler = new CommandHandler(serverUrl, machineId);
+            commandHandler = new CommandHandler(httpTransport, machineId);
+
+            // Stream màn hình trực tiếp (bật/tắt bằng lệnh STREAM_START / STREAM_STOP)
+            screenStreamer = new ScreenStreamer();
+            commandHandler.setScreenStreamer(screenStreamer);
 
             // Khởi tạo heartbeat manager
-            heartbeatManager = new HeartbeatManager(systemMonitor, serverUrl, machineId,
+            heartbeatManager = new HeartbeatManager(systemMonitor, httpTransport, machineId,
                     "default-secret-key-change-me");
+            configureHeartbeatEncoding(args);
+            openHeartbeatSpool(args);
+            if (heartbeatReplayer != null) {
+                heartbeatManager.setReplayer(heartbeatReplayer);
+            }
             heartbeatManager.start();
 
             // Kết nối WebSocket để nhận lệnh
@@ -131,8 +164,20 @@ public class Main {
             logger.info("WebSocket URL: {}", wsUri);
 
             webSocketClient = new ClientWebSocket(wsUri, machineId, commandHandler);
+            webSocketClient.setHeartbeatKeyframeListener(heartbeatManager::requestKeyframe);
+            screenStreamer.setWebSocket(webSocketClient);
             webSocketClient.connect();
 
+            // Heartbeat qua WebSocket (mặc định), HTTP chỉ dùng khi socket mất kết nối
+            String heartbeatTransport = getArgValue(args, "--heartbeat.transport");
+            if (heartbeatTransport == null || heartbeatTransport.isEmpty()) {
+                heartbeatTransport = System.getenv("HEARTBEAT_TRANSPORT");
+            }
+            if (!"http".equalsIgnoreCase(heartbeatTransport)) {
+                heartbeatManager.setWebSocket(webSocketClient);
+            }
+            logger.info("Heartbeat transport: {}", "http".equalsIgnoreCase(heartbeatTransport) ? "http" : "websocket");
+
             // Đợi kết nối WebSocket
             int retries = 0;
             while (!webSocketClient.isOpen() && retries < 10) {
@@ -147,7 +192,7 @@ public class Main {
 
             logger.info("Client đã khởi động thành công!");
             logger.info("Đang lắng nghe lệnh từ server...");
-            logger.info("Đang gửi metrics hệ thống mỗi 5 giây...");
+            logger.info("Đang gửi metrics hệ thống mỗi 1-10 giây (tùy tải CPU)...");
             logger.info("Nhấn Ctrl+C để dừng client");
 
             // Giữ chương trình chạy
@@ -161,13 +206,61 @@ public class Main {
         }
     }
 
+    /**
+     * Chọn gửi metrics dạng delta (mặc định) hoặc đầy đủ
+     */
+    private void configureHeartbeatEncoding(String[] args) {
+        String encoding = getArgValue(args, "--heartbeat.encoding");
+        if (encoding == null || encoding.isEmpty()) {
+            encoding = System.getenv("HEARTBEAT_ENCODING");
+        }
+        if ("full".equalsIgnoreCase(encoding)) {
+            logger.info("Heartbeat encoding: full");
+            return;
+        }
+
+        double epsilon = DEFAULT_DELTA_EPSILON;
+        String epsilonValue = getArgValue(args, "--heartbeat.delta-epsilon");
+        if (epsilonValue == null || epsilonValue.isEmpty()) {
+            epsilonValue = System.getenv("HEARTBEAT_DELTA_EPSILON");
+        }
+        if (epsilonValue != null && !epsilonValue.isEmpty()) {
+            try {
+                epsilon = Double.parseDouble(epsilonValue);
+            } catch (NumberFormatException e) {
+                logger.warn("heartbeat.delta-epsilon không hợp lệ: {}, dùng {}", epsilonValue, epsilon);
+            }
+        }
+        heartbeatManager.setDeltaEncoder(new HeartbeatDeltaEncoder(epsilon, HEARTBEAT_KEYFRAME_INTERVAL_MS));
+        logger.info("Heartbeat encoding: delta (epsilon {})", epsilon);
+    }
+
+    /**
+     * Mở spool giữ heartbeat khi mất kết nối; lỗi thì chạy tiếp không có spool
+     */
+    private void openHeartbeatSpool(String[] args) {
+        String spoolPath = getArgValue(args, "--heartbeat.spool");
+        if (spoolPath == null || spoolPath.isEmpty()) {
+            spoolPath = System.getenv("HEARTBEAT_SPOOL");
+        }
+        Path spoolFile = spoolPath != null && !spoolPath.isEmpty()
+                ? Paths.get(spoolPath)
+                : Paths.get(System.getProperty("user.home"), ".monitor-client", "heartbeat.spool");
+        try {
+            heartbeatSpool = new HeartbeatSpool(spoolFile, HEARTBEAT_SPOOL_SIZE);
+            heartbeatReplayer = new HeartbeatReplayer(heartbeatSpool, httpTransport, machineId);
+            logger.info("Heartbeat spool: {}", spoolFile);
+        } catch (Exception e) {
+            logger.warn("Không mở được heartbeat spool {}: {}", spoolFile, e.getMessage());
+        }
+    }
+
     /**
      * Đăng ký với server qua REST API
      */
     private boolean registerWithServer(String machineId, String name, String ipAddress, String osName,
             String osVersion) {
         try {
-            HttpClient client = HttpClient.newHttpClient();
             Gson gson = new Gson();
 
             Map<String, String> request = new HashMap<>();
@@ -179,13 +272,7 @@ public class Main {
 
             String json = gson.toJson(request);
 
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(serverUrl + "/api/machines/register"))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
-
-            HttpResponse<String> response = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = httpTransport.postJson("/api/machines/register", json);
 
             if (response.statusCode() == 200) {
                 logger.info("Đã đăng ký thành công với server");
@@ -244,10 +331,30 @@ public class Main {
             heartbeatManager.stop();
         }
 
+        if (heartbeatReplayer != null) {
+            heartbeatReplayer.stop();
+        }
+
+        if (heartbeatSpool != null) {
+            heartbeatSpool.close();
+        }
+
+        if (systemMonitor != null) {
+            systemMonitor.shutdown();
+        }
+
+        if (screenStreamer != null) {
+            screenStreamer.stop();
+        }
+
         if (webSocketClient != null) {
             webSocketClient.close();
         }
 
+        if (httpTransport != null) {
+            httpTransport.close();
+        }
+
         logger.info("Client đã dừng.");
     }
 }
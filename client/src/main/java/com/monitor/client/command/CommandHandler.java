@@ -1,17 +1,17 @@
 package com.monitor.client.command;
 
+import com.monitor.client.http.HttpTransport;
+import com.monitor.client.screen.ScreenEncoder;
+import com.monitor.client.screen.ScreenStreamer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.net.URI;
-import java.util.Base64;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,23 +20,53 @@ import java.util.Map;
  * Các lệnh hỗ trợ:
  * - NOTIFICATION: Hiển thị popup thông báo
  * - SCREEN_CAPTURE: Chụp màn hình và gửi về server
+ * - STREAM_START / STREAM_STOP: Bật/tắt stream màn hình trực tiếp qua WebSocket
  */
 public class CommandHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(CommandHandler.class);
 
-    private final String serverUrl;
+    // Mặc định khi lệnh SCREEN_CAPTURE không kèm tham số
+    private static final String DEFAULT_CAPTURE_FORMAT = "PNG";
+    private static final float DEFAULT_CAPTURE_QUALITY = 0.8f;
+
+    // Mặc định khi lệnh STREAM_START không kèm tham số
+    private static final int DEFAULT_STREAM_FPS = 5;
+    private static final float DEFAULT_STREAM_QUALITY = 0.6f;
+    private static final int DEFAULT_STREAM_TILE_SIZE = 128;
+
+    // Upload ảnh lớn được phép lâu hơn timeout mặc định của transport
+    private static final Duration UPLOAD_TIMEOUT = Duration.ofSeconds(60);
+
+    private final HttpTransport httpTransport;
     private final String machineId;
 
-    public CommandHandler(String serverUrl, String machineId) {
-        this.serverUrl = serverUrl;
+    private final ScreenEncoder screenEncoder = new ScreenEncoder();
+
+    // null = client không hỗ trợ stream
+    private ScreenStreamer screenStreamer;
+
+    public CommandHandler(HttpTransport httpTransport, String machineId) {
+        this.httpTransport = httpTransport;
         this.machineId = machineId;
     }
 
+    public void setScreenStreamer(ScreenStreamer screenStreamer) {
+        this.screenStreamer = screenStreamer;
+    }
+
     /**
      * Xử lý lệnh từ server
      */
     public Map<String, Object> handleCommand(String command, Map<String, Object> commandData) {
+        return handleCommand(command, commandData, null);
+    }
+
+    /**
+     * Xử lý lệnh từ server
+     * @param commandId Id lệnh (nằm ở top-level message, không nằm trong data)
+     */
+    public Map<String, Object> handleCommand(String command, Map<String, Object> commandData, Long commandId) {
         Map<String, Object> result = new HashMap<>();
         result.put("command", command);
         result.put("timestamp", System.currentTimeMillis());
@@ -54,7 +84,15 @@ public class CommandHandler {
                     break;
 
                 case "SCREEN_CAPTURE":
-                    result.putAll(handleScreenCapture(commandData));
+                    result.putAll(handleScreenCapture(commandId, commandData));
+                    break;
+
+                case "STREAM_START":
+                    result.putAll(handleStreamStart(commandData));
+                    break;
+
+                case "STREAM_STOP":
+                    result.putAll(handleStreamStop());
                     break;
 
                 case "GET_PROCESSES":
@@ -123,8 +161,10 @@ public class CommandHandler {
 
     /**
      * Chụp màn hình và gửi về server
+     * data (tùy chọn): format (PNG, JPEG, WEBP), quality (0.0 - 1.0), maxWidth (px),
+     * region {x, y, width, height} (chỉ chụp một vùng màn hình)
      */
-    private Map<String, Object> handleScreenCapture(Map<String, Object> data) {
+    private Map<String, Object> handleScreenCapture(Long commandId, Map<String, Object> data) {
         Map<String, Object> result = new HashMap<>();
 
         try {
@@ -139,41 +179,81 @@ public class CommandHandler {
                         JOptionPane.INFORMATION_MESSAGE);
             });
 
-            // Chụp màn hình
+            String requestedFormat = data != null && data.get("format") instanceof String
+                    ? (String) data.get("format") : DEFAULT_CAPTURE_FORMAT;
+            float quality = getNumber(data, "quality", DEFAULT_CAPTURE_QUALITY).floatValue();
+            int maxWidth = getNumber(data, "maxWidth", 0).intValue();
+
+            // Chụp màn hình (chỉ vùng được yêu cầu nếu có)
             logger.info("Đang chụp màn hình...");
-            Robot robot = new Robot();
+            long start = System.nanoTime();
             Rectangle screenRect = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
-            BufferedImage screenImage = robot.createScreenCapture(screenRect);
-            logger.info("Đã chụp màn hình: {}x{}", screenRect.width, screenRect.height);
-
-            // Convert sang base64
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            javax.imageio.ImageIO.write(screenImage, "png", baos);
-            byte[] imageBytes = baos.toByteArray();
-            String imageBase64 = Base64.getEncoder().encodeToString(imageBytes);
-            logger.info("Đã encode ảnh thành base64. Size: {} KB", imageBytes.length / 1024);
-
-            // Gửi về server
-            Long commandId = data != null && data.containsKey("commandId")
-                    ? Long.parseLong(data.get("commandId").toString())
-                    : null;
-
-            logger.info("Đang upload ảnh lên server... CommandId: {}", commandId);
-            boolean uploaded = uploadScreenData(imageBase64, "PNG", commandId);
-
-            if (uploaded) {
-                logger.info("✅ Upload ảnh thành công!");
-                result.put("success", true);
-                result.put("message", "Đã chụp và gửi màn hình");
-                // KHÔNG GỬI imageData qua WebSocket (quá lớn!)
-                // result.put("imageData", imageBase64);
-                result.put("imageFormat", "PNG");
-            } else {
-                logger.error("❌ Upload ảnh thất bại!");
-                result.put("success", false);
-                result.put("message", "Đã chụp màn hình nhưng không thể gửi về server");
+            Rectangle captureRect = screenRect;
+            if (data != null && data.get("region") instanceof Map) {
+                Map<?, ?> region = (Map<?, ?>) data.get("region");
+                captureRect = screenRect.intersection(new Rectangle(
+                        toInt(region.get("x")), toInt(region.get("y")),
+                        toInt(region.get("width")), toInt(region.get("height"))));
+                if (captureRect.isEmpty()) {
+                    result.put("success", false);
+                    result.put("message", "Vùng chụp nằm ngoài màn hình");
+                    return result;
+                }
+            }
+
+            Map<String, Object> capture = new HashMap<>();
+            int encodedSize;
+            String format;
+            long captureMs;
+            long encodeMs;
+            // Encoder và buffer dùng chung giữa các lần chụp
+            synchronized (screenEncoder) {
+                BufferedImage screenImage = new Robot().createScreenCapture(captureRect);
+                screenImage = screenEncoder.downscale(screenImage, maxWidth);
+                captureMs = (System.nanoTime() - start) / 1_000_000;
+                logger.info("Đã chụp màn hình: {}x{}", screenImage.getWidth(), screenImage.getHeight());
+
+                format = screenEncoder.resolveFormat(requestedFormat);
+                start = System.nanoTime();
+                encodedSize = screenEncoder.encode(screenImage, format, quality);
+                encodeMs = (System.nanoTime() - start) / 1_000_000;
+
+                capture.put("width", screenImage.getWidth());
+                capture.put("height", screenImage.getHeight());
+                capture.put("region", captureRect.equals(screenRect) ? null : toMap(captureRect));
+                capture.put("quality", quality);
+                capture.put("maxWidth", maxWidth);
+                capture.put("captureMs", captureMs);
+                capture.put("encodeMs", encodeMs);
+                capture.put("sizeBytes", encodedSize);
+
+                // Gửi về server
+                logger.info("Đang upload ảnh lên server... CommandId: {}", commandId);
+                start = System.nanoTime();
+                boolean uploaded = uploadScreenData(screenEncoder.getBuffer(), encodedSize, format, commandId);
+                capture.put("uploadMs", (System.nanoTime() - start) / 1_000_000);
+
+                if (!uploaded) {
+                    logger.error("❌ Upload ảnh thất bại!");
+                    result.put("success", false);
+                    result.put("message", "Đã chụp màn hình nhưng không thể gửi về server");
+                    result.put("capture", capture);
+                    return result;
+                }
             }
 
+            logger.info("✅ Upload ảnh thành công! ({} {} bytes, chụp {}ms, nén {}ms)", format, encodedSize,
+                    captureMs, encodeMs);
+            result.put("success", true);
+            result.put("message", "Đã chụp và gửi màn hình");
+            // KHÔNG GỬI imageData qua WebSocket (quá lớn!)
+            result.put("imageFormat", format);
+            if (!format.equalsIgnoreCase(requestedFormat)) {
+                // Ví dụ WEBP khi máy không có plugin ImageIO
+                result.put("requestedFormat", requestedFormat);
+            }
+            result.put("capture", capture);
+
         } catch (Exception e) {
             logger.error("Lỗi khi chụp màn hình: {}", e.getMessage(), e);
             result.put("success", false);
@@ -184,35 +264,76 @@ public class CommandHandler {
     }
 
     /**
-     * Upload ảnh màn hình lên server
+     * Bắt đầu stream màn hình (data: fps, quality, tileSize)
      */
-    private boolean uploadScreenData(String imageDataBase64, String imageFormat, Long commandId) {
-        try {
-            logger.info("Chuẩn bị upload...");
-            HttpClient client = HttpClient.newHttpClient();
-            com.google.gson.Gson gson = new com.google.gson.Gson();
+    private Map<String, Object> handleStreamStart(Map<String, Object> data) {
+        Map<String, Object> result = new HashMap<>();
+        if (screenStreamer == null) {
+            result.put("success", false);
+            result.put("message", "Client không hỗ trợ stream màn hình");
+            return result;
+        }
 
-            Map<String, Object> request = new HashMap<>();
-            request.put("imageData", imageDataBase64);
-            request.put("imageFormat", imageFormat);
-            if (commandId != null) {
-                request.put("commandId", commandId);
-            }
+        int fps = getNumber(data, "fps", DEFAULT_STREAM_FPS).intValue();
+        float quality = getNumber(data, "quality", DEFAULT_STREAM_QUALITY).floatValue();
+        int tileSize = getNumber(data, "tileSize", DEFAULT_STREAM_TILE_SIZE).intValue();
 
-            String json = gson.toJson(request);
-            logger.info("JSON payload size: {} KB", json.length() / 1024);
+        // Chỉ báo cho học sinh ở lần bắt đầu, không báo lại khi server gửi lại cấu hình
+        if (!screenStreamer.isStreaming()) {
+            SwingUtilities.invokeLater(() -> {
+                JOptionPane.showMessageDialog(
+                        null,
+                        "Giáo viên đang quan sát màn hình của bạn.",
+                        "Thông Báo",
+                        JOptionPane.INFORMATION_MESSAGE);
+            });
+        }
+        screenStreamer.start(fps, quality, tileSize);
+
+        result.put("success", true);
+        result.put("message", "Đã bắt đầu stream màn hình");
+        return result;
+    }
+
+    /**
+     * Dừng stream màn hình
+     */
+    private Map<String, Object> handleStreamStop() {
+        Map<String, Object> result = new HashMap<>();
+        if (screenStreamer != null) {
+            screenStreamer.stop();
+        }
+        result.put("success", true);
+        result.put("message", "Đã dừng stream màn hình");
+        return result;
+    }
 
-            String uploadUrl = serverUrl + "/api/screen/" + machineId + "/upload";
-            logger.info("Upload URL: {}", uploadUrl);
+    private static Number getNumber(Map<String, Object> data, String key, Number defaultValue) {
+        Object value = data != null ? data.get(key) : null;
+        return value instanceof Number ? (Number) value : defaultValue;
+    }
 
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(uploadUrl))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
+    /**
+     * Upload ảnh màn hình lên server (application/octet-stream, không base64)
+     * Body là phần đã ghi của buffer encoder, không sao chép
+     */
+    private boolean uploadScreenData(byte[] buffer, int length, String imageFormat, Long commandId) {
+        try {
+            String uploadPath = "/api/screen/" + machineId + "/upload";
+            logger.info("Upload URL: {}{}", httpTransport.getServerUrl(), uploadPath);
+
+            HttpRequest.Builder builder = httpTransport.request(uploadPath)
+                    .timeout(UPLOAD_TIMEOUT)
+                    .header("Content-Type", "application/octet-stream")
+                    .header("X-Image-Format", imageFormat)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(buffer, 0, length));
+            if (commandId != null) {
+                builder.header("X-Command-Id", commandId.toString());
+            }
 
             logger.info("Đang gửi request...");
-            HttpResponse<String> response = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = httpTransport.send(builder.build(),
+                    HttpResponse.BodyHandlers.ofString());
 
             logger.info("Response status: {}", response.statusCode());
             logger.info("Response body: {}", response.body());
@@ -225,6 +346,19 @@ public class CommandHandler {
         }
     }
 
+    private static int toInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    private static Map<String, Object> toMap(Rectangle rect) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("x", rect.x);
+        map.put("y", rect.y);
+        map.put("width", rect.width);
+        map.put("height", rect.height);
+        return map;
+    }
+
     /**
      * Lấy danh sách tiến trình đang chạy
      */
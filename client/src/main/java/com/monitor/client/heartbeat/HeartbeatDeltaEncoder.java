@@ -0,0 +1,247 @@
+package com.monitor.client.heartbeat;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Mã hóa delta cho metrics của heartbeat
+ * - Keyframe: metrics đầy đủ, gửi khi kết nối, khi server yêu cầu và định kỳ
+ * - Delta: chỉ các trường thay đổi so với trạng thái server đang giữ (lần gửi thành công trước)
+ *
+ * Quy tắc delta (server áp dụng theo đúng thứ tự này):
+ * <pre>
+ * object  : chỉ chứa key thay đổi, giá trị là delta của key đó; null = key bị xóa
+ * array   : {"$len": n, "$set": {"i": delta phần tử i}} - đổi độ dài và các phần tử thay đổi;
+ *           gửi nguyên mảng nếu mọi phần tử đều thay đổi
+ * còn lại : giá trị mới thay thế giá trị cũ
+ * </pre>
+ * Số thực (Double/Float) chỉ được coi là thay đổi khi lệch khỏi giá trị server đang giữ ít nhất epsilon,
+ * số nguyên và chuỗi so sánh chính xác.
+ */
+public class HeartbeatDeltaEncoder {
+
+    public static final String ARRAY_LENGTH = "$len";
+    public static final String ARRAY_SET = "$set";
+
+    // Đánh dấu không có thay đổi (khác với null = xóa key)
+    private static final Object UNCHANGED = new Object();
+
+    private final double epsilon;
+    private final long keyframeIntervalMillis;
+
+    // Được bảo vệ bởi synchronized (this)
+    private Map<String, Object> baseline;
+    private long seq;
+    private long lastKeyframeAt;
+    private boolean keyframeRequested = true;
+
+    /**
+     * @param epsilon Ngưỡng thay đổi của số thực (ví dụ 0.5 điểm phần trăm)
+     * @param keyframeIntervalMillis Chu kỳ gửi lại keyframe
+     */
+    public HeartbeatDeltaEncoder(double epsilon, long keyframeIntervalMillis) {
+        this.epsilon = Math.max(0, epsilon);
+        this.keyframeIntervalMillis = keyframeIntervalMillis;
+    }
+
+    /**
+     * Mã hóa metrics thành keyframe hoặc delta; trạng thái chỉ thay đổi khi commit
+     */
+    public synchronized Frame encode(Map<String, Object> metrics, long now) {
+        long nextSeq = seq + 1;
+        if (keyframeRequested || baseline == null || now - lastKeyframeAt >= keyframeIntervalMillis) {
+            return new Frame(nextSeq, true, metrics, metrics, now);
+        }
+        Object delta = diff(baseline, metrics);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> changes = delta == UNCHANGED
+                ? new LinkedHashMap<>()
+                : (Map<String, Object>) delta;
+        @SuppressWarnings("unchecked")
+        Map<String, Object> state = (Map<String, Object>) apply(deepCopy(baseline), changes);
+        return new Frame(nextSeq, false, changes, state, now);
+    }
+
+    /**
+     * Frame đã được gửi đi: trạng thái của server giờ là state của frame
+     */
+    public synchronized void commit(Frame frame) {
+        baseline = frame.state;
+        seq = frame.seq;
+        if (frame.keyframe) {
+            lastKeyframeAt = frame.createdAt;
+            keyframeRequested = false;
+        }
+    }
+
+    /**
+     * Lần gửi tiếp theo sẽ là keyframe (kết nối mới hoặc server mất trạng thái)
+     */
+    public synchronized void requestKeyframe() {
+        keyframeRequested = true;
+    }
+
+    // ========== Diff / apply ==========
+
+    private Object diff(Object oldValue, Object newValue) {
+        if (oldValue instanceof Map && newValue instanceof Map) {
+            return diffMap((Map<?, ?>) oldValue, (Map<?, ?>) newValue);
+        }
+        if (oldValue instanceof List && newValue instanceof List) {
+            return diffList((List<?>) oldValue, (List<?>) newValue);
+        }
+        if (oldValue instanceof Number && newValue instanceof Number) {
+            return sameNumber((Number) oldValue, (Number) newValue) ? UNCHANGED : newValue;
+        }
+        return Objects.equals(oldValue, newValue) ? UNCHANGED : newValue;
+    }
+
+    private Object diffMap(Map<?, ?> oldMap, Map<?, ?> newMap) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : newMap.entrySet()) {
+            Object change = oldMap.containsKey(entry.getKey())
+                    ? diff(oldMap.get(entry.getKey()), entry.getValue())
+                    : entry.getValue();
+            if (change != UNCHANGED) {
+                changes.put(String.valueOf(entry.getKey()), change);
+            }
+        }
+        for (Object key : oldMap.keySet()) {
+            if (!newMap.containsKey(key)) {
+                changes.put(String.valueOf(key), null);
+            }
+        }
+        return changes.isEmpty() ? UNCHANGED : changes;
+    }
+
+    private Object diffList(List<?> oldList, List<?> newList) {
+        Map<String, Object> set = new LinkedHashMap<>();
+        for (int i = 0; i < newList.size(); i++) {
+            Object change = i < oldList.size() ? diff(oldList.get(i), newList.get(i)) : newList.get(i);
+            if (change != UNCHANGED) {
+                set.put(Integer.toString(i), change);
+            }
+        }
+        if (set.isEmpty() && oldList.size() == newList.size()) {
+            return UNCHANGED;
+        }
+        if (set.size() == newList.size() && !newList.isEmpty()) {
+            return newList;
+        }
+        Map<String, Object> patch = new LinkedHashMap<>();
+        patch.put(ARRAY_LENGTH, newList.size());
+        patch.put(ARRAY_SET, set);
+        return patch;
+    }
+
+    private boolean sameNumber(Number oldValue, Number newValue) {
+        if (newValue instanceof Double || newValue instanceof Float
+                || oldValue instanceof Double || oldValue instanceof Float) {
+            return Math.abs(oldValue.doubleValue() - newValue.doubleValue()) < epsilon
+                    || oldValue.doubleValue() == newValue.doubleValue();
+        }
+        return oldValue.longValue() == newValue.longValue();
+    }
+
+    /**
+     * Áp dụng delta lên base (base bị sửa trực tiếp), trả về giá trị mới
+     */
+    @SuppressWarnings("unchecked")
+    static Object apply(Object base, Object delta) {
+        if (!(delta instanceof Map)) {
+            return delta;
+        }
+        Map<String, Object> patch = (Map<String, Object>) delta;
+        if (patch.containsKey(ARRAY_LENGTH)) {
+            List<Object> list = base instanceof List ? (List<Object>) base : new ArrayList<>();
+            int length = ((Number) patch.get(ARRAY_LENGTH)).intValue();
+            while (list.size() > length) {
+                list.remove(list.size() - 1);
+            }
+            while (list.size() < length) {
+                list.add(null);
+            }
+            Map<String, Object> set = (Map<String, Object>) patch.get(ARRAY_SET);
+            if (set != null) {
+                for (Map.Entry<String, Object> entry : set.entrySet()) {
+                    int index = Integer.parseInt(entry.getKey());
+                    list.set(index, apply(list.get(index), entry.getValue()));
+                }
+            }
+            return list;
+        }
+        Map<String, Object> map = base instanceof Map ? (Map<String, Object>) base : new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : patch.entrySet()) {
+            if (entry.getValue() == null) {
+                map.remove(entry.getKey());
+            } else {
+                map.put(entry.getKey(), apply(map.get(entry.getKey()), entry.getValue()));
+            }
+        }
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object deepCopy(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                copy.put(entry.getKey(), deepCopy(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object item : (List<?>) value) {
+                copy.add(deepCopy(item));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * Một heartbeat đã mã hóa
+     */
+    public static final class Frame {
+        private final long seq;
+        private final boolean keyframe;
+        private final Map<String, Object> metrics;
+        // Trạng thái server sau khi nhận frame này
+        private final Map<String, Object> state;
+        private final long createdAt;
+
+        Frame(long seq, boolean keyframe, Map<String, Object> metrics, Map<String, Object> state, long createdAt) {
+            this.seq = seq;
+            this.keyframe = keyframe;
+            this.metrics = metrics;
+            this.state = state;
+            this.createdAt = createdAt;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public boolean isKeyframe() {
+            return keyframe;
+        }
+
+        /**
+         * Metrics cần gửi: đầy đủ (keyframe) hoặc chỉ phần thay đổi (delta)
+         */
+        public Map<String, Object> getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * Trạng thái metrics server giữ sau khi nhận frame này (baseline sau commit)
+         */
+        public Map<String, Object> getState() {
+            return state;
+        }
+    }
+}
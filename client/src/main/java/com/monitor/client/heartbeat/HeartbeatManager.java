@@ -1,24 +1,25 @@
 package com.monitor.client.heartbeat;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.monitor.client.http.HttpTransport;
 import com.monitor.client.monitor.SystemMonitor;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import com.monitor.client.websocket.ClientWebSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -26,50 +27,115 @@ import java.util.concurrent.TimeUnit;
  * - Mặc định: gửi mỗi 5 giây
  * - CPU > 80%: gửi mỗi 1 giây
  * - Idle: gửi mỗi 10 giây
+ * Sau mỗi lần gửi, heartbeat tiếp theo được lên lịch lại theo interval vừa tính, cộng/trừ jitter
+ * ngẫu nhiên để các máy khởi động cùng lúc không gửi đồng loạt. Interval hiệu lực được gửi kèm
+ * trong heartbeat (trường "interval", ms).
+ * 
+ * Nếu WebSocket đang mở, heartbeat được gửi dạng frame qua socket đó;
+ * HTTP POST /api/heartbeat chỉ dùng khi socket không khả dụng.
+ * Heartbeat không gửi được qua cả hai đường được lưu vào spool trên đĩa và gửi lại theo batch
+ * (HeartbeatReplayer) khi kết nối trở lại.
+ * Khi có HeartbeatDeltaEncoder, metrics được gửi dạng keyframe/delta ("encoding", "seq"):
+ * server giữ trạng thái đầy đủ của từng máy và yêu cầu keyframe khi chuỗi seq bị đứt.
  */
 public class HeartbeatManager {
     
     private static final Logger logger = LoggerFactory.getLogger(HeartbeatManager.class);
     
+    // Biên độ jitter so với interval (±10%)
+    private static final double JITTER_RATIO = 0.1;
+    
     private SystemMonitor systemMonitor;
-    private String serverUrl;
+    private HttpTransport httpTransport;
     private String machineId;
     private String secretKey;
     
+    // WebSocket dùng chung với kênh nhận lệnh (null = chỉ dùng HTTP)
+    private volatile ClientWebSocket webSocket;
+    
+    // Lưu và gửi lại heartbeat khi mất kết nối (null = bỏ heartbeat không gửi được)
+    private volatile HeartbeatReplayer replayer;
+    
+    // Mã hóa delta (null = luôn gửi metrics đầy đủ)
+    private volatile HeartbeatDeltaEncoder deltaEncoder;
+    
     private ScheduledExecutorService scheduler;
-    private long currentInterval = 5000; // Mặc định 5 giây
+    private volatile long currentInterval = 5000; // Mặc định 5 giây
     
     private Gson gson;
     
-    public HeartbeatManager(SystemMonitor systemMonitor, String serverUrl, String machineId, String secretKey) {
+    public HeartbeatManager(SystemMonitor systemMonitor, HttpTransport httpTransport, String machineId,
+            String secretKey) {
         this.systemMonitor = systemMonitor;
-        this.serverUrl = serverUrl;
+        this.httpTransport = httpTransport;
         this.machineId = machineId;
         this.secretKey = secretKey;
-        this.gson = new Gson();
-        this.scheduler = Executors.newScheduledThreadPool(1);
+        // Giữ null trong JSON: delta dùng null để đánh dấu key bị xóa
+        this.gson = new GsonBuilder().serializeNulls().create();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Gắn WebSocket để gửi heartbeat qua socket đang mở
+     */
+    public void setWebSocket(ClientWebSocket webSocket) {
+        this.webSocket = webSocket;
+    }
+    
+    /**
+     * Gắn spool để giữ heartbeat không gửi được
+     */
+    public void setReplayer(HeartbeatReplayer replayer) {
+        this.replayer = replayer;
+    }
+    
+    /**
+     * Bật gửi metrics dạng delta
+     */
+    public void setDeltaEncoder(HeartbeatDeltaEncoder deltaEncoder) {
+        this.deltaEncoder = deltaEncoder;
+    }
+    
+    /**
+     * Heartbeat tiếp theo gửi keyframe (gọi khi WebSocket kết nối lại hoặc server yêu cầu)
+     */
+    public void requestKeyframe() {
+        HeartbeatDeltaEncoder encoder = deltaEncoder;
+        if (encoder != null) {
+            encoder.requestKeyframe();
+        }
     }
     
     /**
      * Bắt đầu gửi heartbeat
      */
     public void start() {
-        logger.info("Bắt đầu gửi heartbeat đến server: {}", serverUrl);
-        
-        // Gửi heartbeat ngay lập tức
-        sendHeartbeat();
+        logger.info("Bắt đầu gửi heartbeat đến server: {}", httpTransport.getServerUrl());
         
-        // Lên lịch gửi heartbeat định kỳ
-        scheduler.scheduleAtFixedRate(
-            this::sendHeartbeatWithInterval,
-            0,
-            1,
-            TimeUnit.SECONDS
-        );
+        // Gửi heartbeat ngay lập tức, các lần sau tự lên lịch lại
+        scheduleNext(0);
     }
     
     /**
-     * Gửi heartbeat với interval thông minh
+     * Lên lịch heartbeat tiếp theo (bỏ qua nếu manager đã dừng)
+     */
+    private void scheduleNext(long delayMillis) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        try {
+            scheduler.schedule(this::sendHeartbeatWithInterval, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stop() vừa được gọi
+        }
+    }
+    
+    /**
+     * Gửi heartbeat với interval thông minh rồi lên lịch lần gửi tiếp theo
      */
     private void sendHeartbeatWithInterval() {
         try {
@@ -90,9 +156,19 @@ public class HeartbeatManager {
             
         } catch (Exception e) {
             logger.error("Lỗi khi gửi heartbeat: {}", e.getMessage(), e);
+        } finally {
+            scheduleNext(withJitter(currentInterval));
         }
     }
     
+    /**
+     * Cộng/trừ ngẫu nhiên tối đa JITTER_RATIO của interval
+     */
+    private static long withJitter(long interval) {
+        long jitter = (long) (interval * JITTER_RATIO);
+        return interval + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+    }
+    
     /**
      * Tính toán interval dựa trên CPU usage
      * @param cpuUsage CPU usage percentage
@@ -118,12 +194,32 @@ public class HeartbeatManager {
         try {
             // Thu thập metrics
             Map<String, Object> metrics = systemMonitor.collectAllMetrics();
+            long timestamp = System.currentTimeMillis();
+            
+            // Mã hóa keyframe/delta
+            HeartbeatDeltaEncoder encoder = deltaEncoder;
+            HeartbeatDeltaEncoder.Frame frame = encoder != null ? encoder.encode(metrics, timestamp) : null;
             
             // Tạo payload
             Map<String, Object> payload = new HashMap<>();
             payload.put("machineId", machineId);
-            payload.put("metrics", metrics);
-            payload.put("timestamp", System.currentTimeMillis());
+            payload.put("metrics", frame != null ? frame.getMetrics() : metrics);
+            payload.put("timestamp", timestamp);
+            payload.put("interval", currentInterval);
+            if (frame != null) {
+                payload.put("encoding", frame.isKeyframe() ? "full" : "delta");
+                payload.put("seq", frame.getSeq());
+            }
+            
+            // Ưu tiên gửi qua WebSocket đang mở (không tốn kết nối mới)
+            if (sendOverWebSocket(payload)) {
+                logger.debug("Đã gửi heartbeat qua WebSocket");
+                if (frame != null) {
+                    encoder.commit(frame);
+                }
+                onDelivered();
+                return;
+            }
             
             // Tạo signature bằng HMAC
             String jsonPayload = gson.toJson(payload);
@@ -135,49 +231,97 @@ public class HeartbeatManager {
             requestData.put("signature", signature);
             
             // Gửi POST request
-            sendPostRequest(serverUrl + "/api/heartbeat", gson.toJson(requestData));
-            
-            logger.debug("Đã gửi heartbeat thành công");
+            int statusCode = sendPostRequest("/api/heartbeat", gson.toJson(requestData));
+            if (statusCode == 200 || statusCode == 201) {
+                logger.debug("Đã gửi heartbeat thành công");
+                if (frame != null) {
+                    encoder.commit(frame);
+                }
+                onDelivered();
+            } else {
+                if (statusCode == 409 && encoder != null) {
+                    // Server không có trạng thái để ghép delta: gửi keyframe lần sau
+                    encoder.requestKeyframe();
+                }
+                spool(timestamp, metrics);
+            }
             
         } catch (Exception e) {
             logger.error("Lỗi khi gửi heartbeat: {}", e.getMessage());
         }
     }
     
+    private void onDelivered() {
+        HeartbeatReplayer current = replayer;
+        if (current != null) {
+            current.onConnected();
+        }
+    }
+    
     /**
-     * Gửi POST request đến server
+     * Lưu heartbeat chưa gửi được vào spool (bản ghi gọn: machineId nằm ở batch khi gửi lại)
      */
-    private void sendPostRequest(String url, String jsonData) {
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpPost httpPost = new HttpPost(url);
-            httpPost.setHeader("Content-Type", "application/json");
-            httpPost.setHeader("X-Machine-Id", machineId);
-            
-            StringEntity entity = new StringEntity(jsonData, StandardCharsets.UTF_8);
-            httpPost.setEntity(entity);
+    private void spool(long timestamp, Map<String, Object> metrics) {
+        HeartbeatReplayer current = replayer;
+        if (current == null) {
+            return;
+        }
+        Map<String, Object> record = new HashMap<>();
+        record.put("timestamp", timestamp);
+        record.put("metrics", metrics);
+        current.store(gson.toJson(record).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Gửi heartbeat dạng frame qua WebSocket
+     * @return false nếu socket không mở hoặc gửi thất bại (cần fallback HTTP)
+     */
+    private boolean sendOverWebSocket(Map<String, Object> payload) {
+        ClientWebSocket ws = webSocket;
+        if (ws == null || !ws.isOpen()) {
+            return false;
+        }
+        try {
+            Map<String, Object> frame = new HashMap<>(payload);
+            frame.put("type", "HEARTBEAT");
+            ws.send(gson.toJson(frame));
+            return true;
+        } catch (Exception e) {
+            logger.warn("Không gửi được heartbeat qua WebSocket, chuyển sang HTTP: {}", e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Gửi POST request đến server qua kết nối HTTP dùng chung
+     * @return Status code của response, 0 nếu không gửi được
+     */
+    private int sendPostRequest(String path, String jsonData) {
+        try {
+            HttpRequest request = httpTransport.request(path)
+                    .header("Content-Type", "application/json")
+                    .header("X-Machine-Id", machineId)
+                    .POST(HttpRequest.BodyPublishers.ofString(jsonData, StandardCharsets.UTF_8))
+                    .build();
             
-            try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
-                int statusCode = response.getStatusLine().getStatusCode();
-                String responseBody = "";
-                try {
-                    if (response.getEntity() != null) {
-                        responseBody = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
-                    }
-                } catch (Exception ignored) {
-                    // ignore parse errors
-                }
+            HttpResponse<String> response = httpTransport.send(request, HttpResponse.BodyHandlers.ofString());
+            int statusCode = response.statusCode();
+            String responseBody = response.body();
 
-                if (statusCode != 200 && statusCode != 201) {
-                    if (responseBody == null || responseBody.isEmpty()) {
-                        logger.warn("Server trả về status code: {}", statusCode);
-                    } else {
-                        logger.warn("Server trả về status code: {}, body: {}", statusCode, responseBody);
-                    }
+            if (statusCode != 200 && statusCode != 201) {
+                if (responseBody == null || responseBody.isEmpty()) {
+                    logger.warn("Server trả về status code: {}", statusCode);
+                } else {
+                    logger.warn("Server trả về status code: {}, body: {}", statusCode, responseBody);
                 }
             }
+            return statusCode;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             logger.error("Lỗi khi gửi POST request: {}", e.getMessage());
         }
+        return 0;
     }
     
     /**
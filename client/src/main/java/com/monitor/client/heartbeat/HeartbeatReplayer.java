@@ -0,0 +1,203 @@
+package com.monitor.client.heartbeat;
+
+import com.google.gson.Gson;
+import com.monitor.client.http.HttpTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gửi lại các heartbeat trong spool lên POST /api/heartbeat/batch khi có kết nối trở lại
+ * - Mỗi batch tối đa MAX_BATCH_RECORDS bản ghi / MAX_BATCH_BYTES, cách nhau BATCH_INTERVAL_MS (giới hạn tốc độ)
+ * - Lần gửi đầu tiên sau khi kết nối lại được trễ ngẫu nhiên để các máy không cùng dồn về server
+ * - Server trả về số bản ghi đã xử lý; lỗi 5xx, lỗi mạng hoặc quá tải thì lùi thời gian thử lại theo cấp số nhân
+ * - Server từ chối nội dung batch (400/413): gửi lại từng bản ghi một để tìm bản ghi hỏng và bỏ nó khỏi spool,
+ *   thay vì thử lại mãi cả batch
+ */
+public class HeartbeatReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatReplayer.class);
+
+    private static final int MAX_BATCH_RECORDS = 100;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+    private static final long BATCH_INTERVAL_MS = 1000;
+    private static final long START_JITTER_MS = 10000;
+    private static final long MIN_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 60000;
+
+    private final HeartbeatSpool spool;
+    private final HttpTransport httpTransport;
+    private final String machineId;
+    private final Gson gson = new Gson();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Heartbeat-Replay");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Được bảo vệ bởi synchronized (this)
+    private boolean scheduled;
+    private long backoffMillis = MIN_BACKOFF_MS;
+    private long retryAt;
+    // Số bản ghi còn phải gửi riêng lẻ sau khi server từ chối một batch (0 = gửi theo batch bình thường)
+    private int isolateRemaining;
+
+    public HeartbeatReplayer(HeartbeatSpool spool, HttpTransport httpTransport, String machineId) {
+        this.spool = spool;
+        this.httpTransport = httpTransport;
+        this.machineId = machineId;
+    }
+
+    /**
+     * Lưu một heartbeat chưa gửi được vào spool
+     */
+    public void store(byte[] record) {
+        if (!spool.append(record)) {
+            logger.warn("Heartbeat quá lớn ({} bytes), không lưu được vào spool", record.length);
+        }
+    }
+
+    /**
+     * Gọi khi gửi heartbeat trực tiếp thành công: bắt đầu gửi lại spool nếu còn bản ghi
+     */
+    public synchronized void onConnected() {
+        if (scheduled || spool.isEmpty()) {
+            return;
+        }
+        long delay = Math.max(ThreadLocalRandom.current().nextLong(START_JITTER_MS + 1),
+                retryAt - System.currentTimeMillis());
+        logger.info("Có {} heartbeat trong spool, gửi lại sau {}ms", spool.size(), delay);
+        schedule(delay);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private synchronized void schedule(long delayMillis) {
+        try {
+            scheduler.schedule(this::replayBatch, delayMillis, TimeUnit.MILLISECONDS);
+            scheduled = true;
+        } catch (RejectedExecutionException e) {
+            scheduled = false;
+        }
+    }
+
+    /**
+     * Gửi một batch (chạy trên thread Heartbeat-Replay)
+     */
+    private void replayBatch() {
+        List<byte[]> records = spool.peek(isolating() ? 1 : MAX_BATCH_RECORDS, MAX_BATCH_BYTES);
+        if (records.isEmpty()) {
+            finish();
+            return;
+        }
+
+        int processed = 0;
+        boolean rejected = false;
+        try {
+            HttpRequest request = httpTransport.request("/api/heartbeat/batch")
+                    .header("Content-Type", "application/json")
+                    .header("X-Machine-Id", machineId)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(buildBody(records)))
+                    .build();
+            HttpResponse<String> response = httpTransport.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200) {
+                Map<?, ?> body = gson.fromJson(response.body(), Map.class);
+                Object value = body != null ? body.get("processed") : null;
+                processed = value instanceof Number ? ((Number) value).intValue() : 0;
+            } else if (response.statusCode() == 400 || response.statusCode() == 413) {
+                rejected = true;
+            } else {
+                logger.warn("Gửi lại heartbeat thất bại. Status code: {}", response.statusCode());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            logger.warn("Lỗi khi gửi lại heartbeat: {}", e.getMessage());
+        }
+
+        synchronized (this) {
+            if (rejected) {
+                if (records.size() > 1) {
+                    // Chưa biết bản ghi nào hỏng: gửi lại lần lượt từng bản ghi của batch này
+                    logger.warn("Server từ chối batch {} heartbeat gửi lại, gửi lại từng bản ghi", records.size());
+                    isolateRemaining = records.size();
+                } else {
+                    String record = new String(records.get(0), StandardCharsets.UTF_8);
+                    logger.warn("Server từ chối heartbeat gửi lại, bỏ khỏi spool ({} bytes): {}", records.get(0).length,
+                            record.length() > 200 ? record.substring(0, 200) + "..." : record);
+                    spool.remove(1);
+                    isolateRemaining = 0;
+                }
+                if (spool.isEmpty()) {
+                    scheduled = false;
+                } else {
+                    schedule(BATCH_INTERVAL_MS);
+                }
+            } else if (processed > 0) {
+                spool.remove(processed);
+                if (isolating()) {
+                    isolateRemaining = Math.max(0, isolateRemaining - processed);
+                }
+                backoffMillis = MIN_BACKOFF_MS;
+                logger.debug("Đã gửi lại {} heartbeat, còn {} trong spool", processed, spool.size());
+                if (spool.isEmpty()) {
+                    logger.info("Đã gửi lại toàn bộ heartbeat trong spool");
+                    scheduled = false;
+                } else {
+                    schedule(BATCH_INTERVAL_MS);
+                }
+            } else {
+                // Thử lại khi heartbeat trực tiếp thành công, sau thời gian lùi
+                retryAt = System.currentTimeMillis() + backoffMillis;
+                backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MS);
+                scheduled = false;
+            }
+        }
+    }
+
+    private synchronized boolean isolating() {
+        return isolateRemaining > 0;
+    }
+
+    private synchronized void finish() {
+        scheduled = false;
+    }
+
+    /**
+     * {"machineId": "...", "samples": [record, record, ...]} - bản ghi đã là JSON, ghép trực tiếp
+     */
+    private byte[] buildBody(List<byte[]> records) {
+        int size = 64;
+        for (byte[] record : records) {
+            size += record.length + 1;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        byte[] prefix = ("{\"machineId\":" + gson.toJson(machineId) + ",\"samples\":[")
+                .getBytes(StandardCharsets.UTF_8);
+        out.write(prefix, 0, prefix.length);
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(records.get(i), 0, records.get(i).length);
+        }
+        out.write(']');
+        out.write('}');
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,271 @@
+package com.monitor.client.heartbeat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Spool heartbeat trên đĩa: lưu các heartbeat chưa gửi được khi mất kết nối tới server
+ * - Một file segment kích thước cố định, được map vào bộ nhớ (MappedByteBuffer)
+ * - Bản ghi chỉ được nối vào cuối; khi hết chỗ, phần chưa gửi được dồn về đầu file,
+ *   nếu vẫn không đủ chỗ thì bỏ các bản ghi cũ nhất
+ * - Mỗi bản ghi có CRC32; khi mở lại file, bản ghi hỏng (ghi dở lúc crash) và phía sau bị cắt bỏ
+ *
+ * Cấu trúc file (big-endian):
+ * <pre>
+ * header: int magic, int version, int capacity, int head, int tail, int count (+ 8 byte dự phòng)
+ * record: int length, int crc32, byte[length] (JSON UTF-8)
+ * </pre>
+ */
+public class HeartbeatSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatSpool.class);
+
+    private static final int MAGIC = 0x48425350; // "HBSP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_HEAD = 12;
+    private static final int OFFSET_TAIL = 16;
+    private static final int OFFSET_COUNT = 20;
+
+    // Kích thước khối khi dồn dữ liệu về đầu file
+    private static final int COMPACT_CHUNK = 64 * 1024;
+
+    private final Path file;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    // Được bảo vệ bởi synchronized (this)
+    private int head;
+    private int tail;
+    private int count;
+    private long dropped;
+
+    /**
+     * Mở (hoặc tạo) file spool
+     * @param capacity Kích thước file (bytes); file cũ khác kích thước sẽ bị tạo lại
+     */
+    public HeartbeatSpool(Path file, int capacity) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean resized = channel.size() != capacity;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        if (resized || !recover()) {
+            reset();
+        }
+        if (count > 0) {
+            logger.info("Spool heartbeat {} còn {} bản ghi chưa gửi", file, count);
+        }
+    }
+
+    /**
+     * Nối một bản ghi vào spool (ghi xuống đĩa trước khi trả về)
+     * @return false nếu bản ghi lớn hơn cả spool
+     */
+    public synchronized boolean append(byte[] record) {
+        int needed = RECORD_HEADER_SIZE + record.length;
+        if (needed > capacity - HEADER_SIZE) {
+            return false;
+        }
+        if (tail + needed > capacity) {
+            // Bỏ bản ghi cũ nhất cho đến khi phần còn lại dồn về đầu file đủ chỗ
+            while (count > 0 && (tail - head) + needed > capacity - HEADER_SIZE) {
+                head += RECORD_HEADER_SIZE + buffer.getInt(head);
+                count--;
+                dropped++;
+            }
+            compact();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        buffer.putInt(tail, record.length);
+        buffer.putInt(tail + 4, (int) crc.getValue());
+        write(tail + RECORD_HEADER_SIZE, record, record.length);
+        tail += needed;
+        count++;
+        writeHeader();
+        buffer.force();
+        return true;
+    }
+
+    /**
+     * Đọc các bản ghi cũ nhất (không xóa)
+     * @param maxRecords Số bản ghi tối đa
+     * @param maxBytes Tổng kích thước tối đa (luôn trả ít nhất 1 bản ghi nếu spool không rỗng)
+     */
+    public synchronized List<byte[]> peek(int maxRecords, int maxBytes) {
+        List<byte[]> records = new ArrayList<>();
+        int position = head;
+        int bytes = 0;
+        for (int i = 0; i < count && records.size() < maxRecords; i++) {
+            int length = buffer.getInt(position);
+            if (!records.isEmpty() && bytes + length > maxBytes) {
+                break;
+            }
+            byte[] record = new byte[length];
+            read(position + RECORD_HEADER_SIZE, record, length);
+            records.add(record);
+            bytes += length;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return records;
+    }
+
+    /**
+     * Xóa n bản ghi cũ nhất (đã gửi thành công)
+     */
+    public synchronized void remove(int n) {
+        int removed = Math.min(n, count);
+        for (int i = 0; i < removed; i++) {
+            head += RECORD_HEADER_SIZE + buffer.getInt(head);
+        }
+        count -= removed;
+        if (count == 0) {
+            head = HEADER_SIZE;
+            tail = HEADER_SIZE;
+        }
+        writeHeader();
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Số bản ghi đã bị bỏ do spool đầy
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Ghi xuống đĩa và đóng file
+     */
+    public synchronized void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Lỗi khi đóng spool heartbeat {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Đọc header và kiểm tra từng bản ghi; cắt bỏ từ bản ghi hỏng đầu tiên
+     * @return false nếu header không hợp lệ
+     */
+    private boolean recover() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(OFFSET_CAPACITY) != capacity) {
+            return false;
+        }
+        int storedHead = buffer.getInt(OFFSET_HEAD);
+        int storedTail = buffer.getInt(OFFSET_TAIL);
+        int storedCount = buffer.getInt(OFFSET_COUNT);
+        if (storedHead < HEADER_SIZE || storedTail < storedHead || storedTail > capacity || storedCount < 0) {
+            return false;
+        }
+
+        head = storedHead;
+        tail = head;
+        count = 0;
+        CRC32 crc = new CRC32();
+        byte[] record = new byte[0];
+        while (count < storedCount && tail + RECORD_HEADER_SIZE <= storedTail) {
+            int length = buffer.getInt(tail);
+            if (length < 0 || tail + RECORD_HEADER_SIZE + length > storedTail) {
+                break;
+            }
+            if (record.length < length) {
+                record = new byte[length];
+            }
+            read(tail + RECORD_HEADER_SIZE, record, length);
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(tail + 4)) {
+                break;
+            }
+            tail += RECORD_HEADER_SIZE + length;
+            count++;
+        }
+        if (count != storedCount) {
+            logger.warn("Spool heartbeat {}: bỏ {} bản ghi hỏng", file, storedCount - count);
+            writeHeader();
+        }
+        return true;
+    }
+
+    private void reset() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(OFFSET_CAPACITY, capacity);
+        head = HEADER_SIZE;
+        tail = HEADER_SIZE;
+        count = 0;
+        writeHeader();
+        buffer.force();
+    }
+
+    /**
+     * Dồn các bản ghi chưa gửi [head, tail) về đầu vùng dữ liệu
+     * Sao chép theo từng khối từ đầu đến cuối: đích luôn nằm trước nguồn nên không ghi đè dữ liệu chưa đọc
+     */
+    private void compact() {
+        if (head == HEADER_SIZE) {
+            return;
+        }
+        int length = tail - head;
+        byte[] chunk = new byte[Math.min(COMPACT_CHUNK, Math.max(length, 1))];
+        for (int copied = 0; copied < length; copied += chunk.length) {
+            int size = Math.min(chunk.length, length - copied);
+            read(head + copied, chunk, size);
+            write(HEADER_SIZE + copied, chunk, size);
+        }
+        head = HEADER_SIZE;
+        tail = HEADER_SIZE + length;
+        writeHeader();
+    }
+
+    private void read(int position, byte[] dst, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(dst, 0, length);
+    }
+
+    private void write(int position, byte[] src, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.put(src, 0, length);
+    }
+
+    private void writeHeader() {
+        buffer.putInt(OFFSET_HEAD, head);
+        buffer.putInt(OFFSET_TAIL, tail);
+        buffer.putInt(OFFSET_COUNT, count);
+    }
+}
@@ -0,0 +1,111 @@
+package com.monitor.client.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kết nối HTTP dùng chung cho toàn bộ client (đăng ký, heartbeat, upload ảnh màn hình)
+ * - Một HttpClient duy nhất: kết nối được giữ trong pool và dùng lại (keep-alive)
+ * - HTTP/2 khi server dùng https (thương lượng qua ALPN), HTTP/1.1 với http thường
+ *   (server không hỗ trợ nâng cấp h2c, tránh thêm header Upgrade cho mỗi kết nối mới)
+ * - Giới hạn số request đồng thời, có timeout kết nối và timeout request
+ */
+public class HttpTransport {
+
+    private static final int DEFAULT_MAX_CONCURRENT = 4;
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(15);
+
+    private final String serverUrl;
+    private final Duration requestTimeout;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    public HttpTransport(String serverUrl) {
+        this(serverUrl, DEFAULT_MAX_CONCURRENT, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param serverUrl URL gốc của server (không có '/' ở cuối)
+     * @param maxConcurrent Số request được gửi đồng thời tối đa
+     * @param connectTimeout Timeout khi mở kết nối mới
+     * @param requestTimeout Timeout mặc định của một request (request có thể đặt riêng)
+     */
+    public HttpTransport(String serverUrl, int maxConcurrent, Duration connectTimeout, Duration requestTimeout) {
+        this.serverUrl = serverUrl;
+        this.requestTimeout = requestTimeout;
+        this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrent), r -> {
+            Thread t = new Thread(r, "Http-Transport-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(serverUrl.startsWith("https://") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    /**
+     * Tạo request tới đường dẫn trên server với timeout mặc định
+     * @param path Đường dẫn bắt đầu bằng '/', ví dụ "/api/heartbeat"
+     */
+    public HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(serverUrl + path))
+                .timeout(requestTimeout);
+    }
+
+    /**
+     * POST body JSON và đọc response dạng chuỗi
+     */
+    public HttpResponse<String> postJson(String path, String json) throws IOException, InterruptedException {
+        HttpRequest request = request(path)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Gửi request qua kết nối dùng chung
+     * Chờ tối đa bằng timeout request nếu đã đủ số request đồng thời
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        long waitMillis = request.timeout().orElse(requestTimeout).toMillis();
+        if (!permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Quá nhiều request HTTP đồng thời, bỏ qua " + request.uri());
+        }
+        try {
+            return client.send(request, handler);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Dừng các thread của transport (kết nối trong pool được đóng theo)
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,165 @@
+package com.monitor.client.monitor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import oshi.hardware.CentralProcessor;
+import oshi.hardware.CentralProcessor.TickType;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lấy mẫu CPU ticks ở background theo chu kỳ cố định
+ * - Mỗi lần lấy mẫu ghi ticks tổng và ticks từng core vào ring buffer nhỏ
+ * - CPU usage được tính ngay từ chênh lệch giữa các mẫu đã lưu, không phải sleep chờ đo lần 2
+ */
+public class CpuTickSampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(CpuTickSampler.class);
+
+    private final CentralProcessor processor;
+    private final long periodMillis;
+
+    // Ring buffer, được bảo vệ bởi synchronized (this)
+    private final Sample[] samples;
+    private int head;   // Vị trí sẽ ghi mẫu tiếp theo
+    private int count;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param periodMillis Chu kỳ lấy mẫu
+     * @param capacity Số mẫu giữ lại (cửa sổ tối đa = periodMillis * (capacity - 1))
+     */
+    public CpuTickSampler(CentralProcessor processor, long periodMillis, int capacity) {
+        this.processor = processor;
+        this.periodMillis = periodMillis;
+        this.samples = new Sample[Math.max(2, capacity)];
+    }
+
+    /**
+     * Bắt đầu lấy mẫu (mẫu đầu tiên được lấy ngay trên thread gọi)
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        sample();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Cpu-Sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::sample, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Dừng lấy mẫu
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * CPU load tổng trong khoảng thời gian gần nhất
+     * @param windowMillis Độ dài cửa sổ mong muốn (dùng mẫu cũ nhất nếu buffer chưa đủ dài)
+     * @return 0.0 - 1.0
+     */
+    public double getSystemCpuLoad(long windowMillis) {
+        Sample[] pair = samplePair(windowMillis);
+        return load(pair[0].ticks, pair[1].ticks);
+    }
+
+    /**
+     * CPU load của từng core trong khoảng thời gian gần nhất
+     * @return Mảng 0.0 - 1.0 theo thứ tự core
+     */
+    public double[] getProcessorCpuLoad(long windowMillis) {
+        Sample[] pair = samplePair(windowMillis);
+        long[][] older = pair[0].procTicks;
+        long[][] newer = pair[1].procTicks;
+        double[] loads = new double[newer.length];
+        for (int i = 0; i < loads.length && i < older.length; i++) {
+            loads[i] = load(older[i], newer[i]);
+        }
+        return loads;
+    }
+
+    /**
+     * Ghi một mẫu mới vào ring buffer (chạy trên thread Cpu-Sampler)
+     */
+    private void sample() {
+        try {
+            Sample sample = new Sample(System.nanoTime(), processor.getSystemCpuLoadTicks(),
+                    processor.getProcessorCpuLoadTicks());
+            synchronized (this) {
+                samples[head] = sample;
+                head = (head + 1) % samples.length;
+                count = Math.min(count + 1, samples.length);
+            }
+        } catch (Exception e) {
+            // Không để exception hủy lịch lấy mẫu
+            logger.debug("Lỗi khi lấy mẫu CPU ticks: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Chọn cặp {mẫu cũ, mẫu mới nhất} cách nhau ít nhất windowMillis
+     * Khi chưa có đủ 2 mẫu: đọc ticks hiện tại làm mẫu mới (không chờ)
+     */
+    private Sample[] samplePair(long windowMillis) {
+        synchronized (this) {
+            if (count >= 2) {
+                Sample newest = samples[index(0)];
+                long windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                Sample older = samples[index(1)];
+                for (int back = 2; back < count && newest.nanos - older.nanos < windowNanos; back++) {
+                    older = samples[index(back)];
+                }
+                return new Sample[] { older, newest };
+            }
+        }
+        Sample current = new Sample(System.nanoTime(), processor.getSystemCpuLoadTicks(),
+                processor.getProcessorCpuLoadTicks());
+        synchronized (this) {
+            Sample older = count > 0 ? samples[index(0)] : current;
+            return new Sample[] { older, current };
+        }
+    }
+
+    /**
+     * Vị trí của mẫu thứ back tính từ mẫu mới nhất (0 = mới nhất)
+     */
+    private int index(int back) {
+        return (head - 1 - back + 2 * samples.length) % samples.length;
+    }
+
+    /**
+     * Tỉ lệ thời gian bận giữa hai lần đọc ticks (idle gồm cả IOWAIT, giống OSHI)
+     */
+    private static double load(long[] older, long[] newer) {
+        long total = 0;
+        for (int i = 0; i < newer.length && i < older.length; i++) {
+            total += newer[i] - older[i];
+        }
+        long idle = newer[TickType.IDLE.getIndex()] - older[TickType.IDLE.getIndex()]
+                + newer[TickType.IOWAIT.getIndex()] - older[TickType.IOWAIT.getIndex()];
+        return total > 0 && idle >= 0 ? Math.max(0.0, Math.min(1.0, (double) (total - idle) / total)) : 0.0;
+    }
+
+    private static final class Sample {
+        final long nanos;
+        final long[] ticks;
+        final long[][] procTicks;
+
+        Sample(long nanos, long[] ticks, long[][] procTicks) {
+            this.nanos = nanos;
+            this.ticks = ticks;
+            this.procTicks = procTicks;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.monitor.client.monitor;
+
+import oshi.software.os.OSProcess;
+import oshi.software.os.OperatingSystem;
+import oshi.util.FormatUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Theo dõi các process dùng CPU nhiều nhất
+ * - Giữ thời gian CPU (kernel + user) của lần đọc trước theo PID, CPU usage là phần tăng thêm trong khoảng đó
+ * - Chọn top N bằng min-heap kích thước N, không sắp xếp toàn bộ danh sách process
+ * - Bảng process chỉ được đọc lại sau mỗi refreshInterval, các heartbeat ở giữa dùng kết quả đã tính
+ */
+public class ProcessTracker {
+
+    private static final Comparator<Candidate> BY_LOAD = Comparator
+            .comparingDouble((Candidate c) -> c.load)
+            .thenComparingLong(c -> c.process.getResidentSetSize());
+
+    private final OperatingSystem os;
+    private final int logicalProcessors;
+    private final long refreshIntervalNanos;
+
+    // Được bảo vệ bởi synchronized (this)
+    private Map<Integer, CpuTime> previous = new HashMap<>();
+    private long previousAt;
+    private List<Map<String, Object>> topProcesses = Collections.emptyList();
+    private int topN;
+
+    /**
+     * @param logicalProcessors Số CPU logic (CPU usage tính theo % toàn máy)
+     * @param refreshIntervalMillis Khoảng thời gian tối thiểu giữa hai lần đọc bảng process
+     */
+    public ProcessTracker(OperatingSystem os, int logicalProcessors, long refreshIntervalMillis) {
+        this.os = os;
+        this.logicalProcessors = Math.max(1, logicalProcessors);
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis);
+    }
+
+    /**
+     * Top N process theo CPU usage trong khoảng giữa hai lần đọc bảng process gần nhất
+     */
+    public synchronized List<Map<String, Object>> getTopProcesses(int topN) {
+        long now = System.nanoTime();
+        if (previousAt == 0 || topN != this.topN || now - previousAt >= refreshIntervalNanos) {
+            refresh(topN, now);
+        }
+        return topProcesses;
+    }
+
+    private void refresh(int topN, long now) {
+        List<OSProcess> processes = os.getProcesses(null, null, 0);
+        Map<Integer, CpuTime> current = new HashMap<>(processes.size() * 2);
+        double elapsedMillis = previousAt > 0 ? (now - previousAt) / 1_000_000.0 : 0;
+
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(topN + 1, BY_LOAD);
+        for (OSProcess process : processes) {
+            long cpuTime = process.getKernelTime() + process.getUserTime();
+            CpuTime time = new CpuTime(process.getStartTime(), cpuTime);
+            current.put(process.getProcessID(), time);
+
+            CpuTime last = previous.get(process.getProcessID());
+            double load;
+            if (last != null && last.startTime == time.startTime && elapsedMillis > 0) {
+                load = Math.max(0, cpuTime - last.cpuTime) / elapsedMillis;
+            } else {
+                // Lần đọc đầu tiên hoặc process mới: trung bình từ khi process khởi động
+                long upTime = process.getUpTime();
+                load = upTime > 0 ? (double) cpuTime / upTime : 0;
+            }
+
+            Candidate candidate = new Candidate(process, Math.min(load / logicalProcessors, 1.0));
+            if (heap.size() < topN) {
+                heap.add(candidate);
+            } else if (topN > 0 && BY_LOAD.compare(candidate, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+        previous = current;
+        previousAt = now;
+
+        List<Candidate> top = new ArrayList<>(heap);
+        top.sort(BY_LOAD.reversed());
+        List<Map<String, Object>> result = new ArrayList<>(top.size());
+        for (Candidate candidate : top) {
+            OSProcess process = candidate.process;
+            Map<String, Object> proc = new HashMap<>();
+            proc.put("pid", process.getProcessID());
+            proc.put("name", process.getName());
+            proc.put("cpuUsage", Math.round(candidate.load * 10000.0) / 100.0);
+            proc.put("memoryUsage", process.getResidentSetSize());
+            proc.put("memoryUsageFormatted", FormatUtil.formatBytes(process.getResidentSetSize()));
+            proc.put("state", process.getState().toString());
+            result.add(proc);
+        }
+        topProcesses = Collections.unmodifiableList(result);
+        this.topN = topN;
+    }
+
+    private static final class CpuTime {
+        final long startTime;
+        final long cpuTime;
+
+        CpuTime(long startTime, long cpuTime) {
+            this.startTime = startTime;
+            this.cpuTime = cpuTime;
+        }
+    }
+
+    private static final class Candidate {
+        final OSProcess process;
+        final double load;
+
+        Candidate(OSProcess process, double load) {
+            this.process = process;
+            this.load = load;
+        }
+    }
+}
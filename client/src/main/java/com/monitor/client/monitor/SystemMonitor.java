@@ -5,11 +5,9 @@ import oshi.hardware.CentralProcessor;
 import oshi.hardware.GlobalMemory;
 import oshi.hardware.HardwareAbstractionLayer;
 import oshi.software.os.OperatingSystem;
-import oshi.software.os.OSProcess;
 import oshi.util.FormatUtil;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Lớp thu thập thông tin hệ thống sử dụng OSHI
@@ -23,9 +21,18 @@ public class SystemMonitor {
     private CentralProcessor processor;
     private GlobalMemory memory;
 
-    // Lưu trữ giá trị CPU trước đó để tính toán usage
-    private long[] prevTicks;
-    private long[][] prevProcTicks;
+    // Chu kỳ lấy mẫu CPU ticks ở background và số mẫu giữ lại (~10 giây)
+    private static final long CPU_SAMPLE_PERIOD_MS = 500;
+    private static final int CPU_SAMPLE_CAPACITY = 21;
+    // Cửa sổ tính CPU usage (tương đương phép đo 1 giây trước đây)
+    private static final long CPU_LOAD_WINDOW_MS = 1000;
+
+    // Lấy mẫu ticks ở background để tính CPU usage không cần sleep
+    private final CpuTickSampler cpuSampler;
+
+    // Bảng process được đọc lại thưa hơn heartbeat (CPU/RAM)
+    private static final long PROCESS_REFRESH_MS = 15000;
+    private final ProcessTracker processTracker;
 
     public SystemMonitor() {
         this.systemInfo = new SystemInfo();
@@ -33,8 +40,16 @@ public class SystemMonitor {
         this.os = systemInfo.getOperatingSystem();
         this.processor = hal.getProcessor();
         this.memory = hal.getMemory();
-        this.prevTicks = processor.getSystemCpuLoadTicks();
-        this.prevProcTicks = processor.getProcessorCpuLoadTicks();
+        this.cpuSampler = new CpuTickSampler(processor, CPU_SAMPLE_PERIOD_MS, CPU_SAMPLE_CAPACITY);
+        this.cpuSampler.start();
+        this.processTracker = new ProcessTracker(os, processor.getLogicalProcessorCount(), PROCESS_REFRESH_MS);
+    }
+
+    /**
+     * Dừng thread lấy mẫu CPU
+     */
+    public void shutdown() {
+        cpuSampler.stop();
     }
 
     /**
@@ -74,32 +89,18 @@ public class SystemMonitor {
     public Map<String, Object> collectCpuMetrics() {
         Map<String, Object> cpuData = new HashMap<>();
 
-        try {
-            // CPU Usage tổng (tính theo %)
-            // OSHI cần 2 lần đo cách nhau ít nhất 500ms
-            long[] firstTicks = processor.getSystemCpuLoadTicks();
-            Thread.sleep(1000); // Đợi 1 giây
-            long[] secondTicks = processor.getSystemCpuLoadTicks();
-            double cpuUsage = processor.getSystemCpuLoadBetweenTicks(firstTicks) * 100;
-            prevTicks = secondTicks;
-
-            cpuData.put("totalUsage", Math.round(cpuUsage * 100.0) / 100.0);
-
-            // CPU Usage theo từng core
-            long[][] firstProcTicks = processor.getProcessorCpuLoadTicks();
-            double[] loadPerCore = processor.getProcessorCpuLoadBetweenTicks(prevProcTicks);
-            prevProcTicks = firstProcTicks;
-            List<Double> coreUsages = new ArrayList<>();
-            for (double load : loadPerCore) {
-                coreUsages.add(Math.round(load * 10000.0) / 100.0);
-            }
-            cpuData.put("coreUsages", coreUsages);
-            cpuData.put("coreCount", processor.getLogicalProcessorCount());
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            cpuData.put("totalUsage", 0.0);
-            cpuData.put("coreCount", processor.getLogicalProcessorCount());
+        // CPU Usage tổng (tính theo %) từ các mẫu ticks đã lấy ở background
+        double cpuUsage = cpuSampler.getSystemCpuLoad(CPU_LOAD_WINDOW_MS) * 100;
+        cpuData.put("totalUsage", Math.round(cpuUsage * 100.0) / 100.0);
+
+        // CPU Usage theo từng core
+        double[] loadPerCore = cpuSampler.getProcessorCpuLoad(CPU_LOAD_WINDOW_MS);
+        List<Double> coreUsages = new ArrayList<>();
+        for (double load : loadPerCore) {
+            coreUsages.add(Math.round(load * 10000.0) / 100.0);
         }
+        cpuData.put("coreUsages", coreUsages);
+        cpuData.put("coreCount", processor.getLogicalProcessorCount());
 
         return cpuData;
     }
@@ -240,34 +241,7 @@ public class SystemMonitor {
      * @return List các process
      */
     public List<Map<String, Object>> collectTopProcesses(int topN) {
-        List<OSProcess> processes = os.getProcesses(
-                null,
-                null,
-                0);
-
-        // Sắp xếp theo CPU usage giảm dần
-        List<OSProcess> sortedProcesses = processes.stream()
-                .sorted((p1, p2) -> Double.compare(
-                        p2.getProcessCpuLoadBetweenTicks(p1),
-                        p1.getProcessCpuLoadBetweenTicks(p2)))
-                .limit(topN)
-                .collect(Collectors.toList());
-
-        List<Map<String, Object>> topProcesses = new ArrayList<>();
-
-        for (OSProcess process : sortedProcesses) {
-            Map<String, Object> proc = new HashMap<>();
-            proc.put("pid", process.getProcessID());
-            proc.put("name", process.getName());
-            proc.put("cpuUsage", Math.round(process.getProcessCpuLoadCumulative() * 10000.0) / 100.0);
-            proc.put("memoryUsage", process.getResidentSetSize());
-            proc.put("memoryUsageFormatted", FormatUtil.formatBytes(process.getResidentSetSize()));
-            proc.put("state", process.getState().toString());
-
-            topProcesses.add(proc);
-        }
-
-        return topProcesses;
+        return processTracker.getTopProcesses(topN);
     }
 
     /**
@@ -276,9 +250,6 @@ public class SystemMonitor {
      * @return CPU usage percentage
      */
     public double getCurrentCpuUsage() {
-        long[] currentTicks = processor.getSystemCpuLoadTicks();
-        double cpuUsage = processor.getSystemCpuLoadBetweenTicks(prevTicks) * 100;
-        prevTicks = currentTicks;
-        return cpuUsage;
+        return cpuSampler.getSystemCpuLoad(CPU_LOAD_WINDOW_MS) * 100;
     }
 }
@@ -1,6 +1,8 @@
 package com.monitor.client.monitor;
 
 import com.google.gson.Gson;
+import com.monitor.client.http.HttpTransport;
+import com.monitor.client.websocket.ClientWebSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import oshi.SystemInfo;
@@ -11,10 +13,7 @@ import oshi.software.os.FileSystem;
 import oshi.software.os.OSFileStore;
 import oshi.software.os.OperatingSystem;
 
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,21 +24,26 @@ public class SystemMonitorThread extends Thread {
 
     private static final Logger logger = LoggerFactory.getLogger(SystemMonitorThread.class);
 
-    private final String serverUrl;
+    private final HttpTransport httpTransport;
     private final String machineId;
     private volatile boolean running = true;
     private final int intervalSeconds;
+    private final Gson gson = new Gson();
+
+    // WebSocket đang mở để gửi metrics (null = chỉ dùng HTTP)
+    private volatile ClientWebSocket webSocket;
 
     private SystemInfo systemInfo;
     private HardwareAbstractionLayer hardware;
     private CentralProcessor processor;
     private GlobalMemory memory;
     private OperatingSystem os;
+    private CpuTickSampler cpuSampler;
 
-    public SystemMonitorThread(String serverUrl, String machineId, int intervalSeconds) {
+    public SystemMonitorThread(HttpTransport httpTransport, String machineId, int intervalSeconds) {
         super("SystemMonitor");
         setDaemon(true);
-        this.serverUrl = serverUrl;
+        this.httpTransport = httpTransport;
         this.machineId = machineId;
         this.intervalSeconds = intervalSeconds;
 
@@ -50,14 +54,25 @@ public class SystemMonitorThread extends Thread {
             processor = hardware.getProcessor();
             memory = hardware.getMemory();
             os = systemInfo.getOperatingSystem();
+            cpuSampler = new CpuTickSampler(processor, 500, 21);
         } catch (Exception e) {
             logger.error("Lỗi khi khởi tạo OSHI: {}", e.getMessage(), e);
         }
     }
 
+    /**
+     * Gắn WebSocket để gửi metrics qua socket đang mở
+     */
+    public void setWebSocket(ClientWebSocket webSocket) {
+        this.webSocket = webSocket;
+    }
+
     @Override
     public void run() {
         logger.info("Bắt đầu giám sát hệ thống (mỗi {} giây)", intervalSeconds);
+        if (cpuSampler != null) {
+            cpuSampler.start();
+        }
 
         while (running) {
             try {
@@ -78,6 +93,9 @@ public class SystemMonitorThread extends Thread {
             }
         }
 
+        if (cpuSampler != null) {
+            cpuSampler.stop();
+        }
         logger.info("Dừng giám sát hệ thống");
     }
 
@@ -90,7 +108,8 @@ public class SystemMonitorThread extends Thread {
         try {
             // CPU metrics
             Map<String, Object> cpuData = new HashMap<>();
-            double cpuLoad = processor.getSystemCpuLoad(1000) * 100;
+            // Tính từ mẫu ticks lấy ở background, không chặn thread 1 giây
+            double cpuLoad = cpuSampler.getSystemCpuLoad(1000) * 100;
             cpuData.put("totalUsage", Math.round(cpuLoad * 100.0) / 100.0);
             cpuData.put("coreCount", processor.getLogicalProcessorCount());
             metrics.put("cpu", cpuData);
@@ -136,23 +155,24 @@ public class SystemMonitorThread extends Thread {
      * Gửi metrics về server qua WebSocket hoặc HTTP
      */
     private void sendMetrics(Map<String, Object> metrics) {
-        try {
-            HttpClient client = HttpClient.newHttpClient();
-            Gson gson = new Gson();
+        Map<String, Object> request = new HashMap<>();
+        request.put("machineId", machineId);
+        request.put("metrics", metrics);
 
-            Map<String, Object> request = new HashMap<>();
-            request.put("machineId", machineId);
-            request.put("metrics", metrics);
-
-            String json = gson.toJson(request);
-
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(serverUrl + "/api/heartbeat"))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
+        ClientWebSocket ws = webSocket;
+        if (ws != null && ws.isOpen()) {
+            try {
+                Map<String, Object> frame = new HashMap<>(request);
+                frame.put("type", "HEARTBEAT");
+                ws.send(gson.toJson(frame));
+                return;
+            } catch (Exception e) {
+                logger.warn("Không gửi được metrics qua WebSocket, chuyển sang HTTP: {}", e.getMessage());
+            }
+        }
 
-            HttpResponse<String> response = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+        try {
+            HttpResponse<String> response = httpTransport.postJson("/api/heartbeat", gson.toJson(request));
 
             if (response.statusCode() != 200) {
                 logger.warn("Gửi metrics thất bại. Status code: {}", response.statusCode());
@@ -0,0 +1,126 @@
+package com.monitor.client.screen;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Nén ảnh màn hình theo tham số của lệnh SCREEN_CAPTURE (định dạng, chất lượng, chiều rộng tối đa)
+ * - ImageWriter của mỗi định dạng được tạo một lần và dùng lại
+ * - Ảnh được ghi vào buffer giữ lại giữa các lần chụp (chỉ cấp phát lại khi ảnh lớn hơn lần trước)
+ * Không thread-safe: các lần chụp được thực hiện lần lượt
+ */
+public class ScreenEncoder {
+
+    // Dung lượng ban đầu của buffer
+    private static final int INITIAL_BUFFER_SIZE = 512 * 1024;
+
+    private final Map<String, ImageWriter> writers = new HashMap<>();
+    private final Buffer buffer = new Buffer(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Định dạng thực sự được dùng: WEBP cần plugin ImageIO, không có thì dùng JPEG
+     */
+    public String resolveFormat(String format) {
+        String name = format != null ? format.trim().toUpperCase() : "JPEG";
+        if ("JPG".equals(name)) {
+            name = "JPEG";
+        }
+        return writerFor(name) != null ? name : "JPEG";
+    }
+
+    /**
+     * Thu nhỏ ảnh về chiều rộng tối đa (giữ tỉ lệ), mỗi bước giảm tối đa một nửa để chữ còn đọc được
+     * @param maxWidth <= 0: giữ nguyên
+     */
+    public BufferedImage downscale(BufferedImage image, int maxWidth) {
+        if (maxWidth <= 0 || image.getWidth() <= maxWidth) {
+            return image;
+        }
+        int targetHeight = Math.max(1, (int) Math.round((double) image.getHeight() * maxWidth / image.getWidth()));
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage current = image;
+        do {
+            width = Math.max(width / 2, maxWidth);
+            height = Math.max(height / 2, targetHeight);
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = scaled;
+        } while (width != maxWidth || height != targetHeight);
+        return current;
+    }
+
+    /**
+     * Nén ảnh vào buffer dùng chung
+     * @param format Định dạng đã qua resolveFormat
+     * @param quality 0.0 - 1.0 (bỏ qua nếu định dạng không hỗ trợ)
+     * @return Số byte đã ghi, nội dung nằm trong getBuffer()
+     */
+    public int encode(BufferedImage image, String format, float quality) throws IOException {
+        ImageWriter writer = writerFor(format);
+        if (writer == null) {
+            throw new IOException("Không có ImageWriter cho định dạng " + format);
+        }
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (param.getCompressionType() == null && param.getCompressionTypes() != null) {
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            }
+            param.setCompressionQuality(Math.max(0f, Math.min(quality, 1f)));
+        }
+
+        buffer.reset();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(buffer)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.setOutput(null);
+        }
+        return buffer.size();
+    }
+
+    /**
+     * Buffer chứa ảnh vừa nén (chỉ hợp lệ đến lần encode tiếp theo)
+     */
+    public byte[] getBuffer() {
+        return buffer.array();
+    }
+
+    private ImageWriter writerFor(String format) {
+        return writers.computeIfAbsent(format, name -> {
+            Iterator<ImageWriter> iterator = ImageIO.getImageWritersByFormatName(name);
+            return iterator.hasNext() ? iterator.next() : null;
+        });
+    }
+
+    /**
+     * ByteArrayOutputStream cho phép đọc mảng bên trong, không sao chép
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.monitor.client.screen;
+
+import com.monitor.client.websocket.ClientWebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream màn hình trực tiếp qua WebSocket (lệnh STREAM_START / STREAM_STOP)
+ * - Chụp màn hình theo số khung hình/giây yêu cầu
+ * - Chia khung hình thành các tile vuông, chỉ gửi tile có nội dung thay đổi (so hash với lần gửi trước)
+ * - Tile được nén JPEG và gửi dạng message binary, server chuyển tiếp cho người xem mà không lưu
+ *
+ * Định dạng message (big-endian):
+ * <pre>
+ * byte  'S'            byte  version (1)     byte flags (bit 0 = keyframe: vẽ lại toàn bộ)
+ * int   seq            short screenWidth     short screenHeight
+ * short tileSize       short tileCount
+ * tileCount x { short col, short row, int length, byte[length] JPEG }
+ * </pre>
+ */
+public class ScreenStreamer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScreenStreamer.class);
+
+    private static final byte FRAME_MAGIC = 'S';
+    private static final byte FRAME_VERSION = 1;
+    private static final int FLAG_KEYFRAME = 1;
+    private static final int HEADER_SIZE = 15;
+    private static final int TILE_HEADER_SIZE = 8;
+
+    // Server giới hạn message binary 512KB: khung hình lớn được chia thành nhiều message
+    private static final int MAX_MESSAGE_BYTES = 256 * 1024;
+
+    private static final int MAX_FPS = 15;
+    private static final int MIN_TILE_SIZE = 32;
+    private static final int MAX_TILE_SIZE = 512;
+
+    // WebSocket dùng chung với kênh nhận lệnh
+    private volatile ClientWebSocket webSocket;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Screen-Stream");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Được bảo vệ bởi synchronized (this)
+    private ScheduledFuture<?> task;
+    private StreamState current;
+
+    /**
+     * Gắn WebSocket để gửi khung hình
+     */
+    public void setWebSocket(ClientWebSocket webSocket) {
+        this.webSocket = webSocket;
+    }
+
+    /**
+     * Bắt đầu stream (gọi lại khi đang stream: áp dụng cấu hình mới và gửi lại toàn bộ khung hình)
+     */
+    public synchronized void start(int fps, float quality, int tileSize) {
+        stop();
+        int frameRate = Math.max(1, Math.min(fps, MAX_FPS));
+        StreamState state = new StreamState(Math.max(0.1f, Math.min(quality, 1.0f)),
+                Math.max(MIN_TILE_SIZE, Math.min(tileSize, MAX_TILE_SIZE)));
+        current = state;
+        task = scheduler.scheduleWithFixedDelay(() -> captureFrame(state), 0, 1000 / frameRate,
+                TimeUnit.MILLISECONDS);
+        logger.info("Bắt đầu stream màn hình: {} fps, tile {}px, chất lượng {}", frameRate, state.tileSize,
+                state.quality);
+    }
+
+    /**
+     * Dừng stream
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+            StreamState state = current;
+            current = null;
+            // Giải phóng trên thread stream, sau lần chụp đang chạy (nếu có)
+            scheduler.execute(() -> {
+                state.dispose();
+                logger.info("Đã dừng stream màn hình ({} khung hình đã gửi, {} bỏ qua do mạng chậm)",
+                        state.sentFrames, state.skippedFrames);
+            });
+        }
+    }
+
+    public synchronized boolean isStreaming() {
+        return task != null;
+    }
+
+    /**
+     * Chụp một khung hình và gửi các tile thay đổi (chạy trên thread Screen-Stream)
+     */
+    private void captureFrame(StreamState state) {
+        ClientWebSocket ws = webSocket;
+        if (ws == null || !ws.isOpen()) {
+            logger.info("WebSocket không mở, dừng stream màn hình");
+            stopIfCurrent(state);
+            return;
+        }
+        // Socket còn dữ liệu chưa gửi hết: bỏ khung hình này, tile thay đổi sẽ đi trong khung hình sau
+        if (ws.hasBufferedData()) {
+            state.skippedFrames++;
+            return;
+        }
+
+        try {
+            if (state.robot == null) {
+                state.robot = new Robot();
+            }
+            Rectangle screenRect = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
+            BufferedImage image = toIntRgb(state.robot.createScreenCapture(screenRect));
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int tileSize = state.tileSize;
+            int cols = (width + tileSize - 1) / tileSize;
+            int rows = (height + tileSize - 1) / tileSize;
+
+            // Lần đầu hoặc đổi độ phân giải: gửi toàn bộ
+            boolean keyframe = state.tileHashes == null || state.width != width || state.height != height;
+            if (keyframe) {
+                state.tileHashes = new long[cols * rows];
+                state.width = width;
+                state.height = height;
+            }
+
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            List<byte[]> tiles = new ArrayList<>();
+            long[] newHashes = new long[cols * rows];
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    int x = col * tileSize;
+                    int y = row * tileSize;
+                    int w = Math.min(tileSize, width - x);
+                    int h = Math.min(tileSize, height - y);
+                    int index = row * cols + col;
+                    newHashes[index] = hashTile(pixels, width, x, y, w, h);
+                    if (keyframe || newHashes[index] != state.tileHashes[index]) {
+                        tiles.add(encodeTile(state, image.getSubimage(x, y, w, h), col, row));
+                    }
+                }
+            }
+
+            if (tiles.isEmpty()) {
+                return;
+            }
+            send(ws, state, tiles, keyframe);
+            // Chỉ ghi nhận hash sau khi gửi thành công
+            state.tileHashes = newHashes;
+            state.sentFrames++;
+        } catch (Exception e) {
+            logger.error("Lỗi khi stream màn hình: {}", e.getMessage(), e);
+            stopIfCurrent(state);
+        }
+    }
+
+    private synchronized void stopIfCurrent(StreamState state) {
+        if (current == state) {
+            stop();
+        }
+    }
+
+    /**
+     * Ghép các tile thành message không vượt MAX_MESSAGE_BYTES
+     */
+    private void send(ClientWebSocket ws, StreamState state, List<byte[]> tiles, boolean keyframe) {
+        int seq = ++state.seq;
+        int start = 0;
+        boolean first = true;
+        while (start < tiles.size()) {
+            int size = HEADER_SIZE;
+            int end = start;
+            while (end < tiles.size() && (end == start || size + tiles.get(end).length <= MAX_MESSAGE_BYTES)) {
+                size += tiles.get(end).length;
+                end++;
+            }
+
+            ByteBuffer message = ByteBuffer.allocate(size);
+            message.put(FRAME_MAGIC);
+            message.put(FRAME_VERSION);
+            message.put((byte) (keyframe && first ? FLAG_KEYFRAME : 0));
+            message.putInt(seq);
+            message.putShort((short) state.width);
+            message.putShort((short) state.height);
+            message.putShort((short) state.tileSize);
+            message.putShort((short) (end - start));
+            for (int i = start; i < end; i++) {
+                message.put(tiles.get(i));
+            }
+            message.flip();
+            ws.send(message);
+
+            start = end;
+            first = false;
+        }
+    }
+
+    /**
+     * Nén một tile thành bản ghi {col, row, length, JPEG}
+     */
+    private byte[] encodeTile(StreamState state, BufferedImage tile, int col, int row) throws IOException {
+        ByteArrayOutputStream out = state.buffer;
+        out.reset();
+        out.write(new byte[TILE_HEADER_SIZE]);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            state.writer.setOutput(output);
+            state.writer.write(null, new IIOImage(tile, null, null), state.writeParam);
+        }
+        byte[] record = out.toByteArray();
+        ByteBuffer.wrap(record)
+                .putShort((short) col)
+                .putShort((short) row)
+                .putInt(record.length - TILE_HEADER_SIZE);
+        return record;
+    }
+
+    /**
+     * Hash FNV-1a trên các pixel của tile
+     */
+    private static long hashTile(int[] pixels, int stride, int x, int y, int w, int h) {
+        long hash = 0xcbf29ce484222325L;
+        for (int row = y; row < y + h; row++) {
+            int offset = row * stride + x;
+            for (int i = offset; i < offset + w; i++) {
+                hash = (hash ^ pixels[i]) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Robot thường trả ảnh TYPE_INT_RGB; chuyển đổi nếu khác để đọc pixel trực tiếp
+     */
+    private static BufferedImage toIntRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+            return image;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = converted.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return converted;
+    }
+
+    /**
+     * Trạng thái của một lần stream, chỉ được truy cập trên thread Screen-Stream
+     */
+    private static final class StreamState {
+        final float quality;
+        final int tileSize;
+        final ImageWriter writer;
+        final ImageWriteParam writeParam;
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 * 1024);
+
+        Robot robot;
+        long[] tileHashes;
+        int width;
+        int height;
+        int seq;
+        long sentFrames;
+        long skippedFrames;
+
+        StreamState(float quality, int tileSize) {
+            this.quality = quality;
+            this.tileSize = tileSize;
+            this.writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            this.writeParam = writer.getDefaultWriteParam();
+            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParam.setCompressionQuality(quality);
+        }
+
+        void dispose() {
+            writer.dispose();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.monitor.client.test;
 
 import com.monitor.client.command.CommandHandler;
+import com.monitor.client.http.HttpTransport;
 import com.monitor.client.websocket.ClientWebSocket;
 
 import java.net.URI;
@@ -10,7 +11,7 @@ public class ClientWebSocketTester {
         String serverUrl = "http://localhost:8080";
         String machineId = "MACHINE-Lilmon-Lilmon1767681678185";
 
-        CommandHandler handler = new CommandHandler(serverUrl, machineId);
+        CommandHandler handler = new CommandHandler(new HttpTransport(serverUrl), machineId);
         ClientWebSocket client = new ClientWebSocket(new URI("ws://localhost:8080/ws"), machineId, handler);
 
         // Sample message from your logs (data as String)
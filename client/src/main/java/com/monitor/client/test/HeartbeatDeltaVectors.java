@@ -0,0 +1,321 @@
+package com.monitor.client.test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.monitor.client.heartbeat.HeartbeatDeltaEncoder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Sinh chuỗi heartbeat keyframe/delta để kiểm tra HeartbeatDeltaEncoder (client) và
+ * HeartbeatDeltaService (server) hiểu cùng một quy tắc delta
+ * - Metrics có dạng giống SystemMonitor.collectAllMetrics: thay đổi số, xóa key, giá trị null,
+ *   mảng co lại / dài ra / đổi thứ tự, mất một frame (đứt seq) rồi keyframe
+ * - Mỗi dòng: {"frame": "<JSON gửi lên server>", "state": trạng thái client đã commit,
+ *   "expect": "state" | "keyframe"}
+ *
+ * Chạy: java -cp client.jar com.monitor.client.test.HeartbeatDeltaVectors [file]
+ * Sau đó kiểm tra phía server: com.monitor.server.test.HeartbeatDeltaRoundTrip [file]
+ */
+public class HeartbeatDeltaVectors {
+
+    private static final String MACHINE_ID = "MACHINE-DELTA-TEST";
+    private static final long INTERVAL = 5000;
+    // Dài hơn cả chuỗi frame: keyframe định kỳ chỉ xuất hiện ở bước kiểm tra riêng
+    private static final long KEYFRAME_INTERVAL = 600000;
+
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+
+    private final HeartbeatDeltaEncoder encoder = new HeartbeatDeltaEncoder(0.5, KEYFRAME_INTERVAL);
+    private final List<String> lines = new ArrayList<>();
+    private final Random random = new Random(42);
+    private long now = 1_700_000_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get(args.length > 0 ? args[0] : "heartbeat-delta-vectors.jsonl");
+        HeartbeatDeltaVectors vectors = new HeartbeatDeltaVectors();
+        vectors.generate();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String line : vectors.lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        System.out.println("Đã ghi " + vectors.lines.size() + " frame vào " + file.toAbsolutePath());
+    }
+
+    private void generate() {
+        Map<String, Object> metrics = buildMetrics(10, 3, 2);
+        send(metrics);
+
+        // Dao động nhỏ hơn epsilon, bộ đếm tăng
+        for (int i = 0; i < 5; i++) {
+            jitter(metrics, 0.3);
+            send(metrics);
+        }
+        // Thay đổi lớn hơn epsilon
+        for (int i = 0; i < 5; i++) {
+            jitter(metrics, 8);
+            send(metrics);
+        }
+
+        // topProcesses co lại, dài ra, đổi thứ tự
+        metrics.put("topProcesses", processes(7));
+        send(metrics);
+        metrics.put("topProcesses", processes(12));
+        send(metrics);
+        List<Object> reordered = new ArrayList<>(list(metrics, "topProcesses"));
+        reordered.add(0, reordered.remove(reordered.size() - 1));
+        metrics.put("topProcesses", reordered);
+        send(metrics);
+
+        // Xóa key, thêm key, giá trị null và null -> giá trị
+        Map<String, Object> cpu = map(metrics, "cpu");
+        cpu.remove("coreUsages");
+        cpu.put("temperature", 61.5);
+        send(metrics);
+        Map<String, Object> firstInterface = map(list(map(metrics, "network"), "interfaces").get(0));
+        firstInterface.put("displayName", null);
+        send(metrics);
+        firstInterface.put("displayName", "Ethernet adapter");
+        send(metrics);
+        map(metrics, "memory").put("available", null);
+        send(metrics);
+        map(metrics, "memory").remove("available");
+        send(metrics);
+
+        // Mảng rỗng rồi có lại phần tử, mảng chứa null
+        map(metrics, "network").put("interfaces", new ArrayList<>());
+        send(metrics);
+        map(metrics, "network").put("interfaces", interfaces(3));
+        send(metrics);
+        List<Object> disks = new ArrayList<>(list(map(metrics, "disk"), "disks"));
+        disks.add(null);
+        map(metrics, "disk").put("disks", disks);
+        send(metrics);
+        disks = new ArrayList<>(disks);
+        disks.remove(disks.size() - 1);
+        disks.remove(0);
+        map(metrics, "disk").put("disks", disks);
+        send(metrics);
+
+        // Frame bị mất trên đường truyền: server thấy đứt seq và yêu cầu keyframe
+        jitter(metrics, 8);
+        lose(metrics);
+        jitter(metrics, 8);
+        sendExpectingKeyframeRequest(metrics);
+        encoder.requestKeyframe();
+        send(metrics);
+        jitter(metrics, 8);
+        send(metrics);
+
+        // Keyframe định kỳ
+        now += KEYFRAME_INTERVAL;
+        jitter(metrics, 8);
+        send(metrics);
+        jitter(metrics, 8);
+        send(metrics);
+    }
+
+    private void send(Map<String, Object> metrics) {
+        HeartbeatDeltaEncoder.Frame frame = encode(metrics);
+        encoder.commit(frame);
+        addLine(frame, "state");
+    }
+
+    private void lose(Map<String, Object> metrics) {
+        // Client đã gửi thành công (commit) nhưng server không nhận được
+        encoder.commit(encode(metrics));
+    }
+
+    private void sendExpectingKeyframeRequest(Map<String, Object> metrics) {
+        HeartbeatDeltaEncoder.Frame frame = encode(metrics);
+        encoder.commit(frame);
+        addLine(frame, "keyframe");
+    }
+
+    private HeartbeatDeltaEncoder.Frame encode(Map<String, Object> metrics) {
+        now += INTERVAL;
+        // Gửi bản sao: metrics tiếp tục bị sửa sau khi frame đã commit
+        @SuppressWarnings("unchecked")
+        Map<String, Object> snapshot = (Map<String, Object>) copy(metrics);
+        snapshot.put("timestamp", now);
+        return encoder.encode(snapshot, now);
+    }
+
+    /**
+     * Payload giống HeartbeatManager gửi qua WebSocket
+     */
+    private void addLine(HeartbeatDeltaEncoder.Frame frame, String expect) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("type", "HEARTBEAT");
+        payload.put("machineId", MACHINE_ID);
+        payload.put("metrics", frame.getMetrics());
+        payload.put("timestamp", now);
+        payload.put("interval", INTERVAL);
+        payload.put("encoding", frame.isKeyframe() ? "full" : "delta");
+        payload.put("seq", frame.getSeq());
+
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("frame", gson.toJson(payload));
+        line.put("state", "state".equals(expect) ? frame.getState() : null);
+        line.put("expect", expect);
+        lines.add(gson.toJson(line));
+    }
+
+    private Map<String, Object> buildMetrics(int processCount, int interfaceCount, int diskCount) {
+        Map<String, Object> cpu = new HashMap<>();
+        List<Object> coreUsages = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            coreUsages.add(round(random.nextDouble() * 100));
+        }
+        cpu.put("totalUsage", 37.25);
+        cpu.put("coreUsages", coreUsages);
+        cpu.put("coreCount", 8);
+
+        Map<String, Object> memory = new HashMap<>();
+        memory.put("total", 17_179_869_184L);
+        memory.put("used", 9_663_676_416L);
+        memory.put("available", 7_516_192_768L);
+        memory.put("usagePercent", 56.25);
+        memory.put("totalFormatted", "16 GiB");
+        memory.put("usedFormatted", "9 GiB");
+        memory.put("availableFormatted", "7 GiB");
+
+        List<Object> disks = new ArrayList<>();
+        for (int i = 0; i < diskCount; i++) {
+            Map<String, Object> disk = new HashMap<>();
+            disk.put("name", "Disk " + i);
+            disk.put("mount", (char) ('C' + i) + ":\\");
+            disk.put("total", 512_000_000_000L);
+            disk.put("used", 200_000_000_000L + i);
+            disk.put("free", 312_000_000_000L - i);
+            disk.put("usagePercent", 39.06);
+            disk.put("type", "NTFS");
+            disks.add(disk);
+        }
+        Map<String, Object> disk = new HashMap<>();
+        disk.put("disks", disks);
+        disk.put("total", 512_000_000_000L * diskCount);
+        disk.put("used", 200_000_000_000L * diskCount);
+        disk.put("free", 312_000_000_000L * diskCount);
+
+        Map<String, Object> network = new HashMap<>();
+        network.put("interfaces", interfaces(interfaceCount));
+        network.put("totalBytesRecv", 1_000_000L);
+        network.put("totalBytesSent", 500_000L);
+
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("cpu", cpu);
+        metrics.put("memory", memory);
+        metrics.put("disk", disk);
+        metrics.put("network", network);
+        metrics.put("topProcesses", processes(processCount));
+        return metrics;
+    }
+
+    private List<Object> processes(int count) {
+        List<Object> processes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> process = new HashMap<>();
+            process.put("pid", 1000 + i * 7);
+            process.put("name", "process-" + i + ".exe");
+            process.put("cpuUsage", round(random.nextDouble() * 20));
+            process.put("memoryUsage", 50_000_000L + random.nextInt(1_000_000));
+            process.put("memoryUsageFormatted", "47.7 MiB");
+            process.put("state", "RUNNING");
+            processes.add(process);
+        }
+        return processes;
+    }
+
+    private List<Object> interfaces(int count) {
+        List<Object> interfaces = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> iface = new HashMap<>();
+            iface.put("name", "eth" + i);
+            iface.put("displayName", "Adapter " + i);
+            iface.put("bytesRecv", 100_000L * (i + 1));
+            iface.put("bytesSent", 50_000L * (i + 1));
+            interfaces.add(iface);
+        }
+        return interfaces;
+    }
+
+    /**
+     * Dao động các số thực (tối đa ±amplitude) và tăng bộ đếm
+     */
+    private void jitter(Map<String, Object> metrics, double amplitude) {
+        Map<String, Object> cpu = map(metrics, "cpu");
+        cpu.put("totalUsage", drift((Double) cpu.get("totalUsage"), amplitude));
+        if (cpu.get("coreUsages") != null) {
+            List<Object> cores = new ArrayList<>(list(cpu, "coreUsages"));
+            for (int i = 0; i < cores.size(); i++) {
+                cores.set(i, drift((Double) cores.get(i), amplitude));
+            }
+            cpu.put("coreUsages", cores);
+        }
+        Map<String, Object> memory = map(metrics, "memory");
+        memory.put("usagePercent", drift((Double) memory.get("usagePercent"), amplitude));
+        memory.put("used", (Long) memory.get("used") + random.nextInt(4096));
+
+        Map<String, Object> network = map(metrics, "network");
+        network.put("totalBytesRecv", (Long) network.get("totalBytesRecv") + random.nextInt(100_000));
+        network.put("totalBytesSent", (Long) network.get("totalBytesSent") + random.nextInt(50_000));
+
+        for (Object item : list(metrics, "topProcesses")) {
+            Map<String, Object> process = map(item);
+            process.put("cpuUsage", drift((Double) process.get("cpuUsage"), amplitude));
+        }
+    }
+
+    private double drift(double value, double amplitude) {
+        return round(Math.max(0, Math.min(100, value + (random.nextDouble() * 2 - 1) * amplitude)));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    private static Map<String, Object> map(Map<String, Object> parent, String key) {
+        return map(parent.get(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Map<String, Object> parent, String key) {
+        return (List<Object>) parent.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new HashMap<>();
+            ((Map<String, Object>) value).forEach((key, item) -> copy.put(key, copy(item)));
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object item : (List<Object>) value) {
+                copy.add(copy(item));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
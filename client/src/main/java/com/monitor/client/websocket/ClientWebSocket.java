@@ -11,6 +11,7 @@ import oshi.software.os.OperatingSystem;
 
 import java.net.URI;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Executors;
@@ -38,6 +39,9 @@ public class ClientWebSocket extends WebSocketClient {
     private ScheduledFuture<?> keepAliveFuture;
     private final AtomicInteger reconnectAttempts = new AtomicInteger(0);
     private volatile boolean reconnecting = false;
+
+    // Gọi khi kết nối mới hoặc server yêu cầu keyframe heartbeat (server mất trạng thái delta)
+    private volatile Runnable heartbeatKeyframeListener;
     
     public ClientWebSocket(URI serverUri, String machineId, CommandHandler commandHandler) {
         super(serverUri);
@@ -46,10 +50,27 @@ public class ClientWebSocket extends WebSocketClient {
         this.gson = new Gson();
     }
     
+    /**
+     * Đăng ký hàm yêu cầu heartbeat keyframe
+     */
+    public void setHeartbeatKeyframeListener(Runnable listener) {
+        this.heartbeatKeyframeListener = listener;
+    }
+
+    private void requestHeartbeatKeyframe() {
+        Runnable listener = heartbeatKeyframeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
     @Override
     public void onOpen(ServerHandshake handshake) {
         logger.info("Đã kết nối WebSocket đến server");
 
+        // Kết nối mới: server có thể đã mất trạng thái heartbeat delta của máy này
+        requestHeartbeatKeyframe();
+
         // Reset reconnect attempts
         reconnectAttempts.set(0);
         reconnecting = false;
@@ -114,85 +135,114 @@ public class ClientWebSocket extends WebSocketClient {
             // Parse lệnh từ server
             @SuppressWarnings("unchecked")
             Map<String, Object> commandData = (Map<String, Object>) gson.fromJson(message, Map.class);
-            String command = (String) commandData.get("command");
             String targetMachineId = (String) commandData.get("machineId");
             
-            // Xử lý commandId - có thể là số nguyên hoặc số thực từ JSON
-            Long commandId = null;
-            Object commandIdObj = commandData.get("commandId");
-            if (commandIdObj != null) {
-                if (commandIdObj instanceof Number) {
-                    commandId = ((Number) commandIdObj).longValue();
-                } else {
-                    try {
-                        // Thử parse từ string (xử lý cả "1" và "1.0")
-                        double doubleValue = Double.parseDouble(commandIdObj.toString());
-                        commandId = (long) doubleValue;
-                    } catch (NumberFormatException e) {
-                        logger.warn("Không thể parse commandId: {}", commandIdObj);
-                    }
-                }
-            }
-            
             // Kiểm tra xem lệnh có dành cho máy này không
             if (targetMachineId != null && !targetMachineId.equals(machineId)) {
                 logger.debug("Lệnh không dành cho máy này: {}", targetMachineId);
                 return;
             }
             
-            // Lấy data từ commandData - xử lý cả trường hợp server gửi data dưới dạng String JSON
-            Object dataObj = commandData.get("data");
-            Map<String, Object> data = null;
-            if (dataObj instanceof Map) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> tmp = (Map<String, Object>) dataObj;
-                data = tmp;
-            } else if (dataObj instanceof String) {
-                try {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> tmp = (Map<String, Object>) gson.fromJson((String) dataObj, Map.class);
-                    data = tmp;
-                } catch (Exception ex) {
-                    logger.warn("Không thể parse field 'data' từ String: {}", ex.getMessage());
-                }
-            } else if (dataObj != null) {
-                logger.debug("Data field có kiểu không mong đợi: {}", dataObj.getClass().getName());
-            }
-
-            // Nếu data null, thử lấy từ các trường top-level (server có thể gửi title/message/type ở top-level)
-            if (data == null) {
-                Map<String, Object> fallback = new HashMap<>();
-                if (commandData.containsKey("title")) fallback.put("title", commandData.get("title"));
-                if (commandData.containsKey("message")) fallback.put("message", commandData.get("message"));
-                if (commandData.containsKey("type")) fallback.put("type", commandData.get("type"));
-                if (commandData.containsKey("notificationId")) fallback.put("notificationId", commandData.get("notificationId"));
-                if (!fallback.isEmpty()) {
-                    data = fallback;
-                }
+            // Server không ghép được heartbeat delta: lần gửi sau là keyframe
+            if ("HEARTBEAT_KEYFRAME".equals(commandData.get("type"))) {
+                requestHeartbeatKeyframe();
+                return;
             }
-
-            // Xử lý lệnh
-            Map<String, Object> result = commandHandler.handleCommand(command, data);
             
-            // Thêm commandId vào result
-            if (commandId != null) {
-                result.put("commandId", commandId);
+            // Các lệnh được gửi trong lúc máy offline: server gộp thành một frame, thực thi theo thứ tự
+            if ("BATCH".equals(commandData.get("command"))) {
+                Object commands = commandData.get("commands");
+                if (commands instanceof List) {
+                    for (Object item : (List<?>) commands) {
+                        if (item instanceof Map) {
+                            @SuppressWarnings("unchecked")
+                            Map<String, Object> queued = (Map<String, Object>) item;
+                            handleCommandMessage(queued);
+                        }
+                    }
+                }
+                return;
             }
             
-            // Gửi kết quả về server
-            Map<String, Object> response = new HashMap<>();
-            response.put("machineId", machineId);
-            response.put("command", command);
-            response.put("commandId", commandId);
-            response.put("result", result);
-            
-            send(gson.toJson(response));
+            handleCommandMessage(commandData);
             
         } catch (Exception e) {
             logger.error("Lỗi khi xử lý lệnh từ server: {}", e.getMessage(), e);
         }
     }
     
+    /**
+     * Thực thi một lệnh và gửi kết quả về server
+     */
+    private void handleCommandMessage(Map<String, Object> commandData) {
+        String command = (String) commandData.get("command");
+        
+        // Xử lý commandId - có thể là số nguyên hoặc số thực từ JSON
+        Long commandId = null;
+        Object commandIdObj = commandData.get("commandId");
+        if (commandIdObj != null) {
+            if (commandIdObj instanceof Number) {
+                commandId = ((Number) commandIdObj).longValue();
+            } else {
+                try {
+                    // Thử parse từ string (xử lý cả "1" và "1.0")
+                    double doubleValue = Double.parseDouble(commandIdObj.toString());
+                    commandId = (long) doubleValue;
+                } catch (NumberFormatException e) {
+                    logger.warn("Không thể parse commandId: {}", commandIdObj);
+                }
+            }
+        }
+        
+        // Lấy data từ commandData - xử lý cả trường hợp server gửi data dưới dạng String JSON
+        Object dataObj = commandData.get("data");
+        Map<String, Object> data = null;
+        if (dataObj instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> tmp = (Map<String, Object>) dataObj;
+            data = tmp;
+        } else if (dataObj instanceof String) {
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> tmp = (Map<String, Object>) gson.fromJson((String) dataObj, Map.class);
+                data = tmp;
+            } catch (Exception ex) {
+                logger.warn("Không thể parse field 'data' từ String: {}", ex.getMessage());
+            }
+        } else if (dataObj != null) {
+            logger.debug("Data field có kiểu không mong đợi: {}", dataObj.getClass().getName());
+        }
+
+        // Nếu data null, thử lấy từ các trường top-level (server có thể gửi title/message/type ở top-level)
+        if (data == null) {
+            Map<String, Object> fallback = new HashMap<>();
+            if (commandData.containsKey("title")) fallback.put("title", commandData.get("title"));
+            if (commandData.containsKey("message")) fallback.put("message", commandData.get("message"));
+            if (commandData.containsKey("type")) fallback.put("type", commandData.get("type"));
+            if (commandData.containsKey("notificationId")) fallback.put("notificationId", commandData.get("notificationId"));
+            if (!fallback.isEmpty()) {
+                data = fallback;
+            }
+        }
+
+        // Xử lý lệnh
+        Map<String, Object> result = commandHandler.handleCommand(command, data, commandId);
+        
+        // Thêm commandId vào result
+        if (commandId != null) {
+            result.put("commandId", commandId);
+        }
+        
+        // Gửi kết quả về server
+        Map<String, Object> response = new HashMap<>();
+        response.put("machineId", machineId);
+        response.put("command", command);
+        response.put("commandId", commandId);
+        response.put("result", result);
+        
+        send(gson.toJson(response));
+    }
+    
     @Override
     public void onClose(int code, String reason, boolean remote) {
         logger.warn("WebSocket đã đóng. Code: {}, Reason: {}", code, reason);
@@ -12,7 +12,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
  * Chức năng:
  * - Khởi động Spring Boot server
  * - Cấu hình WebSocket, REST API, Database
- * - Bật scheduling để chạy các task định kỳ (phân tích dữ liệu, kiểm tra offline)
+ * - Bật scheduling để chạy các task định kỳ (ghi trạng thái online xuống database)
  */
 @SpringBootApplication
 @EnableScheduling
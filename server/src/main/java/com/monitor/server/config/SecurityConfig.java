@@ -31,6 +31,7 @@ public class SecurityConfig {
                     "/api/**",
                     "/ws-client/**",
                     "/ws-stomp/**",
+                    "/ws-screen/**",
                     "/topic/**",
                     "/app/**",
                     "/user/**",
@@ -1,11 +1,15 @@
 package com.monitor.server.config;
 
 import com.monitor.server.websocket.ClientWebSocketHandler;
+import com.monitor.server.websocket.ScreenViewerHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 
 /**
  * Cấu hình WebSocket Handler (không dùng STOMP)
@@ -17,12 +21,33 @@ public class WebSocketHandlerConfig implements WebSocketConfigurer {
     
     @Autowired
     private ClientWebSocketHandler clientWebSocketHandler;
+
+    @Autowired
+    private ScreenViewerHandler screenViewerHandler;
+
+    // Heartbeat (kèm topProcesses, disks, interfaces) dễ vượt giới hạn mặc định 8KB của container
+    @Value("${websocket.max-text-message-size:524288}")
+    private int maxTextMessageSize;
     
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         // Đăng ký handler cho client WebSocket
         registry.addHandler(clientWebSocketHandler, "/ws-client")
             .setAllowedOriginPatterns("*");
+
+        // Người xem stream màn hình trực tiếp (dashboard)
+        registry.addHandler(screenViewerHandler, "/ws-screen")
+            .setAllowedOriginPatterns("http://localhost:8080", "http://127.0.0.1:8080");
     }
-}
 
+    /**
+     * Cấu hình kích thước buffer tối đa cho message WebSocket
+     */
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxTextMessageSize);
+        container.setMaxBinaryMessageBufferSize(maxTextMessageSize);
+        return container;
+    }
+}
@@ -1,14 +1,24 @@
 package com.monitor.server.controller;
 
 import com.monitor.server.model.Command;
+import com.monitor.server.service.BroadcastService;
 import com.monitor.server.service.CommandService;
+import com.monitor.server.service.ScreenService;
+import com.monitor.server.websocket.OutboundQueue;
+import com.monitor.server.websocket.OutboundSender;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * Controller quản lý lệnh điều khiển
@@ -18,8 +28,21 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class CommandController {
 
+    // Các lệnh được phép gửi hàng loạt
+    private static final List<String> BROADCAST_COMMANDS = Arrays.asList("LOCK", "UNLOCK", "SCREEN_CAPTURE");
+    
     @Autowired
     private CommandService commandService;
+    
+    @Autowired
+    private BroadcastService broadcastService;
+    
+    @Autowired
+    private ScreenService screenService;
+
+    // Thời gian tối đa chờ client trả kết quả lệnh (ms)
+    @Value("${monitor.command.timeout-ms:5000}")
+    private long commandTimeoutMs;
 
     /**
      * Khóa bàn phím chuột
@@ -27,12 +50,7 @@ public class CommandController {
     @PostMapping("/{machineId}/lock")
     public ResponseEntity<Map<String, Object>> lockMachine(@PathVariable String machineId) {
         boolean sent = commandService.sendLockCommand(machineId);
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("success", sent);
-        response.put("message", sent ? "Đã gửi lệnh khóa" : "Không thể gửi lệnh (máy offline)");
-
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(commandResponse(machineId, sent, "Đã gửi lệnh khóa"));
     }
 
     /**
@@ -41,26 +59,26 @@ public class CommandController {
     @PostMapping("/{machineId}/unlock")
     public ResponseEntity<Map<String, Object>> unlockMachine(@PathVariable String machineId) {
         boolean sent = commandService.sendUnlockCommand(machineId);
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("success", sent);
-        response.put("message", sent ? "Đã gửi lệnh mở khóa" : "Không thể gửi lệnh (máy offline)");
-
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(commandResponse(machineId, sent, "Đã gửi lệnh mở khóa"));
     }
 
     /**
      * Yêu cầu chụp màn hình
      */
     @PostMapping("/{machineId}/screen-capture")
-    public ResponseEntity<Map<String, Object>> requestScreenCapture(@PathVariable String machineId) {
-        boolean sent = commandService.sendScreenCaptureCommand(machineId);
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("success", sent);
-        response.put("message", sent ? "Đã gửi yêu cầu chụp màn hình" : "Không thể gửi lệnh (máy offline)");
-
-        return ResponseEntity.ok(response);
+    public ResponseEntity<Map<String, Object>> requestScreenCapture(@PathVariable String machineId,
+            @RequestBody(required = false) Map<String, Object> options) {
+        Map<String, Object> captureOptions;
+        try {
+            captureOptions = screenService.captureOptions(options);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+        boolean sent = screenService.requestScreenCapture(machineId, captureOptions);
+        return ResponseEntity.ok(commandResponse(machineId, sent, "Đã gửi yêu cầu chụp màn hình"));
     }
 
     /**
@@ -82,23 +100,138 @@ public class CommandController {
         response.put("machineId", machineId);
         response.put("online", online);
 
+        OutboundQueue queue = commandService.getClientQueue(machineId);
+        if (queue != null) {
+            response.put("outboundQueue", OutboundSender.toStats(queue));
+        }
+
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Số lệnh đang chờ máy offline kết nối lại, theo máy
+     */
+    @GetMapping("/queued")
+    public ResponseEntity<Map<String, Integer>> getQueuedCommands() {
+        return ResponseEntity.ok(commandService.getQueuedCommandCounts());
+    }
+
+    /**
+     * Độ sâu hàng đợi gửi của từng client (phát hiện client nhận chậm)
+     */
+    @GetMapping("/outbound-queues")
+    public ResponseEntity<Map<String, Map<String, Object>>> getOutboundQueues() {
+        return ResponseEntity.ok(commandService.getOutboundQueueStats());
+    }
+
     /**
      * Lấy danh sách tiến trình đang chạy
+     * Trả về DeferredResult: thread của servlet được giải phóng trong lúc chờ client trả lời
      */
     @PostMapping("/{machineId}/processes")
-    public ResponseEntity<Map<String, Object>> getProcesses(@PathVariable String machineId) {
-        Map<String, Object> result = commandService.sendGetProcessesCommand(machineId);
+    public DeferredResult<ResponseEntity<Map<String, Object>>> getProcesses(@PathVariable String machineId) {
+        DeferredResult<ResponseEntity<Map<String, Object>>> deferred = new DeferredResult<>(commandTimeoutMs);
 
-        if (result == null) {
+        CompletableFuture<Map<String, Object>> future = commandService.sendGetProcessesCommand(machineId);
+        if (future == null) {
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", "Không thể gửi lệnh (máy offline)");
-            return ResponseEntity.ok(response);
+            deferred.setResult(ResponseEntity.ok(response));
+            return deferred;
+        }
+
+        deferred.onTimeout(() -> {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Timeout chờ response");
+            deferred.setResult(ResponseEntity.ok(response));
+        });
+        // Hết hạn hoặc client hủy request: gỡ lệnh khỏi danh sách chờ
+        deferred.onCompletion(() -> future.cancel(false));
+
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", false);
+                response.put("message", "Lỗi: " + error.getMessage());
+                deferred.setResult(ResponseEntity.ok(response));
+            } else {
+                deferred.setResult(ResponseEntity.ok(result));
+            }
+        });
+        return deferred;
+    }
+    
+    /**
+     * Gửi lệnh đến nhiều máy cùng lúc
+     * Body: {"command": "LOCK", "machineIds": ["PC01", "PC02"]} hoặc {"command": "LOCK", "all": true}
+     * "data" (tùy chọn) được gửi kèm lệnh
+     */
+    @PostMapping("/broadcast")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<Map<String, Object>> broadcast(@RequestBody Map<String, Object> request) {
+        Object command = request.get("command");
+        Object machineIds = request.get("machineIds");
+        boolean all = Boolean.TRUE.equals(request.get("all"));
+        
+        String error = null;
+        if (!(command instanceof String) || !BROADCAST_COMMANDS.contains(command)) {
+            error = "Lệnh không hợp lệ, chỉ hỗ trợ: " + BROADCAST_COMMANDS;
+        } else if (!all && !(machineIds instanceof List && !((List<?>) machineIds).isEmpty())) {
+            error = "Cần danh sách machineIds hoặc all = true";
+        }
+        if (error != null) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", error);
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        Collection<String> targets = all ? null : ((List<Object>) machineIds).stream()
+                .map(String::valueOf)
+                .collect(Collectors.toList());
+        Object data = request.get("data");
+        Map<String, Object> commandData = data instanceof Map ? (Map<String, Object>) data : null;
+        if ("SCREEN_CAPTURE".equals(command)) {
+            try {
+                commandData = screenService.captureOptions(commandData);
+            } catch (IllegalArgumentException e) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", false);
+                response.put("message", e.getMessage());
+                return ResponseEntity.badRequest().body(response);
+            }
         }
+        return ResponseEntity.ok(broadcastService.broadcast(targets, (String) command, commandData));
+    }
+    
+    /**
+     * Kết quả tổng hợp của lệnh broadcast
+     */
+    @GetMapping("/broadcast/{broadcastId}")
+    public ResponseEntity<Map<String, Object>> getBroadcastStatus(@PathVariable String broadcastId) {
+        Map<String, Object> status = broadcastService.getBroadcastStatus(broadcastId);
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status);
+    }
 
-        return ResponseEntity.ok(result);
+    /**
+     * Kết quả gửi lệnh; máy offline nhưng lệnh đã xếp hàng thì queued = true
+     */
+    private Map<String, Object> commandResponse(String machineId, boolean sent, String sentMessage) {
+        boolean queued = sent && !commandService.isClientOnline(machineId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", sent);
+        response.put("queued", queued);
+        if (queued) {
+            response.put("message", "Máy offline, lệnh sẽ được gửi khi máy kết nối lại");
+        } else {
+            response.put("message", sent ? sentMessage : "Không thể gửi lệnh (máy offline)");
+        }
+        return response;
     }
 }
@@ -1,17 +1,21 @@
 package com.monitor.server.controller;
 
-import com.google.gson.Gson;
+import com.monitor.server.heartbeat.HeartbeatDecoder;
+import com.monitor.server.heartbeat.HeartbeatSample;
 import com.monitor.server.security.AuthenticationService;
+import com.monitor.server.service.HeartbeatDeltaService;
 import com.monitor.server.service.MachineService;
 import com.monitor.server.service.MetricService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -26,6 +30,7 @@ import java.util.Map;
  * "metrics": { ... },
  * "timestamp": 1234567890
  * },
+ * (metrics dạng delta: thêm "encoding": "delta" và "seq" vào payload, trả 409 nếu cần keyframe)
  * "signature": "HMAC_SIGNATURE"
  * }
  */
@@ -45,7 +50,12 @@ public class HeartbeatController {
     @Autowired
     private MachineService machineService;
 
-    private Gson gson = new Gson();
+    @Autowired
+    private HeartbeatDeltaService heartbeatDeltaService;
+
+    // Số sample tối đa xử lý trong một batch gửi lại
+    @Value("${monitor.heartbeat.batch.max-samples:500}")
+    private int maxBatchSamples;
 
     /**
      * API Info - Trả về thông tin về API
@@ -67,44 +77,39 @@ public class HeartbeatController {
 
     /**
      * Nhận heartbeat từ client
+     * Body được giải mã trực tiếp từ byte bằng HeartbeatDecoder (không bind vào Map)
      */
     @PostMapping("/heartbeat")
-    public ResponseEntity<Map<String, Object>> receiveHeartbeat(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<Map<String, Object>> receiveHeartbeat(@RequestBody byte[] body) {
         Map<String, Object> response = new HashMap<>();
 
         try {
-            String machineId = null;
-            Map<String, Object> metrics = null;
+            HeartbeatSample sample;
+            try {
+                sample = HeartbeatDecoder.decode(body);
+            } catch (IllegalArgumentException e) {
+                response.put("success", false);
+                response.put("message", "Format request không hợp lệ");
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            String machineId = sample.getMachineId();
 
             // Kiểm tra xem có phải format có signature không
-            if (request.containsKey("payload") && request.containsKey("signature")) {
+            if (sample.isSigned()) {
                 // Format cũ với signature (HeartbeatManager)
-                @SuppressWarnings("unchecked")
-                Map<String, Object> payload = (Map<String, Object>) request.get("payload");
-                String signature = (String) request.get("signature");
-
-                machineId = (String) payload.get("machineId");
 
                 // Tạm thời tắt xác thực để debug
-                // String payloadJson = gson.toJson(payload);
                 // boolean authenticated = authenticationService.authenticate(machineId,
-                // payloadJson, signature);
+                // payloadJson, sample.getSignature());
                 // if (!authenticated) {
                 // logger.warn("Xác thực thất bại cho machine: {} - Cho phép tiếp tục",
                 // machineId);
                 // }
                 logger.info("Nhận heartbeat từ machine: {} (bỏ qua xác thực)", machineId);
 
-                @SuppressWarnings("unchecked")
-                Map<String, Object> metricsData = (Map<String, Object>) payload.get("metrics");
-                metrics = metricsData;
-
-            } else if (request.containsKey("machineId") && request.containsKey("metrics")) {
+            } else if (machineId != null && sample.hasMetrics()) {
                 // Format đơn giản (không có signature)
-                machineId = (String) request.get("machineId");
-                @SuppressWarnings("unchecked")
-                Map<String, Object> metricsData = (Map<String, Object>) request.get("metrics");
-                metrics = metricsData;
                 logger.info("Nhận heartbeat đơn giản từ machine: {}", machineId);
             } else {
                 response.put("success", false);
@@ -118,16 +123,30 @@ public class HeartbeatController {
                 return ResponseEntity.badRequest().body(response);
             }
 
-            // Lưu metrics
-            if (metrics != null) {
-                metricService.saveMetrics(machineId, metrics);
-                logger.debug("Đã lưu metrics cho machine: {}", machineId);
+            // Heartbeat delta: ghép với trạng thái đã lưu; không ghép được thì client gửi keyframe ở lần sau
+            if (sample.hasMetrics()) {
+                sample = heartbeatDeltaService.resolve(sample);
+                if (sample == null) {
+                    response.put("success", false);
+                    response.put("message", "Cần heartbeat keyframe");
+                    response.put("keyframeRequired", true);
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+                }
             }
 
-            // Cập nhật trạng thái online
-            machineService.updateOnlineStatus(machineId, true);
+            // Đưa metrics vào hàng đợi ghi; trạng thái online được cập nhật khi batch được ghi
+            if (sample.hasMetrics()) {
+                if (!metricService.ingestSample(sample)) {
+                    response.put("success", false);
+                    response.put("message", "Server đang quá tải, thử lại sau");
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+                }
+                logger.debug("Đã nhận metrics cho machine: {}", machineId);
+            } else {
+                machineService.updateOnlineStatus(machineId, true);
+            }
 
-            // Response thành công
+            // Response thành công (trước khi metrics được ghi xuống database)
             response.put("success", true);
             response.put("message", "Đã nhận heartbeat");
             response.put("timestamp", System.currentTimeMillis());
@@ -141,4 +160,52 @@ public class HeartbeatController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
     }
+
+    /**
+     * Nhận batch heartbeat client gửi lại từ spool sau khi có kết nối trở lại
+     * Body: {"machineId": "...", "samples": [{"timestamp": ..., "metrics": {...}}, ...]}
+     * Response "processed": số sample đầu batch đã xử lý, client xóa chừng đó bản ghi khỏi spool
+     */
+    @PostMapping("/heartbeat/batch")
+    public ResponseEntity<Map<String, Object>> receiveHeartbeatBatch(@RequestBody byte[] body) {
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            List<HeartbeatSample> samples;
+            try {
+                samples = HeartbeatDecoder.decodeBatch(body, maxBatchSamples);
+            } catch (IllegalArgumentException e) {
+                response.put("success", false);
+                response.put("message", "Format request không hợp lệ");
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            String machineId = samples.isEmpty() ? null : samples.get(0).getMachineId();
+            if (machineId == null || machineId.isEmpty()) {
+                response.put("success", false);
+                response.put("message", "Thiếu machineId hoặc samples");
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            int processed = metricService.replaySamples(machineId, samples);
+            if (processed == 0) {
+                response.put("success", false);
+                response.put("message", "Server đang quá tải, thử lại sau");
+                response.put("processed", 0);
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+            }
+
+            logger.info("Nhận {} heartbeat gửi lại từ machine: {}", processed, machineId);
+            response.put("success", true);
+            response.put("message", "Đã nhận batch heartbeat");
+            response.put("processed", processed);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            logger.error("Lỗi khi xử lý batch heartbeat: {}", e.getMessage(), e);
+            response.put("success", false);
+            response.put("message", "Lỗi server: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
 }
@@ -69,6 +69,14 @@ public class MachineController {
         return ResponseEntity.ok(machineService.getOnlineMachines());
     }
 
+    /**
+     * Thống kê interval heartbeat mà các máy online đang dùng
+     */
+    @GetMapping("/heartbeat-stats")
+    public ResponseEntity<Map<String, Object>> getHeartbeatStats() {
+        return ResponseEntity.ok(machineService.getHeartbeatStats());
+    }
+
     /**
      * Lấy danh sách máy offline
      */
@@ -1,14 +1,17 @@
 package com.monitor.server.controller;
 
 import com.monitor.server.model.Notification;
+import com.monitor.server.service.CommandService;
 import com.monitor.server.service.NotificationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Controller quản lý thông báo
@@ -21,6 +24,9 @@ public class NotificationController {
     @Autowired
     private NotificationService notificationService;
     
+    @Autowired
+    private CommandService commandService;
+    
     /**
      * Gửi thông báo đến máy
      */
@@ -44,11 +50,42 @@ public class NotificationController {
         
         Map<String, Object> response = new HashMap<>();
         response.put("success", sent);
-        response.put("message", sent ? "Đã gửi thông báo" : "Không thể gửi thông báo (máy offline)");
+        if (sent && !commandService.isClientOnline(machineId)) {
+            response.put("queued", true);
+            response.put("message", "Máy offline, thông báo sẽ hiển thị khi máy kết nối lại");
+        } else {
+            response.put("message", sent ? "Đã gửi thông báo" : "Không thể gửi thông báo (máy offline)");
+        }
         
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Gửi thông báo đến nhiều máy (cả phòng máy)
+     * Body: {"title", "message", "type", "machineIds": [...]}; không có machineIds = tất cả máy đang kết nối
+     */
+    @PostMapping("/broadcast")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<Map<String, Object>> broadcastNotification(@RequestBody Map<String, Object> request) {
+        Object title = request.get("title");
+        Object message = request.get("message");
+        Object type = request.get("type");
+        Object machineIds = request.get("machineIds");
+        
+        if (!(message instanceof String) || ((String) message).trim().isEmpty()) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("message", "Nội dung thông báo không được để trống");
+            return ResponseEntity.badRequest().body(error);
+        }
+        
+        Collection<String> targets = machineIds instanceof List
+                ? ((List<Object>) machineIds).stream().map(String::valueOf).collect(Collectors.toList())
+                : null;
+        return ResponseEntity.ok(notificationService.broadcastNotification(targets,
+                title != null ? title.toString() : null, (String) message, type != null ? type.toString() : null));
+    }
+    
     /**
      * Lấy lịch sử thông báo của máy
      */
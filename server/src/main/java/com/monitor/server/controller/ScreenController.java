@@ -1,7 +1,12 @@
 package com.monitor.server.controller;
 
 import com.monitor.server.model.ScreenData;
+import com.monitor.server.model.ScreenDataSummary;
+import com.monitor.server.service.ScreenRenditionService;
 import com.monitor.server.service.ScreenService;
+import com.monitor.server.service.ScreenStreamService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -9,6 +14,16 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,61 +37,116 @@ import java.util.Optional;
 @CrossOrigin(origins = "*")
 public class ScreenController {
 
+    private static final Logger logger = LoggerFactory.getLogger(ScreenController.class);
+
+    // Ảnh mới nhất thay đổi theo thời gian: luôn hỏi lại (ETag giúp trả 304)
+    private static final String CACHE_LATEST = "no-cache";
+    // Ảnh theo id không bao giờ đổi nội dung
+    private static final String CACHE_IMMUTABLE = "private, max-age=31536000, immutable";
+
+    // Số ảnh tối đa mỗi trang lịch sử
+    private static final int MAX_HISTORY_PAGE = 200;
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     @Autowired
     private ScreenService screenService;
 
+    @Autowired
+    private ScreenStreamService screenStreamService;
+
     /**
      * Yêu cầu chụp màn hình
+     * Body (tùy chọn): format (PNG, JPEG, WEBP), quality, maxWidth, region {x, y, width, height}
      */
     @PostMapping("/{machineId}/capture")
-    public ResponseEntity<Map<String, Object>> requestScreenCapture(@PathVariable String machineId) {
-        boolean sent = screenService.requestScreenCapture(machineId);
-
+    public ResponseEntity<Map<String, Object>> requestScreenCapture(@PathVariable String machineId,
+            @RequestBody(required = false) Map<String, Object> options) {
         Map<String, Object> response = new HashMap<>();
+        Map<String, Object> captureOptions;
+        try {
+            captureOptions = screenService.captureOptions(options);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        boolean sent = screenService.requestScreenCapture(machineId, captureOptions);
         response.put("success", sent);
         response.put("message", sent ? "Đã gửi yêu cầu chụp màn hình" : "Không thể gửi yêu cầu (máy offline)");
+        response.put("options", captureOptions);
 
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Trạng thái stream màn hình trực tiếp (xem qua WebSocket /ws-screen?machineId=...)
+     */
+    @GetMapping("/{machineId}/stream")
+    public ResponseEntity<Map<String, Object>> getStreamStatus(@PathVariable String machineId) {
+        Map<String, Object> stats = screenStreamService.getStreamStats(machineId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("streaming", stats != null);
+        if (stats != null) {
+            response.putAll(stats);
+        }
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Lấy ảnh màn hình mới nhất
+     * File trong ScreenshotStore được gửi thẳng từ đĩa (sendfile của Tomcat hoặc FileChannel.transferTo)
+     * Content hash dùng làm ETag: dashboard hỏi lại khi màn hình không đổi chỉ nhận 304
+     * size=thumb|medium trả bản JPEG thu nhỏ (lưới nhiều máy), mặc định full
      */
     @GetMapping("/{machineId}/latest")
-    public ResponseEntity<?> getLatestScreen(@PathVariable String machineId) {
+    public ResponseEntity<?> getLatestScreen(@PathVariable String machineId,
+            @RequestParam(defaultValue = "full") String size, HttpServletRequest request,
+            HttpServletResponse servletResponse) {
         try {
-            System.out.println("=== GET LATEST SCREEN ===");
-            System.out.println("Machine ID: " + machineId);
-
             Optional<ScreenData> screenData = screenService.getLatestScreenData(machineId);
 
-            if (screenData.isPresent()) {
-                ScreenData data = screenData.get();
-                System.out.println("Found screen data ID: " + data.getId());
-                System.out.println("Image format: " + data.getImageFormat());
-                System.out.println(
-                        "Image size: " + (data.getImageData() != null ? data.getImageData().length : 0) + " bytes");
-
-                // Validate image format
-                String imageFormat = data.getImageFormat();
-                if (imageFormat == null || imageFormat.trim().isEmpty()) {
-                    imageFormat = "png"; // Default to PNG
-                }
-
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.parseMediaType("image/" + imageFormat.toLowerCase()));
-                System.out.println("✅ Returning image with content-type: image/" + imageFormat.toLowerCase());
-                return new ResponseEntity<>(data.getImageData(), headers, HttpStatus.OK);
-            } else {
-                System.out.println("⚠️ No screen data found for machine: " + machineId);
+            if (!screenData.isPresent()) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("success", false);
                 response.put("message", "Chưa có ảnh màn hình");
                 return ResponseEntity.ok(response);
             }
+
+            return serveImage(screenData.get(), size, CACHE_LATEST, request, servletResponse);
         } catch (Exception e) {
-            System.err.println("❌ Error in getLatestScreen: " + e.getMessage());
-            e.printStackTrace();
+            logger.error("Lỗi khi lấy ảnh màn hình của machine {}: {}", machineId, e.getMessage(), e);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Lỗi khi lấy ảnh: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * Lấy nội dung một ảnh trong lịch sử theo id
+     * Ảnh đã lưu không bao giờ thay đổi nên trình duyệt được cache lâu dài
+     */
+    @GetMapping("/{machineId}/images/{id}")
+    public ResponseEntity<?> getScreenImage(@PathVariable String machineId, @PathVariable Long id,
+            @RequestParam(defaultValue = "full") String size, HttpServletRequest request,
+            HttpServletResponse servletResponse) {
+        try {
+            Optional<ScreenData> screenData = screenService.getScreenData(id)
+                    .filter(data -> machineId.equals(data.getMachineId()));
+            if (!screenData.isPresent()) {
+                return ResponseEntity.notFound().build();
+            }
+            return serveImage(screenData.get(), size, CACHE_IMMUTABLE, request, servletResponse);
+        } catch (Exception e) {
+            logger.error("Lỗi khi lấy ảnh {} của machine {}: {}", id, machineId, e.getMessage(), e);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
@@ -86,9 +156,128 @@ public class ScreenController {
     }
 
     /**
-     * Lưu ảnh màn hình từ client
+     * Trả nội dung ảnh: file trong ScreenshotStore hoặc cột image_data của dòng cũ
+     * Dòng cũ không có rendition, luôn trả ảnh gốc
+     * @return null nếu response đã được ghi trực tiếp
+     */
+    private ResponseEntity<?> serveImage(ScreenData data, String size, String cacheControl,
+            HttpServletRequest request, HttpServletResponse servletResponse) throws IOException {
+        // Validate image format
+        String imageFormat = data.getImageFormat();
+        if (imageFormat == null || imageFormat.trim().isEmpty()) {
+            imageFormat = "png"; // Default to PNG
+        }
+        MediaType contentType = MediaType.parseMediaType("image/" + imageFormat.toLowerCase());
+
+        String rendition = ScreenRenditionService.normalize(size);
+        Path file = screenService.locateImage(data, rendition);
+        if (file == null && !ScreenRenditionService.FULL.equals(rendition)) {
+            // Không tạo được hoặc chưa tạo xong bản thu nhỏ (ví dụ server không đọc được WEBP): trả ảnh gốc,
+            // không cho cache lâu dài để lần sau lấy được bản thu nhỏ
+            rendition = ScreenRenditionService.FULL;
+            file = screenService.locateImage(data);
+            cacheControl = CACHE_LATEST;
+        }
+        if (file != null) {
+            String etag = "\"" + data.getContentHash() + "\"";
+            if (!ScreenRenditionService.FULL.equals(rendition)) {
+                contentType = MediaType.IMAGE_JPEG;
+                etag = "\"" + data.getContentHash() + "-" + rendition + "\"";
+            }
+            if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag)
+                        .header(HttpHeaders.CACHE_CONTROL, cacheControl).build();
+            }
+            sendFile(file, contentType, etag, cacheControl, request, servletResponse);
+            return null;
+        }
+
+        // Dòng cũ: ảnh vẫn nằm trong cột image_data
+        if (data.getImageData() != null) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(contentType);
+            headers.setCacheControl(cacheControl);
+            return new ResponseEntity<>(data.getImageData(), headers, HttpStatus.OK);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "Không tìm thấy file ảnh");
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+    }
+
+    /**
+     * Gửi file ảnh không qua heap
+     */
+    private void sendFile(Path file, MediaType contentType, String etag, String cacheControl,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long size = Files.size(file);
+        response.setContentType(contentType.toString());
+        response.setContentLengthLong(size);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Connector NIO của Tomcat tự gửi file bằng sendfile sau khi request kết thúc
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, size);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    /**
+     * Lưu ảnh màn hình từ client (body nhị phân)
+     * Định dạng ảnh và commandId nằm trong header X-Image-Format, X-Command-Id
+     * Body được stream thẳng vào file trong ScreenshotStore (đặt tên theo hash nội dung), database chỉ lưu metadata;
+     * không qua base64/JSON
+     */
+    @PostMapping(value = "/{machineId}/upload", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Map<String, Object>> uploadScreenStream(
+            @PathVariable String machineId,
+            @RequestHeader(value = "X-Image-Format", defaultValue = "PNG") String imageFormat,
+            @RequestHeader(value = "X-Command-Id", required = false) Long commandId,
+            HttpServletRequest request) {
+
+        Map<String, Object> response = new HashMap<>();
+        long contentLength = request.getContentLengthLong();
+        if (contentLength > screenService.getMaxUploadBytes()) {
+            response.put("success", false);
+            response.put("message", "Ảnh vượt quá " + screenService.getMaxUploadBytes() + " bytes");
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(response);
+        }
+
+        try {
+            Long screenDataId = screenService.saveScreenStream(machineId, request.getInputStream(), imageFormat,
+                    commandId);
+            logger.info("Đã lưu ảnh màn hình của machine {} (commandId: {}, {} bytes), screenDataId: {}",
+                    machineId, commandId, contentLength, screenDataId);
+
+            response.put("success", true);
+            response.put("message", "Đã lưu ảnh màn hình");
+            response.put("screenDataId", screenDataId);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Lỗi khi lưu ảnh của machine {}: {}", machineId, e.getMessage());
+
+            response.put("success", false);
+            response.put("message", "Lỗi khi lưu ảnh: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Lưu ảnh màn hình từ client (JSON base64, giữ cho client cũ)
      */
-    @PostMapping("/{machineId}/upload")
+    @PostMapping(value = "/{machineId}/upload", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Map<String, Object>> uploadScreenData(
             @PathVariable String machineId,
             @RequestBody Map<String, Object> request) {
@@ -133,10 +322,40 @@ public class ScreenController {
     }
 
     /**
-     * Lấy lịch sử ảnh màn hình
+     * Lấy lịch sử ảnh màn hình (chỉ metadata, mới nhất trước)
+     * Phân trang keyset: truyền nextCursor của trang trước vào tham số before
      */
     @GetMapping("/{machineId}/history")
-    public ResponseEntity<List<ScreenData>> getScreenHistory(@PathVariable String machineId) {
-        return ResponseEntity.ok(screenService.getScreenDataHistory(machineId));
+    public ResponseEntity<Map<String, Object>> getScreenHistory(
+            @PathVariable String machineId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "50") int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE));
+        // Lấy thêm một dòng để biết còn trang sau không
+        List<ScreenDataSummary> rows = screenService.getScreenDataHistory(machineId, before, pageSize + 1);
+        boolean hasMore = rows.size() > pageSize;
+        if (hasMore) {
+            rows = rows.subList(0, pageSize);
+        }
+
+        List<Map<String, Object>> items = new ArrayList<>(rows.size());
+        for (ScreenDataSummary row : rows) {
+            String imageUrl = "/api/screen/" + machineId + "/images/" + row.getId();
+            Map<String, Object> item = new HashMap<>();
+            item.put("id", row.getId());
+            item.put("capturedAt", row.getCapturedAt());
+            item.put("imageFormat", row.getImageFormat());
+            item.put("sizeBytes", row.getSizeBytes());
+            item.put("commandId", row.getCommandId());
+            item.put("imageUrl", imageUrl);
+            item.put("thumbnailUrl", imageUrl + "?size=" + ScreenRenditionService.THUMB);
+            items.add(item);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("items", items);
+        response.put("hasMore", hasMore);
+        response.put("nextCursor", hasMore ? rows.get(rows.size() - 1).getId() : null);
+        return ResponseEntity.ok(response);
     }
 }
@@ -0,0 +1,628 @@
+package com.monitor.server.heartbeat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bộ giải mã heartbeat dạng streaming, đọc trực tiếp trên mảng byte UTF-8
+ * - Một lần duyệt, không tạo Map/Double trung gian
+ * - Chỉ lấy các trường cpu/memory/disk/network cần lưu, phần còn lại được bỏ qua
+ * - Ghi lại vị trí object "metrics" để lưu rawData mà không serialize lại
+ *
+ * Hỗ trợ cả hai format của HeartbeatController:
+ * {"payload": {"machineId": ..., "metrics": {...}, "timestamp": ..., "interval": ...}, "signature": "..."}
+ * {"machineId": ..., "metrics": {...}} (có thể kèm "type": "HEARTBEAT" khi gửi qua WebSocket)
+ *
+ * Và batch gửi lại từ spool của client (decodeBatch):
+ * {"machineId": ..., "samples": [{"timestamp": ..., "metrics": {...}}, ...]}
+ */
+public final class HeartbeatDecoder {
+
+    private static final byte[] PAYLOAD = ascii("payload");
+    private static final byte[] SIGNATURE = ascii("signature");
+    private static final byte[] MACHINE_ID = ascii("machineId");
+    private static final byte[] METRICS = ascii("metrics");
+    private static final byte[] TYPE = ascii("type");
+    private static final byte[] TIMESTAMP = ascii("timestamp");
+    private static final byte[] INTERVAL = ascii("interval");
+    private static final byte[] SAMPLES = ascii("samples");
+    private static final byte[] ENCODING = ascii("encoding");
+    private static final byte[] SEQ = ascii("seq");
+
+    private static final byte[] CPU = ascii("cpu");
+    private static final byte[] MEMORY = ascii("memory");
+    private static final byte[] DISK = ascii("disk");
+    private static final byte[] NETWORK = ascii("network");
+
+    private static final byte[] TOTAL_USAGE = ascii("totalUsage");
+    private static final byte[] CORE_COUNT = ascii("coreCount");
+    private static final byte[] TOTAL = ascii("total");
+    private static final byte[] USED = ascii("used");
+    private static final byte[] USAGE_PERCENT = ascii("usagePercent");
+    private static final byte[] TOTAL_BYTES_RECV = ascii("totalBytesRecv");
+    private static final byte[] TOTAL_BYTES_SENT = ascii("totalBytesSent");
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+
+    // Vị trí của key vừa đọc (chỉ dùng khi so sánh, không tạo String)
+    private int keyStart;
+    private int keyLength;
+    private boolean keyEscaped;
+
+    // true ngay sau '{' (chưa gặp key nào trong object hiện tại)
+    private boolean first;
+
+    private HeartbeatDecoder(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Giải mã body heartbeat
+     * @param body Body JSON dạng UTF-8
+     * @return Sample đã giải mã (rawData tham chiếu trực tiếp vào body)
+     * @throws IllegalArgumentException nếu JSON không hợp lệ
+     */
+    public static HeartbeatSample decode(byte[] body) {
+        return decode(body, 0, body.length);
+    }
+
+    public static HeartbeatSample decode(byte[] body, int offset, int length) {
+        HeartbeatDecoder decoder = new HeartbeatDecoder(body, offset, length);
+        HeartbeatSample sample = new HeartbeatSample();
+        decoder.readEnvelope(sample);
+        decoder.skipWhitespace();
+        if (decoder.pos != decoder.end) {
+            throw decoder.error("Dữ liệu thừa sau JSON");
+        }
+        return sample;
+    }
+
+    /**
+     * Giải mã batch heartbeat
+     * Sample không có machineId riêng dùng machineId của batch
+     * @param maxSamples Số sample tối đa được giải mã, phần còn lại bị bỏ qua (client gửi lại sau)
+     * @throws IllegalArgumentException nếu JSON không hợp lệ
+     */
+    public static List<HeartbeatSample> decodeBatch(byte[] body, int maxSamples) {
+        HeartbeatDecoder decoder = new HeartbeatDecoder(body, 0, body.length);
+        List<HeartbeatSample> samples = new ArrayList<>();
+        String machineId = null;
+        decoder.beginObject();
+        while (decoder.nextKey()) {
+            if (decoder.keyIs(MACHINE_ID)) {
+                machineId = decoder.readStringOrNull();
+            } else if (decoder.keyIs(SAMPLES)) {
+                decoder.readSamples(samples, maxSamples);
+            } else {
+                decoder.skipValue();
+            }
+        }
+        decoder.skipWhitespace();
+        if (decoder.pos != decoder.end) {
+            throw decoder.error("Dữ liệu thừa sau JSON");
+        }
+        for (HeartbeatSample sample : samples) {
+            if (sample.getMachineId() == null) {
+                sample.setMachineId(machineId);
+            }
+        }
+        return samples;
+    }
+
+    // ========== Cấu trúc heartbeat ==========
+
+    private void readSamples(List<HeartbeatSample> samples, int maxSamples) {
+        skipWhitespace();
+        expect('[');
+        skipWhitespace();
+        if (peekLiteral(']')) {
+            pos++;
+            return;
+        }
+        while (true) {
+            if (samples.size() < maxSamples) {
+                HeartbeatSample sample = new HeartbeatSample();
+                readEnvelope(sample);
+                samples.add(sample);
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            if (peekLiteral(',')) {
+                pos++;
+                continue;
+            }
+            expect(']');
+            return;
+        }
+    }
+
+    private void readEnvelope(HeartbeatSample sample) {
+        beginObject();
+        while (nextKey()) {
+            if (keyIs(PAYLOAD)) {
+                sample.setHasPayload(true);
+                readEnvelope(sample);
+            } else if (keyIs(SIGNATURE)) {
+                sample.setSignature(readStringOrNull());
+            } else if (keyIs(MACHINE_ID)) {
+                sample.setMachineId(readStringOrNull());
+            } else if (keyIs(TYPE)) {
+                sample.setType(readStringOrNull());
+            } else if (keyIs(TIMESTAMP)) {
+                sample.setClientTimestamp(readLong());
+            } else if (keyIs(INTERVAL)) {
+                sample.setHeartbeatInterval(readLong());
+            } else if (keyIs(ENCODING)) {
+                sample.setEncoding(readStringOrNull());
+            } else if (keyIs(SEQ)) {
+                sample.setSeq(readLong());
+            } else if (keyIs(METRICS)) {
+                readMetrics(sample);
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void readMetrics(HeartbeatSample sample) {
+        skipWhitespace();
+        if (peekLiteral('n')) {
+            skipValue();
+            return;
+        }
+        int start = pos;
+        beginObject();
+        while (nextKey()) {
+            if (keyIs(CPU)) {
+                readCpu(sample);
+            } else if (keyIs(MEMORY)) {
+                readMemory(sample);
+            } else if (keyIs(DISK)) {
+                readDisk(sample);
+            } else if (keyIs(NETWORK)) {
+                readNetwork(sample);
+            } else {
+                skipValue();
+            }
+        }
+        sample.setRaw(buf, start, pos - start);
+    }
+
+    private void readCpu(HeartbeatSample sample) {
+        if (!beginObjectOrNull()) {
+            sample.clear(HeartbeatSample.CPU_USAGE | HeartbeatSample.CORE_COUNT);
+            return;
+        }
+        while (nextKey()) {
+            if (keyIs(TOTAL_USAGE)) {
+                sample.setCpuUsage(readDouble());
+            } else if (keyIs(CORE_COUNT)) {
+                if (!readNull()) {
+                    sample.setCoreCount((int) readLong());
+                } else {
+                    sample.clear(HeartbeatSample.CORE_COUNT);
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void readMemory(HeartbeatSample sample) {
+        if (!beginObjectOrNull()) {
+            sample.clear(HeartbeatSample.MEMORY_TOTAL | HeartbeatSample.MEMORY_USED | HeartbeatSample.MEMORY_USAGE_PERCENT);
+            return;
+        }
+        while (nextKey()) {
+            if (keyIs(TOTAL)) {
+                if (!readNull()) {
+                    sample.setMemoryTotal(readLong());
+                } else {
+                    sample.clear(HeartbeatSample.MEMORY_TOTAL);
+                }
+            } else if (keyIs(USED)) {
+                if (!readNull()) {
+                    sample.setMemoryUsed(readLong());
+                } else {
+                    sample.clear(HeartbeatSample.MEMORY_USED);
+                }
+            } else if (keyIs(USAGE_PERCENT)) {
+                sample.setMemoryUsagePercent(readDouble());
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void readDisk(HeartbeatSample sample) {
+        if (!beginObjectOrNull()) {
+            sample.clear(HeartbeatSample.DISK_TOTAL | HeartbeatSample.DISK_USED);
+            return;
+        }
+        while (nextKey()) {
+            if (keyIs(TOTAL)) {
+                if (!readNull()) {
+                    sample.setDiskTotal(readLong());
+                } else {
+                    sample.clear(HeartbeatSample.DISK_TOTAL);
+                }
+            } else if (keyIs(USED)) {
+                if (!readNull()) {
+                    sample.setDiskUsed(readLong());
+                } else {
+                    sample.clear(HeartbeatSample.DISK_USED);
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void readNetwork(HeartbeatSample sample) {
+        if (!beginObjectOrNull()) {
+            sample.clear(HeartbeatSample.NETWORK_BYTES_RECV | HeartbeatSample.NETWORK_BYTES_SENT);
+            return;
+        }
+        while (nextKey()) {
+            if (keyIs(TOTAL_BYTES_RECV)) {
+                if (!readNull()) {
+                    sample.setNetworkBytesRecv(readLong());
+                } else {
+                    sample.clear(HeartbeatSample.NETWORK_BYTES_RECV);
+                }
+            } else if (keyIs(TOTAL_BYTES_SENT)) {
+                if (!readNull()) {
+                    sample.setNetworkBytesSent(readLong());
+                } else {
+                    sample.clear(HeartbeatSample.NETWORK_BYTES_SENT);
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    // ========== Đọc JSON mức thấp ==========
+
+    private void beginObject() {
+        skipWhitespace();
+        expect('{');
+        first = true;
+    }
+
+    private boolean beginObjectOrNull() {
+        skipWhitespace();
+        if (peekLiteral('n')) {
+            skipValue();
+            return false;
+        }
+        beginObject();
+        return true;
+    }
+
+    /**
+     * Đọc key tiếp theo của object hiện tại
+     * @return false nếu đã gặp '}'
+     */
+    private boolean nextKey() {
+        skipWhitespace();
+        if (pos >= end) {
+            throw error("Object chưa đóng");
+        }
+        if (buf[pos] == '}') {
+            pos++;
+            first = false;
+            return false;
+        }
+        if (!first) {
+            expect(',');
+            skipWhitespace();
+        }
+        first = false;
+        expect('"');
+        keyStart = pos;
+        keyEscaped = false;
+        while (true) {
+            if (pos >= end) {
+                throw error("Chuỗi chưa đóng");
+            }
+            byte b = buf[pos];
+            if (b == '"') {
+                break;
+            }
+            if (b == '\\') {
+                keyEscaped = true;
+                pos++;
+            }
+            pos++;
+        }
+        keyLength = pos - keyStart;
+        pos++;
+        skipWhitespace();
+        expect(':');
+        return true;
+    }
+
+    private boolean keyIs(byte[] name) {
+        if (keyEscaped || keyLength != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buf[keyStart + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readStringOrNull() {
+        skipWhitespace();
+        if (peekLiteral('n')) {
+            skipValue();
+            return null;
+        }
+        expect('"');
+        int start = pos;
+        boolean escaped = false;
+        while (true) {
+            if (pos >= end) {
+                throw error("Chuỗi chưa đóng");
+            }
+            byte b = buf[pos];
+            if (b == '"') {
+                break;
+            }
+            if (b == '\\') {
+                escaped = true;
+                pos++;
+            }
+            pos++;
+        }
+        int length = pos - start;
+        pos++;
+        if (!escaped) {
+            return new String(buf, start, length, StandardCharsets.UTF_8);
+        }
+        return unescape(start, length);
+    }
+
+    private String unescape(int start, int length) {
+        String raw = new String(buf, start, length, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char e = raw.charAt(++i);
+            switch (e) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    sb.append(e);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Bỏ qua giá trị null
+     * Trường số nguyên của metrics gọi trước readLong: null được coi là không có trường (lưu NULL, không phải 0),
+     * với delta là trường bị xóa
+     * @return true nếu giá trị là null
+     */
+    private boolean readNull() {
+        skipWhitespace();
+        if (peekLiteral('n')) {
+            skipValue();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Đọc số nguyên; chấp nhận cả dạng số thực (bị cắt phần thập phân), null = 0
+     */
+    private long readLong() {
+        skipWhitespace();
+        if (peekLiteral('n')) {
+            skipValue();
+            return 0;
+        }
+        int start = pos;
+        boolean negative = false;
+        if (pos < end && buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos] - '0');
+            pos++;
+            digits++;
+        }
+        if (digits == 0) {
+            throw error("Không phải số");
+        }
+        if (digits > 18 || (pos < end && (buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E'))) {
+            pos = start;
+            return (long) readDouble();
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Đọc số thực; dùng fast path chính xác khi mantissa <= 15 chữ số, null = NaN
+     */
+    private double readDouble() {
+        skipWhitespace();
+        if (peekLiteral('n')) {
+            skipValue();
+            return Double.NaN;
+        }
+        int start = pos;
+        boolean negative = false;
+        if (pos < end && buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            mantissa = mantissa * 10 + (buf[pos] - '0');
+            pos++;
+            digits++;
+        }
+        if (pos < end && buf[pos] == '.') {
+            pos++;
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                mantissa = mantissa * 10 + (buf[pos] - '0');
+                pos++;
+                digits++;
+                fractionDigits++;
+            }
+        }
+        if (digits == 0) {
+            throw error("Không phải số");
+        }
+        boolean hasExponent = pos < end && (buf[pos] == 'e' || buf[pos] == 'E');
+        if (hasExponent) {
+            pos++;
+            if (pos < end && (buf[pos] == '+' || buf[pos] == '-')) {
+                pos++;
+            }
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                pos++;
+            }
+        }
+        if (!hasExponent && digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(buf, start, pos - start, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Bỏ qua một giá trị JSON bất kỳ (object/array được duyệt theo độ sâu)
+     */
+    private void skipValue() {
+        skipWhitespace();
+        if (pos >= end) {
+            throw error("Thiếu giá trị");
+        }
+        byte b = buf[pos];
+        if (b == '"') {
+            skipString();
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            while (true) {
+                if (pos >= end) {
+                    throw error("Object/array chưa đóng");
+                }
+                byte c = buf[pos];
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        pos++;
+                        return;
+                    }
+                }
+                pos++;
+            }
+        } else {
+            // number, true, false, null
+            while (pos < end) {
+                byte c = buf[pos];
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    break;
+                }
+                pos++;
+            }
+        }
+    }
+
+    private void skipString() {
+        pos++;
+        while (true) {
+            if (pos >= end) {
+                throw error("Chuỗi chưa đóng");
+            }
+            byte b = buf[pos];
+            if (b == '"') {
+                pos++;
+                return;
+            }
+            if (b == '\\') {
+                pos++;
+            }
+            pos++;
+        }
+    }
+
+    private boolean peekLiteral(char c) {
+        return pos < end && buf[pos] == c;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private void expect(char c) {
+        if (pos >= end || buf[pos] != c) {
+            throw error("Cần ký tự '" + c + "'");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Heartbeat JSON không hợp lệ tại vị trí " + pos + ": " + message);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,353 @@
+package com.monitor.server.heartbeat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Ghép metrics dạng delta vào metrics đầy đủ trước đó, làm việc trực tiếp trên mảng byte UTF-8
+ * - Không dựng cây JSON: phần không thay đổi được sao chép nguyên đoạn byte từ bản trước
+ * - Chỉ đi sâu vào các object/array mà delta có nhắc đến
+ *
+ * Quy tắc delta (giống HeartbeatDeltaEncoder phía client):
+ * object chỉ chứa key thay đổi (null = xóa key); array dạng {"$len": n, "$set": {"i": delta}};
+ * giá trị khác thay thế giá trị cũ.
+ */
+public final class HeartbeatDeltaMerger {
+
+    private static final byte[] ARRAY_LENGTH = "\"$len\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ARRAY_SET = "\"$set\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] base;
+    private final byte[] delta;
+    private byte[] out;
+    private int size;
+
+    private HeartbeatDeltaMerger(byte[] base, byte[] delta, int capacity) {
+        this.base = base;
+        this.delta = delta;
+        this.out = new byte[capacity];
+    }
+
+    /**
+     * Sample đầy đủ từ trạng thái trước (sample đầy đủ) và một delta
+     * - Các trường số: lấy từ trạng thái, ghi đè bằng trường có trong delta
+     * - rawData: metrics của trạng thái đã áp dụng delta
+     * @throws IllegalArgumentException nếu delta không hợp lệ
+     */
+    public static HeartbeatSample apply(HeartbeatSample state, HeartbeatSample delta) {
+        byte[] raw = merge(state.getRawBuffer(), state.getRawOffset(), state.getRawLength(),
+                delta.getRawBuffer(), delta.getRawOffset(), delta.getRawLength());
+        return HeartbeatSample.applyDelta(state, delta, raw);
+    }
+
+    /**
+     * Áp dụng delta (object metrics) lên base (object metrics), trả về JSON mới
+     */
+    static byte[] merge(byte[] base, int baseOffset, int baseLength, byte[] delta, int deltaOffset, int deltaLength) {
+        int baseStart = skipWhitespace(base, baseOffset);
+        int deltaStart = skipWhitespace(delta, deltaOffset);
+        if (isEmptyObject(delta, deltaStart) && base[baseStart] == '{') {
+            // Không có thay đổi: dùng lại metrics cũ
+            return Arrays.copyOfRange(base, baseStart, valueEnd(base, baseStart));
+        }
+        HeartbeatDeltaMerger merger = new HeartbeatDeltaMerger(base, delta, baseLength + deltaLength + 16);
+        merger.mergeValue(baseStart, deltaStart);
+        return Arrays.copyOf(merger.out, merger.size);
+    }
+
+    /**
+     * @param baseStart Vị trí giá trị cũ trong base, -1 nếu không có
+     */
+    private void mergeValue(int baseStart, int deltaStart) {
+        if (delta[deltaStart] != '{') {
+            write(delta, deltaStart, valueEnd(delta, deltaStart));
+            return;
+        }
+        int[] members = members(delta, deltaStart);
+        int length = findKey(delta, members, ARRAY_LENGTH);
+        if (length >= 0) {
+            mergeArray(baseStart >= 0 && base[baseStart] == '[' ? baseStart : -1, parseInt(delta, length),
+                    findKey(delta, members, ARRAY_SET));
+        } else {
+            mergeObject(baseStart >= 0 && base[baseStart] == '{' ? baseStart : -1, members);
+        }
+    }
+
+    private void mergeObject(int baseStart, int[] members) {
+        int count = members.length / 4;
+        boolean[] used = new boolean[count];
+        boolean first = true;
+        writeByte('{');
+
+        if (baseStart >= 0) {
+            int pos = skipWhitespace(base, baseStart + 1);
+            while (base[pos] != '}') {
+                int keyStart = pos;
+                int keyEnd = stringEnd(base, keyStart);
+                int valueStart = skipWhitespace(base, skipWhitespace(base, keyEnd) + 1);
+                int valueEnd = valueEnd(base, valueStart);
+
+                int match = -1;
+                for (int m = 0; m < count; m++) {
+                    if (!used[m] && sameBytes(base, keyStart, keyEnd, delta, members[m * 4], members[m * 4 + 1])) {
+                        match = m;
+                        break;
+                    }
+                }
+                if (match < 0) {
+                    first = separator(first);
+                    write(base, keyStart, valueEnd);
+                } else {
+                    used[match] = true;
+                    int deltaValue = members[match * 4 + 2];
+                    if (!isNull(delta, deltaValue)) {
+                        first = separator(first);
+                        write(base, keyStart, keyEnd);
+                        writeByte(':');
+                        mergeValue(valueStart, deltaValue);
+                    }
+                }
+
+                pos = skipWhitespace(base, valueEnd);
+                if (base[pos] == ',') {
+                    pos = skipWhitespace(base, pos + 1);
+                }
+            }
+        }
+
+        // Key mới (null = xóa key không có trong bản cũ: bỏ qua)
+        for (int m = 0; m < count; m++) {
+            int deltaValue = members[m * 4 + 2];
+            if (!used[m] && !isNull(delta, deltaValue)) {
+                first = separator(first);
+                write(delta, members[m * 4], members[m * 4 + 1]);
+                writeByte(':');
+                mergeValue(-1, deltaValue);
+            }
+        }
+        writeByte('}');
+    }
+
+    /**
+     * @param setStart Vị trí object "$set" trong delta, -1 nếu không có
+     */
+    private void mergeArray(int baseStart, int length, int setStart) {
+        // Vị trí các phần tử cũ
+        int[] elements = new int[length];
+        Arrays.fill(elements, -1);
+        if (baseStart >= 0) {
+            int pos = skipWhitespace(base, baseStart + 1);
+            for (int i = 0; base[pos] != ']'; i++) {
+                if (i < length) {
+                    elements[i] = pos;
+                }
+                pos = skipWhitespace(base, valueEnd(base, pos));
+                if (base[pos] == ',') {
+                    pos = skipWhitespace(base, pos + 1);
+                }
+            }
+        }
+
+        // Phần tử thay đổi: "$set": {"i": delta}
+        int[] changes = new int[length];
+        Arrays.fill(changes, -1);
+        if (setStart >= 0 && delta[setStart] == '{') {
+            int[] members = members(delta, setStart);
+            for (int m = 0; m < members.length / 4; m++) {
+                int index = parseInt(delta, members[m * 4] + 1);
+                if (index < 0 || index >= length) {
+                    throw new IllegalArgumentException("Chỉ số phần tử ngoài độ dài mảng: " + index);
+                }
+                changes[index] = members[m * 4 + 2];
+            }
+        }
+
+        writeByte('[');
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            if (changes[i] >= 0) {
+                mergeValue(elements[i], changes[i]);
+            } else if (elements[i] >= 0) {
+                write(base, elements[i], valueEnd(base, elements[i]));
+            } else {
+                write(NULL, 0, NULL.length);
+            }
+        }
+        writeByte(']');
+    }
+
+    // ========== Duyệt JSON mức thấp ==========
+
+    /**
+     * Các cặp key/value của object: [keyStart, keyEnd, valueStart, valueEnd] (key gồm cả dấu ngoặc kép)
+     */
+    private static int[] members(byte[] buf, int objectStart) {
+        int[] members = new int[16];
+        int count = 0;
+        int pos = skipWhitespace(buf, objectStart + 1);
+        while (buf[pos] != '}') {
+            if (buf[pos] != '"') {
+                throw error(pos, "Cần key");
+            }
+            int keyEnd = stringEnd(buf, pos);
+            int colon = skipWhitespace(buf, keyEnd);
+            if (buf[colon] != ':') {
+                throw error(colon, "Cần ký tự ':'");
+            }
+            int valueStart = skipWhitespace(buf, colon + 1);
+            int valueEnd = valueEnd(buf, valueStart);
+            if (count + 4 > members.length) {
+                members = Arrays.copyOf(members, members.length * 2);
+            }
+            members[count++] = pos;
+            members[count++] = keyEnd;
+            members[count++] = valueStart;
+            members[count++] = valueEnd;
+            pos = skipWhitespace(buf, valueEnd);
+            if (buf[pos] == ',') {
+                pos = skipWhitespace(buf, pos + 1);
+            } else if (buf[pos] != '}') {
+                throw error(pos, "Cần ',' hoặc '}'");
+            }
+        }
+        return Arrays.copyOf(members, count);
+    }
+
+    /**
+     * Vị trí giá trị của key trong object, -1 nếu không có
+     */
+    private static int findKey(byte[] buf, int[] members, byte[] key) {
+        for (int m = 0; m < members.length; m += 4) {
+            if (sameBytes(buf, members[m], members[m + 1], key, 0, key.length)) {
+                return members[m + 2];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Vị trí ngay sau giá trị JSON bắt đầu tại start
+     */
+    private static int valueEnd(byte[] buf, int start) {
+        if (start >= buf.length) {
+            throw error(start, "Thiếu giá trị");
+        }
+        byte b = buf[start];
+        if (b == '"') {
+            return stringEnd(buf, start);
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            int pos = start;
+            while (pos < buf.length) {
+                byte c = buf[pos];
+                if (c == '"') {
+                    pos = stringEnd(buf, pos);
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return pos + 1;
+                }
+                pos++;
+            }
+            throw error(start, "Object/array chưa đóng");
+        }
+        // number, true, false, null
+        int pos = start;
+        while (pos < buf.length) {
+            byte c = buf[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int stringEnd(byte[] buf, int start) {
+        int pos = start + 1;
+        while (pos < buf.length) {
+            byte b = buf[pos];
+            if (b == '"') {
+                return pos + 1;
+            }
+            pos += b == '\\' ? 2 : 1;
+        }
+        throw error(start, "Chuỗi chưa đóng");
+    }
+
+    private static int skipWhitespace(byte[] buf, int pos) {
+        while (pos < buf.length) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return pos;
+            }
+            pos++;
+        }
+        throw error(pos, "JSON chưa kết thúc");
+    }
+
+    private static boolean isNull(byte[] buf, int start) {
+        return buf[start] == 'n';
+    }
+
+    private static boolean isEmptyObject(byte[] buf, int start) {
+        return buf[start] == '{' && buf[skipWhitespace(buf, start + 1)] == '}';
+    }
+
+    /**
+     * Số nguyên không âm tại start (bỏ qua phần thập phân)
+     */
+    private static int parseInt(byte[] buf, int start) {
+        int value = 0;
+        int pos = start;
+        while (pos < buf.length && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos] - '0');
+            pos++;
+        }
+        if (pos == start) {
+            throw error(start, "Không phải số");
+        }
+        return value;
+    }
+
+    private static boolean sameBytes(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        return Arrays.equals(a, aStart, aEnd, b, bStart, bEnd);
+    }
+
+    private static IllegalArgumentException error(int pos, String message) {
+        return new IllegalArgumentException("Heartbeat delta không hợp lệ tại vị trí " + pos + ": " + message);
+    }
+
+    // ========== Ghi ==========
+
+    private boolean separator(boolean first) {
+        if (!first) {
+            writeByte(',');
+        }
+        return false;
+    }
+
+    private void write(byte[] src, int from, int to) {
+        int length = to - from;
+        ensure(length);
+        System.arraycopy(src, from, out, size, length);
+        size += length;
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        out[size++] = (byte) c;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.monitor.server.heartbeat;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Một mẫu heartbeat đã giải mã, chỉ chứa kiểu nguyên thủy
+ * - Các trường số không boxing, trường nào có mặt được đánh dấu bằng bitmask
+ * - rawData giữ nguyên đoạn byte của object "metrics" trong body gốc (không encode lại)
+ */
+public final class HeartbeatSample {
+
+    public static final int CPU_USAGE = 1;
+    public static final int CORE_COUNT = 1 << 1;
+    public static final int MEMORY_TOTAL = 1 << 2;
+    public static final int MEMORY_USED = 1 << 3;
+    public static final int MEMORY_USAGE_PERCENT = 1 << 4;
+    public static final int DISK_TOTAL = 1 << 5;
+    public static final int DISK_USED = 1 << 6;
+    public static final int NETWORK_BYTES_RECV = 1 << 7;
+    public static final int NETWORK_BYTES_SENT = 1 << 8;
+
+    private String machineId;
+    private String type;
+    private String signature;
+    private boolean hasPayload;
+    private long clientTimestamp;
+    // Interval heartbeat hiện tại của client (ms), 0 nếu client không gửi
+    private long heartbeatInterval;
+    // "full" (mặc định) hoặc "delta": metrics chỉ chứa phần thay đổi, xem HeartbeatDeltaService
+    private String encoding;
+    // Số thứ tự heartbeat của client khi dùng keyframe/delta, 0 nếu không có
+    private long seq;
+    private long receivedAt;
+
+    private int fields;
+    // Trường có giá trị null (hoặc cả nhóm null) trong heartbeat: với delta nghĩa là trường bị xóa
+    private int cleared;
+    private double cpuUsage;
+    private int coreCount;
+    private long memoryTotal;
+    private long memoryUsed;
+    private double memoryUsagePercent;
+    private long diskTotal;
+    private long diskUsed;
+    private long networkBytesRecv;
+    private long networkBytesSent;
+
+    // Đoạn byte của object "metrics" trong body gốc
+    private byte[] rawBuffer;
+    private int rawOffset;
+    private int rawLength;
+
+    public boolean has(int field) {
+        return (fields & field) != 0;
+    }
+
+    /**
+     * Bitmask các trường số có mặt trong heartbeat
+     */
+    public int getFields() {
+        return fields;
+    }
+
+    void mark(int field) {
+        fields |= field;
+        cleared &= ~field;
+    }
+
+    void clear(int mask) {
+        fields &= ~mask;
+        cleared |= mask;
+    }
+
+    /**
+     * Sample đầy đủ: trường số của state, ghi đè bằng trường có trong delta (NaN/null = bỏ trường),
+     * envelope lấy từ delta, rawData là metrics đã ghép
+     */
+    static HeartbeatSample applyDelta(HeartbeatSample state, HeartbeatSample delta, byte[] raw) {
+        HeartbeatSample full = new HeartbeatSample();
+        full.machineId = delta.machineId;
+        full.type = delta.type;
+        full.signature = delta.signature;
+        full.hasPayload = delta.hasPayload;
+        full.clientTimestamp = delta.clientTimestamp;
+        full.heartbeatInterval = delta.heartbeatInterval;
+        full.encoding = "full";
+        full.seq = delta.seq;
+        full.receivedAt = delta.receivedAt;
+
+        int removed = delta.cleared;
+        if (delta.has(CPU_USAGE) && Double.isNaN(delta.cpuUsage)) {
+            removed |= CPU_USAGE;
+        }
+        if (delta.has(MEMORY_USAGE_PERCENT) && Double.isNaN(delta.memoryUsagePercent)) {
+            removed |= MEMORY_USAGE_PERCENT;
+        }
+        full.fields = (state.fields | delta.fields) & ~removed;
+
+        // Trường không còn giữ giá trị mặc định 0 như khi giải mã
+        if (full.has(CPU_USAGE)) {
+            full.cpuUsage = (delta.has(CPU_USAGE) ? delta : state).cpuUsage;
+        }
+        if (full.has(CORE_COUNT)) {
+            full.coreCount = (delta.has(CORE_COUNT) ? delta : state).coreCount;
+        }
+        if (full.has(MEMORY_TOTAL)) {
+            full.memoryTotal = (delta.has(MEMORY_TOTAL) ? delta : state).memoryTotal;
+        }
+        if (full.has(MEMORY_USED)) {
+            full.memoryUsed = (delta.has(MEMORY_USED) ? delta : state).memoryUsed;
+        }
+        if (full.has(MEMORY_USAGE_PERCENT)) {
+            full.memoryUsagePercent = (delta.has(MEMORY_USAGE_PERCENT) ? delta : state).memoryUsagePercent;
+        }
+        if (full.has(DISK_TOTAL)) {
+            full.diskTotal = (delta.has(DISK_TOTAL) ? delta : state).diskTotal;
+        }
+        if (full.has(DISK_USED)) {
+            full.diskUsed = (delta.has(DISK_USED) ? delta : state).diskUsed;
+        }
+        if (full.has(NETWORK_BYTES_RECV)) {
+            full.networkBytesRecv = (delta.has(NETWORK_BYTES_RECV) ? delta : state).networkBytesRecv;
+        }
+        if (full.has(NETWORK_BYTES_SENT)) {
+            full.networkBytesSent = (delta.has(NETWORK_BYTES_SENT) ? delta : state).networkBytesSent;
+        }
+        full.setRaw(raw, 0, raw.length);
+        return full;
+    }
+
+    /**
+     * Có object "metrics" trong heartbeat hay không
+     */
+    public boolean hasMetrics() {
+        return rawBuffer != null;
+    }
+
+    /**
+     * Metrics chỉ chứa phần thay đổi so với heartbeat trước, cần ghép trước khi ghi
+     */
+    public boolean isDelta() {
+        return "delta".equals(encoding);
+    }
+
+    /**
+     * Format có chữ ký: {"payload": {...}, "signature": "..."}
+     */
+    public boolean isSigned() {
+        return hasPayload && signature != null;
+    }
+
+    /**
+     * Disk usage (%) tính từ total/used, NaN nếu thiếu dữ liệu
+     */
+    public double getDiskUsagePercent() {
+        if (has(DISK_TOTAL) && has(DISK_USED) && diskTotal > 0) {
+            return (double) diskUsed / diskTotal * 100;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * JSON gốc của object "metrics" (decode UTF-8 trực tiếp từ body, không serialize lại)
+     */
+    public String getRawJson() {
+        if (rawBuffer == null) {
+            return null;
+        }
+        return new String(rawBuffer, rawOffset, rawLength, StandardCharsets.UTF_8);
+    }
+
+    byte[] getRawBuffer() {
+        return rawBuffer;
+    }
+
+    int getRawOffset() {
+        return rawOffset;
+    }
+
+    int getRawLength() {
+        return rawLength;
+    }
+
+    void setRaw(byte[] buffer, int offset, int length) {
+        this.rawBuffer = buffer;
+        this.rawOffset = offset;
+        this.rawLength = length;
+    }
+
+    // Getters and Setters
+    public String getMachineId() {
+        return machineId;
+    }
+
+    public void setMachineId(String machineId) {
+        this.machineId = machineId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    void setType(String type) {
+        this.type = type;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    void setSignature(String signature) {
+        this.signature = signature;
+    }
+
+    void setHasPayload(boolean hasPayload) {
+        this.hasPayload = hasPayload;
+    }
+
+    public long getClientTimestamp() {
+        return clientTimestamp;
+    }
+
+    void setClientTimestamp(long clientTimestamp) {
+        this.clientTimestamp = clientTimestamp;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    public double getCpuUsage() {
+        return cpuUsage;
+    }
+
+    void setCpuUsage(double cpuUsage) {
+        this.cpuUsage = cpuUsage;
+        mark(CPU_USAGE);
+    }
+
+    public int getCoreCount() {
+        return coreCount;
+    }
+
+    void setCoreCount(int coreCount) {
+        this.coreCount = coreCount;
+        mark(CORE_COUNT);
+    }
+
+    public long getMemoryTotal() {
+        return memoryTotal;
+    }
+
+    void setMemoryTotal(long memoryTotal) {
+        this.memoryTotal = memoryTotal;
+        mark(MEMORY_TOTAL);
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    void setMemoryUsed(long memoryUsed) {
+        this.memoryUsed = memoryUsed;
+        mark(MEMORY_USED);
+    }
+
+    public double getMemoryUsagePercent() {
+        return memoryUsagePercent;
+    }
+
+    void setMemoryUsagePercent(double memoryUsagePercent) {
+        this.memoryUsagePercent = memoryUsagePercent;
+        mark(MEMORY_USAGE_PERCENT);
+    }
+
+    public long getDiskTotal() {
+        return diskTotal;
+    }
+
+    void setDiskTotal(long diskTotal) {
+        this.diskTotal = diskTotal;
+        mark(DISK_TOTAL);
+    }
+
+    public long getDiskUsed() {
+        return diskUsed;
+    }
+
+    void setDiskUsed(long diskUsed) {
+        this.diskUsed = diskUsed;
+        mark(DISK_USED);
+    }
+
+    public long getNetworkBytesRecv() {
+        return networkBytesRecv;
+    }
+
+    void setNetworkBytesRecv(long networkBytesRecv) {
+        this.networkBytesRecv = networkBytesRecv;
+        mark(NETWORK_BYTES_RECV);
+    }
+
+    public long getNetworkBytesSent() {
+        return networkBytesSent;
+    }
+
+    void setNetworkBytesSent(long networkBytesSent) {
+        this.networkBytesSent = networkBytesSent;
+        mark(NETWORK_BYTES_SENT);
+    }
+}
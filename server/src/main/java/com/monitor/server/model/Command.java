@@ -29,7 +29,7 @@ public class Command {
     private String commandData; // JSON data
     
     @Column(name = "status", length = 20, nullable = false)
-    private String status = "PENDING"; // PENDING, SENT, COMPLETED, FAILED
+    private String status = "PENDING"; // PENDING, QUEUED, SENT, COMPLETED, FAILED, EXPIRED
     
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -40,6 +40,9 @@ public class Command {
     @Column(name = "response_data", columnDefinition = "NVARCHAR(MAX)")
     private String responseData; // Response từ client
     
+    @Column(name = "extra_data", columnDefinition = "NVARCHAR(MAX)")
+    private String extraData; // JSON các trường thêm vào payload (vd. notificationId), giữ cho lệnh QUEUED
+    
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "machine_id", insertable = false, updatable = false)
     private Machine machine;
@@ -119,6 +122,14 @@ public class Command {
         this.responseData = responseData;
     }
     
+    public String getExtraData() {
+        return extraData;
+    }
+    
+    public void setExtraData(String extraData) {
+        this.extraData = extraData;
+    }
+    
     public Machine getMachine() {
         return machine;
     }
@@ -10,7 +10,8 @@ import java.time.LocalDateTime;
 @Table(name = "screen_data", indexes = {
     @Index(name = "idx_screen_data_machine", columnList = "machine_id"),
     @Index(name = "idx_screen_data_captured", columnList = "captured_at"),
-    @Index(name = "idx_screen_data_command", columnList = "command_id")
+    @Index(name = "idx_screen_data_command", columnList = "command_id"),
+    @Index(name = "idx_screen_data_hash", columnList = "content_hash")
 })
 public class ScreenData {
     
@@ -21,8 +22,14 @@ public class ScreenData {
     @Column(name = "machine_id", nullable = false, length = 100)
     private String machineId;
     
-    @Column(name = "image_data", nullable = false, columnDefinition = "VARBINARY(MAX)")
-    private byte[] imageData; // Binary image data
+    @Column(name = "image_data", columnDefinition = "VARBINARY(MAX)")
+    private byte[] imageData; // Chỉ còn ở dòng cũ, ảnh mới nằm trong ScreenshotStore
+    
+    @Column(name = "content_hash", length = 64)
+    private String contentHash; // SHA-256 của nội dung ảnh trong ScreenshotStore
+    
+    @Column(name = "size_bytes")
+    private Long sizeBytes;
     
     @Column(name = "image_format", length = 20, nullable = false)
     private String imageFormat = "PNG"; // PNG, JPEG
@@ -76,6 +83,22 @@ public class ScreenData {
         this.imageData = imageData;
     }
     
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
+    public Long getSizeBytes() {
+        return sizeBytes;
+    }
+    
+    public void setSizeBytes(Long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+    
     public String getImageFormat() {
         return imageFormat;
     }
@@ -0,0 +1,20 @@
+package com.monitor.server.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Metadata của một ảnh màn hình (không kèm nội dung ảnh)
+ * Dùng cho danh sách lịch sử, nội dung ảnh tải riêng theo id
+ */
+public interface ScreenDataSummary {
+
+    Long getId();
+
+    LocalDateTime getCapturedAt();
+
+    String getImageFormat();
+
+    Long getSizeBytes();
+
+    Long getCommandId();
+}
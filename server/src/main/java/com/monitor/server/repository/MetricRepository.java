@@ -1,6 +1,7 @@
 package com.monitor.server.repository;
 
 import com.monitor.server.model.Metric;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -14,6 +15,9 @@ public interface MetricRepository extends JpaRepository<Metric, Long> {
 
     List<Metric> findByMachineIdOrderByTimestampDesc(String machineId);
 
+    // Chỉ lấy một trang (TOP n) thay vì toàn bộ lịch sử của máy
+    List<Metric> findByMachineIdOrderByTimestampDesc(String machineId, Pageable pageable);
+
     @Query("SELECT m FROM Metric m WHERE m.machineId = :machineId AND m.timestamp >= :since ORDER BY m.timestamp DESC")
     List<Metric> findByMachineIdSince(@Param("machineId") String machineId, @Param("since") LocalDateTime since);
 
@@ -1,6 +1,7 @@
 package com.monitor.server.repository;
 
 import com.monitor.server.model.ScreenData;
+import com.monitor.server.model.ScreenDataSummary;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -12,7 +13,15 @@ import java.util.Optional;
 @Repository
 public interface ScreenDataRepository extends JpaRepository<ScreenData, Long> {
 
-    List<ScreenData> findByMachineIdOrderByCapturedAtDesc(String machineId);
+    /**
+     * Lịch sử ảnh theo keyset (id giảm dần), chỉ lấy metadata
+     * Dòng cũ chưa có size_bytes thì lấy kích thước cột image_data
+     */
+    @Query(value = "SELECT TOP (:limit) id AS id, captured_at AS capturedAt, image_format AS imageFormat, "
+            + "COALESCE(size_bytes, DATALENGTH(image_data)) AS sizeBytes, command_id AS commandId "
+            + "FROM screen_data WHERE machine_id = :machineId AND id < :beforeId ORDER BY id DESC", nativeQuery = true)
+    List<ScreenDataSummary> findHistory(@Param("machineId") String machineId, @Param("beforeId") long beforeId,
+            @Param("limit") int limit);
 
     @Query(value = "SELECT TOP 1 * FROM screen_data WHERE machine_id = :machineId ORDER BY captured_at DESC", nativeQuery = true)
     Optional<ScreenData> findLatestByMachineId(@Param("machineId") String machineId);
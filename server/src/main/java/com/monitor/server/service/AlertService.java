@@ -1,24 +1,29 @@
 package com.monitor.server.service;
 
 import com.monitor.server.model.Alert;
-import com.monitor.server.model.Machine;
 import com.monitor.server.repository.AlertRepository;
-import com.monitor.server.repository.MachineRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service quản lý cảnh báo
  * - Tạo cảnh báo tự động dựa trên metrics
  * - Quản lý trạng thái cảnh báo (resolved/unresolved)
  * - Kiểm tra máy offline
+ * - Giữ index các cảnh báo chưa giải quyết trong bộ nhớ để chống trùng lặp không cần query
  */
 @Service
 public class AlertService {
@@ -29,7 +34,7 @@ public class AlertService {
     private AlertRepository alertRepository;
     
     @Autowired
-    private MachineRepository machineRepository;
+    private DashboardPublisher dashboardPublisher;
     
     // Cấu hình từ application.properties
     @Value("${monitor.alert.cpu.threshold:90}")
@@ -41,8 +46,31 @@ public class AlertService {
     @Value("${monitor.alert.ram.threshold:85}")
     private double ramThreshold;
     
-    @Value("${monitor.alert.offline.timeout:15}")
-    private int offlineTimeoutSeconds;
+    // Cảnh báo chưa giải quyết theo id
+    private final Map<Long, Alert> unresolvedAlerts = new ConcurrentHashMap<>();
+    
+    // Cảnh báo chưa giải quyết theo (machineId, alertType), dùng để chống tạo trùng
+    private final Map<String, Alert> activeAlerts = new ConcurrentHashMap<>();
+    
+    // Các (machineId, alertType) đang được tạo cảnh báo: chống trùng theo từng key, không khóa chung
+    private final Set<String> creatingAlerts = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Nạp các cảnh báo chưa giải quyết khi khởi động
+     */
+    @PostConstruct
+    public void loadActiveAlerts() {
+        try {
+            // Danh sách sắp xếp mới nhất trước: mỗi (machineId, alertType) giữ cảnh báo mới nhất
+            for (Alert alert : alertRepository.findByResolvedFalseOrderByTimestampDesc()) {
+                unresolvedAlerts.put(alert.getId(), alert);
+                activeAlerts.putIfAbsent(alertKey(alert.getMachineId(), alert.getAlertType()), alert);
+            }
+            logger.info("Đã nạp {} cảnh báo chưa giải quyết", unresolvedAlerts.size());
+        } catch (Exception e) {
+            logger.error("Lỗi khi nạp cảnh báo chưa giải quyết: {}", e.getMessage());
+        }
+    }
     
     /**
      * Tạo cảnh báo
@@ -57,10 +85,33 @@ public class AlertService {
         alert.setResolved(false);
         
         Alert saved = alertRepository.save(alert);
+        unresolvedAlerts.put(saved.getId(), saved);
+        activeAlerts.put(alertKey(machineId, alertType), saved);
         logger.info("Đã tạo cảnh báo: {} - {} - {}", machineId, alertType, message);
+        dashboardPublisher.publishAlert(saved);
         return saved;
     }
     
+    /**
+     * Tạo cảnh báo nếu máy chưa có cảnh báo cùng loại chưa được giải quyết
+     * Chạy trên luồng nhận heartbeat: chỉ thread giữ key trong creatingAlerts được lưu cảnh báo,
+     * các thread khác bỏ qua ngay thay vì chờ database
+     */
+    private void createAlertIfAbsent(String machineId, String alertType, String message, String severity) {
+        String key = alertKey(machineId, alertType);
+        if (activeAlerts.containsKey(key) || !creatingAlerts.add(key)) {
+            return;
+        }
+        try {
+            if (!activeAlerts.containsKey(key)) {
+                createAlert(machineId, alertType, message, severity);
+            }
+        } finally {
+            creatingAlerts.remove(key);
+        }
+    }
+
+    
     /**
      * Kiểm tra và tạo cảnh báo CPU cao
      * @param machineId ID của máy tính
@@ -68,19 +119,13 @@ public class AlertService {
      */
     public void checkCpuAlert(String machineId, double cpuUsage) {
         if (cpuUsage > cpuThreshold) {
-            // Kiểm tra xem đã có cảnh báo CPU cao chưa được giải quyết chưa
-            List<Alert> existingAlerts = alertRepository.findByMachineIdAndResolvedFalseOrderByTimestampDesc(machineId);
-            boolean hasCpuAlert = existingAlerts.stream()
-                .anyMatch(a -> a.getAlertType().equals("CPU_HIGH"));
-            
-            if (!hasCpuAlert) {
-                createAlert(
-                    machineId,
-                    "CPU_HIGH",
-                    String.format("CPU usage cao: %.2f%% (ngưỡng: %.2f%%)", cpuUsage, cpuThreshold),
-                    "WARNING"
-                );
-            }
+            // Chỉ tạo nếu chưa có cảnh báo CPU cao chưa được giải quyết
+            createAlertIfAbsent(
+                machineId,
+                "CPU_HIGH",
+                String.format("CPU usage cao: %.2f%% (ngưỡng: %.2f%%)", cpuUsage, cpuThreshold),
+                "WARNING"
+            );
         }
     }
     
@@ -91,65 +136,37 @@ public class AlertService {
      */
     public void checkRamAlert(String machineId, double ramUsage) {
         if (ramUsage > ramThreshold) {
-            // Kiểm tra xem đã có cảnh báo RAM cao chưa được giải quyết chưa
-            List<Alert> existingAlerts = alertRepository.findByMachineIdAndResolvedFalseOrderByTimestampDesc(machineId);
-            boolean hasRamAlert = existingAlerts.stream()
-                .anyMatch(a -> a.getAlertType().equals("RAM_HIGH"));
-            
-            if (!hasRamAlert) {
-                createAlert(
-                    machineId,
-                    "RAM_HIGH",
-                    String.format("RAM usage cao: %.2f%% (ngưỡng: %.2f%%)", ramUsage, ramThreshold),
-                    "WARNING"
-                );
-            }
+            // Chỉ tạo nếu chưa có cảnh báo RAM cao chưa được giải quyết
+            createAlertIfAbsent(
+                machineId,
+                "RAM_HIGH",
+                String.format("RAM usage cao: %.2f%% (ngưỡng: %.2f%%)", ramUsage, ramThreshold),
+                "WARNING"
+            );
         }
     }
     
     /**
-     * Kiểm tra máy offline
-     * Chạy định kỳ để kiểm tra các máy không gửi heartbeat
+     * Xử lý máy vừa chuyển sang offline
+     * Gọi từ MachineLivenessRegistry khi timing wheel báo máy hết hạn heartbeat
      */
-    public void checkOfflineMachines() {
-        List<Machine> machines = machineRepository.findAll();
-        LocalDateTime now = LocalDateTime.now();
-        
-        for (Machine machine : machines) {
-            if (machine.isOnline()) {
-                LocalDateTime lastHeartbeat = machine.getLastHeartbeat();
-                if (lastHeartbeat != null) {
-                    long secondsSinceLastHeartbeat = java.time.Duration.between(lastHeartbeat, now).getSeconds();
-                    
-                    if (secondsSinceLastHeartbeat > offlineTimeoutSeconds) {
-                        // Máy đã offline
-                        machine.setIsOnline(false);
-                        machineRepository.save(machine);
-                        
-                        // Tạo cảnh báo
-                        List<Alert> existingAlerts = alertRepository.findByMachineIdAndResolvedFalseOrderByTimestampDesc(machine.getMachineId());
-                        boolean hasOfflineAlert = existingAlerts.stream()
-                            .anyMatch(a -> a.getAlertType().equals("OFFLINE"));
-                        
-                        if (!hasOfflineAlert) {
-                            createAlert(
-                                machine.getMachineId(),
-                                "OFFLINE",
-                                String.format("Máy tính không phản hồi trong %d giây", secondsSinceLastHeartbeat),
-                                "CRITICAL"
-                            );
-                        }
-                    }
-                }
-            }
-        }
+    public void handleMachineOffline(String machineId, long secondsSinceLastHeartbeat) {
+        // Tạo cảnh báo
+        createAlertIfAbsent(
+            machineId,
+            "OFFLINE",
+            String.format("Máy tính không phản hồi trong %d giây", secondsSinceLastHeartbeat),
+            "CRITICAL"
+        );
     }
     
     /**
-     * Lấy tất cả cảnh báo chưa được giải quyết
+     * Lấy tất cả cảnh báo chưa được giải quyết (từ index trong bộ nhớ)
      */
     public List<Alert> getUnresolvedAlerts() {
-        return alertRepository.findByResolvedFalseOrderByTimestampDesc();
+        List<Alert> alerts = new ArrayList<>(unresolvedAlerts.values());
+        alerts.sort(Comparator.comparing(Alert::getTimestamp, Comparator.nullsLast(Comparator.reverseOrder())));
+        return alerts;
     }
     
     /**
@@ -169,8 +186,31 @@ public class AlertService {
             alert.setResolved(true);
             alert.setResolvedAt(LocalDateTime.now());
             alertRepository.save(alert);
+            removeActiveAlert(alert);
             logger.info("Đã giải quyết cảnh báo: {}", alertId);
         }
     }
+    
+    /**
+     * Gỡ cảnh báo đã giải quyết khỏi index
+     * Nếu còn cảnh báo cùng loại chưa giải quyết (dữ liệu cũ bị trùng) thì index trỏ sang cảnh báo đó
+     */
+    private void removeActiveAlert(Alert resolved) {
+        unresolvedAlerts.remove(resolved.getId());
+        String key = alertKey(resolved.getMachineId(), resolved.getAlertType());
+        activeAlerts.computeIfPresent(key, (k, active) -> {
+            if (!active.getId().equals(resolved.getId())) {
+                return active;
+            }
+            return unresolvedAlerts.values().stream()
+                .filter(a -> key.equals(alertKey(a.getMachineId(), a.getAlertType())))
+                .max(Comparator.comparing(Alert::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .orElse(null);
+        });
+    }
+    
+    private static String alertKey(String machineId, String alertType) {
+        return machineId + "|" + alertType;
+    }
 }
 
@@ -1,30 +1,26 @@
 package com.monitor.server.service;
 
-import com.monitor.server.model.Metric;
-import com.monitor.server.repository.MetricRepository;
+import com.monitor.server.heartbeat.HeartbeatSample;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service phân tích dữ liệu và tạo cảnh báo tự động
- * - Phân tích metrics để phát hiện vấn đề
- * - Chạy định kỳ để kiểm tra các điều kiện cảnh báo
+ * - Phân tích từng sample ngay khi nhận heartbeat (không quét bảng metrics)
+ * - Mỗi máy giữ một trạng thái cửa sổ nhỏ, cập nhật O(1) mỗi sample
+ * - Chỉ gọi AlertService khi cửa sổ vượt ngưỡng
  */
 @Service
 public class AnalysisService {
     
     private static final Logger logger = LoggerFactory.getLogger(AnalysisService.class);
     
-    @Autowired
-    private MetricRepository metricRepository;
-    
     @Autowired
     private AlertService alertService;
     
@@ -34,70 +30,99 @@ public class AnalysisService {
     @Value("${monitor.alert.cpu.duration:30}")
     private int cpuDurationSeconds;
     
+    @Value("${monitor.alert.ram.threshold:85}")
+    private double ramThreshold;
+    
+    // Trạng thái phân tích của từng máy
+    private final Map<String, MachineWindow> windows = new ConcurrentHashMap<>();
+    
     /**
-     * Phân tích metrics và tạo cảnh báo
-     * Chạy mỗi 10 giây
+     * Phân tích một sample vừa nhận
+     * Gọi từ MetricService khi heartbeat được chấp nhận
      */
-    @Scheduled(fixedRate = 10000) // 10 giây
-    public void analyzeMetrics() {
+    public void analyzeSample(HeartbeatSample sample) {
         try {
-            // Lấy tất cả machines từ metrics
-            List<String> machineIds = metricRepository.findAll()
-                .stream()
-                .map(Metric::getMachineId)
-                .distinct()
-                .collect(java.util.stream.Collectors.toList());
+            MachineWindow window = windows.computeIfAbsent(sample.getMachineId(), id -> new MachineWindow());
+            double avgCpu = Double.NaN;
+            boolean ramCrossed = false;
             
-            for (String machineId : machineIds) {
-                analyzeMachineMetrics(machineId);
+            synchronized (window) {
+                if (sample.has(HeartbeatSample.CPU_USAGE)) {
+                    avgCpu = window.addCpu(sample.getReceivedAt(), sample.getCpuUsage());
+                }
+                if (sample.has(HeartbeatSample.MEMORY_USAGE_PERCENT)) {
+                    ramCrossed = window.addRam(sample.getMemoryUsagePercent());
+                }
             }
             
-            // Kiểm tra máy offline
-            alertService.checkOfflineMachines();
-            
+            if (!Double.isNaN(avgCpu)) {
+                // CPU cao liên tục trong khoảng thời gian
+                alertService.checkCpuAlert(sample.getMachineId(), avgCpu);
+            }
+            if (ramCrossed) {
+                alertService.checkRamAlert(sample.getMachineId(), sample.getMemoryUsagePercent());
+            }
+        
         } catch (Exception e) {
-            logger.error("Lỗi khi phân tích metrics: {}", e.getMessage(), e);
+            logger.error("Lỗi khi phân tích metrics cho machine {}: {}", sample.getMachineId(), e.getMessage());
         }
     }
     
     /**
-     * Phân tích metrics của một machine
+     * Xóa trạng thái phân tích của máy
      */
-    private void analyzeMachineMetrics(String machineId) {
-        try {
-            // Lấy metrics trong khoảng thời gian gần đây
-            LocalDateTime since = LocalDateTime.now().minusSeconds(cpuDurationSeconds + 10);
-            List<Metric> recentMetrics = metricRepository.findByMachineIdSince(machineId, since);
-            
-            if (recentMetrics.isEmpty()) {
-                return;
+    public void remove(String machineId) {
+        windows.remove(machineId);
+    }
+    
+    /**
+     * Cửa sổ phân tích của một máy
+     * - CPU: chuỗi sample liên tiếp vượt ngưỡng (thời điểm bắt đầu, số lượng, tổng)
+     * - RAM: sample trước đó có vượt ngưỡng hay không
+     */
+    private final class MachineWindow {
+        
+        private long cpuHighSince = -1;
+        private int cpuHighCount;
+        private double cpuHighSum;
+        private boolean cpuAlerted;
+        private boolean ramHigh;
+        
+        /**
+         * @return CPU trung bình của chuỗi khi chuỗi vừa đủ thời gian cảnh báo, NaN nếu không
+         */
+        double addCpu(long timestamp, double cpuUsage) {
+            if (!(cpuUsage > cpuThreshold)) {
+                // Chuỗi CPU cao bị ngắt
+                cpuHighSince = -1;
+                cpuHighCount = 0;
+                cpuHighSum = 0;
+                cpuAlerted = false;
+                return Double.NaN;
             }
             
-            // Kiểm tra CPU cao trong khoảng thời gian
-            boolean cpuHighForDuration = recentMetrics.stream()
-                .filter(m -> m.getCpuUsage() != null)
-                .allMatch(m -> m.getCpuUsage() > cpuThreshold);
-            
-            if (cpuHighForDuration && recentMetrics.size() >= 3) {
-                // CPU cao liên tục trong khoảng thời gian
-                double avgCpu = recentMetrics.stream()
-                    .filter(m -> m.getCpuUsage() != null)
-                    .mapToDouble(Metric::getCpuUsage)
-                    .average()
-                    .orElse(0);
-                
-                alertService.checkCpuAlert(machineId, avgCpu);
+            if (cpuHighSince < 0) {
+                cpuHighSince = timestamp;
             }
+            cpuHighCount++;
+            cpuHighSum += cpuUsage;
             
-            // Kiểm tra RAM cao
-            Metric latestMetric = recentMetrics.get(0);
-            if (latestMetric.getMemoryUsagePercent() != null) {
-                alertService.checkRamAlert(machineId, latestMetric.getMemoryUsagePercent());
+            boolean longEnough = timestamp - cpuHighSince >= cpuDurationSeconds * 1000L;
+            if (!cpuAlerted && longEnough && cpuHighCount >= 3) {
+                cpuAlerted = true;
+                return cpuHighSum / cpuHighCount;
             }
-            
-        } catch (Exception e) {
-            logger.error("Lỗi khi phân tích metrics cho machine {}: {}", machineId, e.getMessage());
+            return Double.NaN;
+        }
+        
+        /**
+         * @return true nếu RAM vừa vượt ngưỡng (trước đó dưới ngưỡng)
+         */
+        boolean addRam(double ramUsage) {
+            boolean high = ramUsage > ramThreshold;
+            boolean crossed = high && !ramHigh;
+            ramHigh = high;
+            return crossed;
         }
     }
 }
-
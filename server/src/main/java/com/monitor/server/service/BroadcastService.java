@@ -0,0 +1,329 @@
+package com.monitor.server.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.monitor.server.websocket.OutboundQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Gửi một lệnh đến nhiều máy cùng lúc (cả phòng máy)
+ * - Máy không tồn tại trong bảng machines bị loại trước (UNKNOWN), không ghi dòng commands
+ * - Ghi tất cả dòng commands bằng INSERT nhiều dòng trong một transaction
+ * - Dựng phần chung của payload một lần (JsonObject), mỗi máy chỉ thêm commandId
+ * - Chỉ xếp frame vào hàng đợi gửi của từng session, pool của OutboundSender gửi song song
+ * - Trả về broadcastId để dashboard lấy kết quả tổng hợp (GET) hoặc subscribe /topic/broadcasts/{id}
+ */
+@Service
+public class BroadcastService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BroadcastService.class);
+
+    // SQL Server giới hạn 2100 tham số mỗi câu lệnh: 6 tham số x 300 dòng
+    private static final int INSERT_CHUNK_SIZE = 300;
+
+    private static final String SELECT_MACHINES_SQL = "SELECT machine_id FROM machines WHERE machine_id IN ";
+
+    private static final String INSERT_COMMANDS_SQL = "INSERT INTO commands (machine_id, command_type, command_data, "
+            + "status, created_at, response_data) OUTPUT INSERTED.id, INSERTED.machine_id VALUES ";
+
+    @Autowired
+    private CommandService commandService;
+
+    @Autowired
+    private PendingCommandRegistry pendingCommands;
+
+    @Autowired
+    private DashboardPublisher dashboardPublisher;
+
+    @Autowired
+    private OfflineCommandQueue offlineCommandQueue;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // Thời gian tối đa chờ client trả kết quả lệnh broadcast (ms)
+    @Value("${monitor.command.broadcast-timeout-ms:30000}")
+    private long broadcastTimeoutMs;
+
+    // Thời gian giữ kết quả broadcast trong bộ nhớ (ms)
+    @Value("${monitor.command.broadcast-retention-ms:600000}")
+    private long retentionMs;
+
+    private final Map<String, Broadcast> broadcasts = new ConcurrentHashMap<>();
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Gửi lệnh đến danh sách máy
+     * @param machineIds Danh sách máy; null = tất cả client đang kết nối
+     * @param commandType LOCK, UNLOCK, SCREEN_CAPTURE, NOTIFICATION...
+     * @param data Dữ liệu lệnh (có thể null)
+     * @return Kết quả tổng hợp ban đầu (có broadcastId)
+     */
+    public Map<String, Object> broadcast(Collection<String> machineIds, String commandType, Map<String, Object> data) {
+        Collection<String> targets = machineIds != null
+                ? new LinkedHashSet<>(machineIds)
+                : new ArrayList<>(commandService.getOnlineClients());
+        String commandData = data != null ? gson.toJson(data) : null;
+        long now = System.currentTimeMillis();
+        Broadcast broadcast = new Broadcast(UUID.randomUUID().toString(), commandType, now, targets.size());
+
+        // Chia máy online / offline, bỏ máy không tồn tại (dòng commands sẽ vi phạm khóa ngoại)
+        Set<String> known = findExistingMachines(targets);
+        Map<String, OutboundQueue> sessions = new LinkedHashMap<>();
+        List<String> offline = new ArrayList<>();
+        for (String machineId : targets) {
+            if (!known.contains(machineId)) {
+                broadcast.setStatus(machineId, "UNKNOWN");
+                continue;
+            }
+            OutboundQueue queue = commandService.getClientQueue(machineId);
+            if (queue != null && queue.isOpen()) {
+                sessions.put(machineId, queue);
+            } else {
+                offline.add(machineId);
+            }
+        }
+
+        // Ghi tất cả commands trong một transaction: lỗi ở bất kỳ chunk nào thì không dòng nào được ghi
+        boolean queueOffline = offlineCommandQueue.accepts(commandType);
+        Map<String, Long> commandIds = new HashMap<>();
+        Map<String, Long> queuedIds = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            commandIds.putAll(insertCommands(sessions.keySet(), commandType, commandData, "SENT", null, now));
+            if (queueOffline) {
+                queuedIds.putAll(insertCommands(offline, commandType, commandData, "QUEUED", null, now));
+            } else {
+                insertCommands(offline, commandType, commandData, "FAILED", "Client không online", now);
+            }
+        });
+
+        if (queueOffline) {
+            // Máy offline nhận lệnh khi kết nối lại
+            queuedIds.forEach((machineId, commandId) -> {
+                offlineCommandQueue.enqueue(machineId, commandId, commandType, commandData, null, now);
+                broadcast.queuedCommandIds.put(machineId, commandId);
+                broadcast.setStatus(machineId, "QUEUED");
+            });
+        } else {
+            offline.forEach(machineId -> broadcast.setStatus(machineId, "OFFLINE"));
+        }
+        broadcasts.put(broadcast.id, broadcast);
+
+        // Phần chung của payload chỉ dựng một lần
+        JsonObject common = new JsonObject();
+        common.addProperty("command", commandType);
+        common.addProperty("broadcastId", broadcast.id);
+        common.addProperty("timestamp", now);
+        if (data != null) {
+            common.add("data", gson.toJsonTree(data));
+        }
+
+        // Xếp vào hàng đợi gửi của từng session
+        OutboundQueue.Priority priority = CommandService.priorityOf(commandType);
+        for (Map.Entry<String, OutboundQueue> entry : sessions.entrySet()) {
+            String machineId = entry.getKey();
+            Long commandId = commandIds.get(machineId);
+            if (commandId == null) {
+                broadcast.setStatus(machineId, "FAILED");
+                continue;
+            }
+            broadcast.setStatus(machineId, "SENT");
+            trackResponse(broadcast, machineId, commandId);
+
+            JsonObject frame = new JsonObject();
+            frame.addProperty("commandId", commandId);
+            for (Map.Entry<String, JsonElement> field : common.entrySet()) {
+                frame.add(field.getKey(), field.getValue());
+            }
+            String json = gson.toJson(frame);
+            // Frame bị bỏ (hàng đợi đầy, client chậm) hoặc gửi lỗi: đánh dấu FAILED
+            entry.getValue().offer(json, priority, null, reason -> {
+                logger.warn("Lỗi khi gửi broadcast {} đến machine {}: {}", broadcast.id, machineId, reason);
+                commandService.markCommandFailed(commandId, "Lỗi gửi: " + reason);
+                pendingCommands.complete(commandId, failure("Lỗi gửi: " + reason));
+            });
+        }
+
+        logger.info("Đã broadcast lệnh {} đến {} máy ({} offline), broadcastId: {}",
+                commandType, sessions.size(), offline.size(), broadcast.id);
+        Map<String, Object> summary = broadcast.summary();
+        dashboardPublisher.publishBroadcast(broadcast.id, summary);
+        return summary;
+    }
+
+    /**
+     * Lệnh QUEUED của broadcast cho từng máy offline (để gắn thêm extraData, vd. notificationId)
+     */
+    public Map<String, Long> getQueuedCommandIds(String broadcastId) {
+        Broadcast broadcast = broadcasts.get(broadcastId);
+        return broadcast != null ? broadcast.queuedCommandIds : new HashMap<>();
+    }
+
+    /**
+     * Kết quả tổng hợp của một broadcast
+     * @return null nếu không tồn tại hoặc đã hết hạn lưu
+     */
+    public Map<String, Object> getBroadcastStatus(String broadcastId) {
+        Broadcast broadcast = broadcasts.get(broadcastId);
+        return broadcast != null ? broadcast.summary() : null;
+    }
+
+    /**
+     * Xóa kết quả broadcast cũ
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpired() {
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        broadcasts.values().removeIf(broadcast -> broadcast.createdAt < cutoff);
+    }
+
+    /**
+     * Cập nhật kết quả tổng hợp khi client trả lời (hoặc hết thời gian chờ)
+     */
+    private void trackResponse(Broadcast broadcast, String machineId, Long commandId) {
+        pendingCommands.register(commandId, machineId)
+                .orTimeout(broadcastTimeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> {
+                    String status;
+                    if (error instanceof TimeoutException) {
+                        status = "TIMEOUT";
+                    } else if (error != null) {
+                        status = "FAILED";
+                    } else {
+                        status = Boolean.TRUE.equals(result.get("success")) ? "COMPLETED" : "FAILED";
+                    }
+                    broadcast.setStatus(machineId, status);
+                    dashboardPublisher.publishBroadcast(broadcast.id, broadcast.summary());
+                });
+    }
+
+    /**
+     * Các machineId có trong bảng machines
+     */
+    private Set<String> findExistingMachines(Collection<String> machineIds) {
+        Set<String> existing = new HashSet<>();
+        List<String> all = new ArrayList<>(machineIds);
+        for (int from = 0; from < all.size(); from += INSERT_CHUNK_SIZE) {
+            List<String> chunk = all.subList(from, Math.min(from + INSERT_CHUNK_SIZE, all.size()));
+            StringBuilder sql = new StringBuilder(SELECT_MACHINES_SQL).append('(');
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(')');
+            jdbcTemplate.query(sql.toString(), rs -> {
+                existing.add(rs.getString(1));
+            }, chunk.toArray());
+        }
+        return existing;
+    }
+
+    /**
+     * Ghi nhiều dòng commands bằng INSERT nhiều dòng, lấy id qua OUTPUT INSERTED
+     * @return machineId -> commandId
+     */
+    private Map<String, Long> insertCommands(Collection<String> machineIds, String commandType, String commandData,
+            String status, String responseData, long createdAt) {
+        Map<String, Long> ids = new HashMap<>();
+        List<String> all = new ArrayList<>(machineIds);
+        Timestamp timestamp = new Timestamp(createdAt);
+
+        for (int from = 0; from < all.size(); from += INSERT_CHUNK_SIZE) {
+            List<String> chunk = all.subList(from, Math.min(from + INSERT_CHUNK_SIZE, all.size()));
+            StringBuilder sql = new StringBuilder(INSERT_COMMANDS_SQL);
+            List<Object> args = new ArrayList<>(chunk.size() * 6);
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?)");
+                args.add(chunk.get(i));
+                args.add(commandType);
+                args.add(commandData);
+                args.add(status);
+                args.add(timestamp);
+                args.add(responseData);
+            }
+            jdbcTemplate.query(sql.toString(), rs -> {
+                ids.put(rs.getString(2), rs.getLong(1));
+            }, args.toArray());
+        }
+        return ids;
+    }
+
+    private static Map<String, Object> failure(String message) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", false);
+        result.put("message", message);
+        return result;
+    }
+
+    /**
+     * Trạng thái tổng hợp của một broadcast
+     */
+    private static final class Broadcast {
+        final String id;
+        final String commandType;
+        final long createdAt;
+        final int total;
+        // machineId -> SENT / COMPLETED / FAILED / TIMEOUT / OFFLINE / QUEUED / UNKNOWN
+        final Map<String, String> statuses = new ConcurrentHashMap<>();
+        // machineId -> id dòng commands QUEUED
+        final Map<String, Long> queuedCommandIds = new ConcurrentHashMap<>();
+
+        Broadcast(String id, String commandType, long createdAt, int total) {
+            this.id = id;
+            this.commandType = commandType;
+            this.createdAt = createdAt;
+            this.total = total;
+        }
+
+        void setStatus(String machineId, String status) {
+            statuses.put(machineId, status);
+        }
+
+        Map<String, Object> summary() {
+            Map<String, Integer> counts = new HashMap<>();
+            Map<String, String> snapshot = new HashMap<>(statuses);
+            snapshot.values().forEach(status -> counts.merge(status, 1, Integer::sum));
+
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("success", true);
+            summary.put("broadcastId", id);
+            summary.put("command", commandType);
+            summary.put("total", total);
+            summary.put("pending", counts.getOrDefault("SENT", 0));
+            summary.put("completed", counts.getOrDefault("COMPLETED", 0));
+            summary.put("failed", counts.getOrDefault("FAILED", 0));
+            summary.put("timeout", counts.getOrDefault("TIMEOUT", 0));
+            summary.put("offline", counts.getOrDefault("OFFLINE", 0));
+            summary.put("queued", counts.getOrDefault("QUEUED", 0));
+            summary.put("unknown", counts.getOrDefault("UNKNOWN", 0));
+            summary.put("results", snapshot);
+            return summary;
+        }
+    }
+}
@@ -3,31 +3,34 @@ package com.monitor.server.service;
 import com.google.gson.Gson;
 import com.monitor.server.model.Command;
 import com.monitor.server.repository.CommandRepository;
+import com.monitor.server.websocket.OutboundQueue;
+import com.monitor.server.websocket.OutboundSender;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service quản lý gửi lệnh đến client qua WebSocket
+ * Lệnh được xếp vào hàng đợi gửi của session (OutboundQueue), thread gọi không chờ client nhận
  */
 @Service
 public class CommandService {
 
     private static final Logger logger = LoggerFactory.getLogger(CommandService.class);
 
-    // Lưu trữ WebSocket sessions theo machineId
-    private final Map<String, WebSocketSession> clientSessions = new ConcurrentHashMap<>();
+    // Lưu trữ hàng đợi gửi của WebSocket session theo machineId
+    private final Map<String, OutboundQueue> clientSessions = new ConcurrentHashMap<>();
     // Lưu trữ mapping session -> machineId
     private final Map<WebSocketSession, String> sessionToMachineId = new ConcurrentHashMap<>();
 
@@ -37,27 +40,77 @@ public class CommandService {
     @Autowired
     private MachineService machineService;
 
+    @Autowired
+    private PendingCommandRegistry pendingCommands;
+
+    @Autowired
+    private OutboundSender outboundSender;
+
+    @Autowired
+    private OfflineCommandQueue offlineCommandQueue;
+
     private Gson gson = new Gson();
 
     /**
      * Đăng ký WebSocket session của client
      */
     public void registerClient(String machineId, WebSocketSession session) {
-        clientSessions.put(machineId, session);
+        OutboundQueue queue = outboundSender.open(machineId, session);
+        clientSessions.put(machineId, queue);
         sessionToMachineId.put(session, machineId);
         machineService.updateOnlineStatus(machineId, true);
         logger.info("Đã đăng ký client: {}", machineId);
+        deliverQueuedCommands(machineId, queue);
+    }
+
+    /**
+     * Gửi các lệnh đã xếp hàng trong lúc máy offline, gộp thành một frame BATCH (client thực thi theo thứ tự)
+     */
+    private void deliverQueuedCommands(String machineId, OutboundQueue queue) {
+        List<OfflineCommandQueue.QueuedCommand> commands = offlineCommandQueue.drain(machineId);
+        if (commands.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, Object>> items = new ArrayList<>(commands.size());
+        for (OfflineCommandQueue.QueuedCommand command : commands) {
+            items.add(buildPayload(machineId, command.commandType, command.id, command.createdAt,
+                    command.commandData, command.extraData));
+        }
+        Map<String, Object> batch = new HashMap<>();
+        batch.put("command", "BATCH");
+        batch.put("machineId", machineId);
+        batch.put("timestamp", System.currentTimeMillis());
+        batch.put("commands", items);
+
+        // Đánh dấu SENT trước khi gửi để không ghi đè kết quả client trả về sớm
+        offlineCommandQueue.markStatus(commands, "SENT", null);
+        if (queue.offer(gson.toJson(batch), OutboundQueue.Priority.HIGH, null,
+                reason -> offlineCommandQueue.markStatus(commands, "FAILED", "Lỗi gửi: " + reason))) {
+            // Giống lệnh gửi trực tiếp: thông báo được tính là đã hiển thị khi gửi đi
+            offlineCommandQueue.markNotificationsDisplayed(commands);
+            logger.info("Đã gửi {} lệnh chờ đến machine {} vừa kết nối lại", commands.size(), machineId);
+        }
+    }
+
+    /**
+     * Máy của WebSocket session client (null nếu session chưa đăng ký)
+     */
+    public String getMachineId(WebSocketSession session) {
+        return sessionToMachineId.get(session);
     }
 
     /**
      * Hủy đăng ký WebSocket session
      */
     public void unregisterClient(String machineId) {
-        WebSocketSession session = clientSessions.remove(machineId);
-        if (session != null) {
-            sessionToMachineId.remove(session);
+        OutboundQueue queue = clientSessions.remove(machineId);
+        if (queue != null) {
+            sessionToMachineId.remove(queue.getSession());
+            outboundSender.release(queue.getSession());
         }
         machineService.updateOnlineStatus(machineId, false);
+        pendingCommands.failAll(machineId, "Client đã ngắt kết nối");
         logger.info("Đã hủy đăng ký client: {}", machineId);
     }
 
@@ -66,10 +119,18 @@ public class CommandService {
      */
     public void unregisterClientBySession(WebSocketSession session) {
         String machineId = sessionToMachineId.remove(session);
+        outboundSender.release(session);
         if (machineId != null) {
-            clientSessions.remove(machineId);
-            machineService.updateOnlineStatus(machineId, false);
-            logger.info("Đã hủy đăng ký client theo session: {}", machineId);
+            // Client có thể đã kết nối lại bằng session mới: chỉ gỡ nếu vẫn là session cũ
+            // (trạng thái online và lệnh đang chờ kết quả thuộc về session mới, không được động tới)
+            OutboundQueue queue = clientSessions.get(machineId);
+            if (queue != null && queue.getSession() == session && clientSessions.remove(machineId, queue)) {
+                machineService.updateOnlineStatus(machineId, false);
+                pendingCommands.failAll(machineId, "Client đã ngắt kết nối");
+                logger.info("Đã hủy đăng ký client theo session: {}", machineId);
+            } else {
+                logger.debug("Đóng session cũ của client {}, client đã kết nối lại bằng session mới", machineId);
+            }
         }
     }
 
@@ -97,54 +158,132 @@ public class CommandService {
         return sendCommand(machineId, "SCREEN_CAPTURE", null, null);
     }
 
+    /**
+     * Gửi lệnh chụp màn hình kèm tham số nén (format, quality, maxWidth, region)
+     */
+    @Transactional
+    public boolean sendScreenCaptureCommand(String machineId, Map<String, Object> options) {
+        return sendCommand(machineId, "SCREEN_CAPTURE", options != null ? gson.toJson(options) : null, null);
+    }
+
     /**
      * Gửi lệnh đến client
+     * Máy offline: lệnh được xếp hàng nếu loại lệnh có TTL trong hàng đợi offline
+     * @return true nếu đã gửi hoặc đã xếp hàng chờ máy kết nối lại
      */
     @Transactional
     public boolean sendCommand(String machineId, String commandType, String commandData,
             Map<String, Object> extraData) {
-        WebSocketSession session = clientSessions.get(machineId);
-
-        if (session == null || !session.isOpen()) {
+        OutboundQueue queue = clientSessions.get(machineId);
+
+        if (queue == null || !queue.isOpen()) {
+            if (offlineCommandQueue.accepts(commandType)) {
+                // Giữ lệnh đến khi máy kết nối lại
+                // extraData được lưu cùng dòng QUEUED để còn nguyên sau khi server khởi động lại
+                Command command = createCommand(machineId, commandType, commandData, "QUEUED", null);
+                if (extraData != null) {
+                    command.setExtraData(gson.toJson(extraData));
+                    commandRepository.save(command);
+                }
+                offlineCommandQueue.enqueue(machineId, command.getId(), commandType, commandData, extraData,
+                        System.currentTimeMillis());
+                logger.info("Machine {} offline, đã xếp hàng lệnh {}", machineId, commandType);
+                return true;
+            }
             logger.warn("Không tìm thấy session hoặc session đã đóng cho machine: {}", machineId);
             // Tạo command với status FAILED
             createCommand(machineId, commandType, commandData, "FAILED", "Client không online");
             return false;
         }
 
-        try {
-            // Tạo command trong database
-            Command command = createCommand(machineId, commandType, commandData, "SENT", null);
+        // Tạo command trong database
+        Command command = createCommand(machineId, commandType, commandData, "SENT", null);
+        Long commandId = command.getId();
 
-            // Tạo payload lệnh
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("command", commandType);
-            payload.put("machineId", machineId);
-            payload.put("commandId", command.getId());
-            payload.put("timestamp", System.currentTimeMillis());
+        String jsonCommand = gson.toJson(buildPayload(machineId, commandType, commandId,
+                System.currentTimeMillis(), commandData, extraData));
+        boolean queued = queue.offer(jsonCommand, priorityOf(commandType), coalesceKeyOf(commandType),
+                reason -> markCommandFailed(commandId, reason));
+        if (!queued) {
+            logger.warn("Không thể xếp lệnh {} vào hàng đợi gửi của machine {}", commandType, machineId);
+            return false;
+        }
 
-            if (commandData != null) {
-                payload.put("data", commandData);
-            }
+        logger.info("Đã gửi lệnh {} đến machine: {}", commandType, machineId);
+        return true;
+    }
 
-            if (extraData != null) {
-                payload.putAll(extraData);
-            }
+    /**
+     * Tạo payload lệnh
+     */
+    private Map<String, Object> buildPayload(String machineId, String commandType, Long commandId, long timestamp,
+            String commandData, Map<String, Object> extraData) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("command", commandType);
+        payload.put("machineId", machineId);
+        payload.put("commandId", commandId);
+        payload.put("timestamp", timestamp);
+
+        if (commandData != null) {
+            payload.put("data", commandData);
+        }
 
-            String jsonCommand = gson.toJson(payload);
-            session.sendMessage(new TextMessage(jsonCommand));
+        if (extraData != null) {
+            payload.putAll(extraData);
+        }
+        return payload;
+    }
 
-            // Cập nhật trạng thái online
-            machineService.updateOnlineStatus(machineId, true);
+    /**
+     * Số lệnh đang chờ máy online, theo máy
+     */
+    public Map<String, Integer> getQueuedCommandCounts() {
+        return offlineCommandQueue.getQueuedCounts();
+    }
 
-            logger.info("Đã gửi lệnh {} đến machine: {}", commandType, machineId);
-            return true;
+    /**
+     * Gửi một message đã serialize sẵn đến client (không ghi database)
+     * @return false nếu client không online hoặc hàng đợi gửi đầy
+     */
+    public boolean sendRawMessage(String machineId, String json) {
+        OutboundQueue queue = clientSessions.get(machineId);
+        return queue != null && queue.offer(json, OutboundQueue.Priority.HIGH, null, null);
+    }
 
-        } catch (IOException e) {
-            logger.error("Lỗi khi gửi lệnh đến machine {}: {}", machineId, e.getMessage());
-            updateCommandStatus(machineId, commandType, "FAILED", "Lỗi gửi: " + e.getMessage());
-            return false;
+    /**
+     * Thông báo có thể bỏ khi client nhận chậm, lệnh điều khiển thì không
+     */
+    public static OutboundQueue.Priority priorityOf(String commandType) {
+        return "NOTIFICATION".equals(commandType) ? OutboundQueue.Priority.LOW : OutboundQueue.Priority.HIGH;
+    }
+
+    /**
+     * Lệnh chưa kịp gửi bị thay bằng lệnh mới hơn cùng loại
+     * (LOCK rồi UNLOCK chỉ cần gửi UNLOCK, nhiều lần chụp màn hình chỉ cần một)
+     */
+    public static String coalesceKeyOf(String commandType) {
+        if ("LOCK".equals(commandType) || "UNLOCK".equals(commandType)) {
+            return "LOCK_STATE";
         }
+        if ("SCREEN_CAPTURE".equals(commandType)) {
+            return "SCREEN_CAPTURE";
+        }
+        if ("STREAM_START".equals(commandType) || "STREAM_STOP".equals(commandType)) {
+            return "STREAM_STATE";
+        }
+        return null;
+    }
+
+    /**
+     * Đánh dấu command thất bại (bị bỏ khỏi hàng đợi hoặc gửi lỗi)
+     */
+    public void markCommandFailed(Long commandId, String reason) {
+        commandRepository.findById(commandId).ifPresent(command -> {
+            command.setStatus("FAILED");
+            command.setResponseData(reason);
+            command.setExecutedAt(LocalDateTime.now());
+            commandRepository.save(command);
+        });
     }
 
     /**
@@ -196,8 +335,22 @@ public class CommandService {
      * Kiểm tra client có đang online không
      */
     public boolean isClientOnline(String machineId) {
-        WebSocketSession session = clientSessions.get(machineId);
-        return session != null && session.isOpen();
+        OutboundQueue queue = clientSessions.get(machineId);
+        return queue != null && queue.isOpen();
+    }
+
+    /**
+     * Lấy hàng đợi gửi của client (null nếu chưa kết nối)
+     */
+    public OutboundQueue getClientQueue(String machineId) {
+        return clientSessions.get(machineId);
+    }
+
+    /**
+     * Độ sâu hàng đợi gửi của từng client
+     */
+    public Map<String, Map<String, Object>> getOutboundQueueStats() {
+        return outboundSender.getQueueStats();
     }
 
     /**
@@ -215,56 +368,47 @@ public class CommandService {
     }
 
     /**
-     * Gửi lệnh lấy danh sách processes và trả về kết quả
+     * Gửi lệnh lấy danh sách processes
+     * Không chờ response: trả về future được hoàn thành khi client gửi frame "result"
+     * @return null nếu client không online
      */
-    @Transactional
-    public Map<String, Object> sendGetProcessesCommand(String machineId) {
-        WebSocketSession session = clientSessions.get(machineId);
+    public CompletableFuture<Map<String, Object>> sendGetProcessesCommand(String machineId) {
+        OutboundQueue queue = clientSessions.get(machineId);
 
-        if (session == null || !session.isOpen()) {
+        if (queue == null || !queue.isOpen()) {
             logger.warn("Không tìm thấy session cho machine: {}", machineId);
             return null;
         }
 
-        try {
-            // Tạo command trong database
-            Command command = createCommand(machineId, "GET_PROCESSES", null, "SENT", null);
-
-            // Tạo payload lệnh
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("command", "GET_PROCESSES");
-            payload.put("machineId", machineId);
-            payload.put("commandId", command.getId());
-            payload.put("timestamp", System.currentTimeMillis());
-
-            String jsonCommand = gson.toJson(payload);
-            session.sendMessage(new TextMessage(jsonCommand));
-
+        // Tạo command trong database
+        Command command = createCommand(machineId, "GET_PROCESSES", null, "SENT", null);
+
+        // Đăng ký trước khi gửi để không lỡ response đến sớm
+        Long commandId = command.getId();
+        CompletableFuture<Map<String, Object>> future = pendingCommands.register(commandId, machineId);
+
+        // Tạo payload lệnh
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("command", "GET_PROCESSES");
+        payload.put("machineId", machineId);
+        payload.put("commandId", commandId);
+        payload.put("timestamp", System.currentTimeMillis());
+
+        String jsonCommand = gson.toJson(payload);
+        if (queue.offer(jsonCommand, OutboundQueue.Priority.HIGH, null, reason -> {
+            logger.warn("Lệnh GET_PROCESSES đến machine {} thất bại: {}", machineId, reason);
+            markCommandFailed(commandId, reason);
+            future.completeExceptionally(new IllegalStateException(reason));
+        })) {
             logger.info("Đã gửi lệnh GET_PROCESSES đến machine: {}", machineId);
-
-            // Đợi response (tối đa 5 giây)
-            for (int i = 0; i < 50; i++) {
-                Thread.sleep(100);
-                Command updatedCommand = commandRepository.findById(command.getId()).orElse(null);
-                if (updatedCommand != null && updatedCommand.getResponseData() != null) {
-                    // Parse response JSON
-                    Map<String, Object> response = gson.fromJson(updatedCommand.getResponseData(), Map.class);
-                    return response;
-                }
-            }
-
-            logger.warn("Timeout chờ response GET_PROCESSES từ machine: {}", machineId);
-            Map<String, Object> timeoutResponse = new HashMap<>();
-            timeoutResponse.put("success", false);
-            timeoutResponse.put("message", "Timeout chờ response");
-            return timeoutResponse;
-
-        } catch (Exception e) {
-            logger.error("Lỗi khi gửi lệnh GET_PROCESSES: {}", e.getMessage(), e);
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("message", "Lỗi: " + e.getMessage());
-            return errorResponse;
         }
+        return future;
+    }
+
+    /**
+     * Hoàn thành lệnh đang chờ khi nhận được kết quả từ client
+     */
+    public void completePendingCommand(Long commandId, Map<String, Object> result) {
+        pendingCommands.complete(commandId, result);
     }
 }
@@ -0,0 +1,116 @@
+package com.monitor.server.service;
+
+import com.monitor.server.heartbeat.HeartbeatSample;
+import com.monitor.server.model.Alert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Đẩy cập nhật real-time cho dashboard qua STOMP (/ws-stomp)
+ * - /topic/machines: máy online/offline, đăng ký mới, bị xóa
+ * - /topic/metrics: sample mới nhất của từng máy
+ * - /topic/alerts: cảnh báo mới
+ * - /topic/broadcasts/{broadcastId}: tiến độ lệnh broadcast
+ * Dashboard subscribe một lần, không cần polling
+ */
+@Service
+public class DashboardPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DashboardPublisher.class);
+
+    public static final String TOPIC_MACHINES = "/topic/machines";
+    public static final String TOPIC_METRICS = "/topic/metrics";
+    public static final String TOPIC_ALERTS = "/topic/alerts";
+    public static final String TOPIC_BROADCASTS = "/topic/broadcasts/";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    /**
+     * Máy chuyển trạng thái online/offline
+     */
+    public void publishMachineStatus(String machineId, boolean online, long lastSeen) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", online ? "ONLINE" : "OFFLINE");
+        event.put("machineId", machineId);
+        event.put("isOnline", online);
+        if (lastSeen > 0) {
+            event.put("lastResponseTime", toLocalDateTime(lastSeen).toString());
+        }
+        send(TOPIC_MACHINES, event);
+    }
+
+    /**
+     * Danh sách máy thay đổi (REGISTERED, DELETED)
+     */
+    public void publishMachineEvent(String machineId, String eventType) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", eventType);
+        event.put("machineId", machineId);
+        send(TOPIC_MACHINES, event);
+    }
+
+    /**
+     * Sample mới nhất của một máy (không kèm rawData)
+     */
+    public void publishMetric(HeartbeatSample sample) {
+        Map<String, Object> metric = new HashMap<>();
+        metric.put("machineId", sample.getMachineId());
+        metric.put("timestamp", toLocalDateTime(sample.getReceivedAt()).toString());
+        if (sample.has(HeartbeatSample.CPU_USAGE)) {
+            metric.put("cpuUsage", sample.getCpuUsage());
+        }
+        if (sample.has(HeartbeatSample.MEMORY_USAGE_PERCENT)) {
+            metric.put("memoryUsagePercent", sample.getMemoryUsagePercent());
+        }
+        double diskUsagePercent = sample.getDiskUsagePercent();
+        if (!Double.isNaN(diskUsagePercent)) {
+            metric.put("diskUsagePercent", diskUsagePercent);
+        }
+        send(TOPIC_METRICS, metric);
+    }
+
+    /**
+     * Cảnh báo mới được tạo
+     */
+    public void publishAlert(Alert alert) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", alert.getId());
+        event.put("machineId", alert.getMachineId());
+        event.put("alertType", alert.getAlertType());
+        event.put("message", alert.getMessage());
+        event.put("severity", alert.getSeverity());
+        if (alert.getTimestamp() != null) {
+            event.put("timestamp", alert.getTimestamp().toString());
+        }
+        send(TOPIC_ALERTS, event);
+    }
+
+    /**
+     * Kết quả tổng hợp của một lệnh broadcast (mỗi khi có client trả lời)
+     */
+    public void publishBroadcast(String broadcastId, Map<String, Object> summary) {
+        send(TOPIC_BROADCASTS + broadcastId, summary);
+    }
+
+    private void send(String destination, Object payload) {
+        try {
+            messagingTemplate.convertAndSend(destination, payload);
+        } catch (Exception e) {
+            logger.warn("Không thể đẩy cập nhật đến {}: {}", destination, e.getMessage());
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,191 @@
+package com.monitor.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Lưu ảnh màn hình trên đĩa cục bộ theo SHA-256 của nội dung
+ * - Đường dẫn: {root}/ab/cd/abcd...(64 ký tự hex)
+ * - Ghi vào file tạm trong lúc tính hash, sau đó move nguyên tử vào vị trí cuối
+ * - Nội dung đã tồn tại thì bỏ file tạm (ảnh trùng chỉ lưu một lần)
+ * - Rendition: {root}/renditions/{tên}/ab/abcd....jpg
+ */
+@Service
+@ConditionalOnProperty(name = "monitor.screen.store", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemScreenshotStore implements ScreenshotStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemScreenshotStore.class);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Thư mục gốc của kho ảnh
+    @Value("${monitor.screen.store.path:./data/screenshots}")
+    private String rootPath;
+
+    private Path root;
+    private Path tmpDir;
+    private Path renditionDir;
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(rootPath).toAbsolutePath().normalize();
+        // File tạm nằm cùng ổ đĩa với kho để move được nguyên tử
+        tmpDir = root.resolve("tmp");
+        renditionDir = root.resolve("renditions");
+        Files.createDirectories(tmpDir);
+        Files.createDirectories(renditionDir);
+        logger.info("Kho ảnh màn hình: {}", root);
+    }
+
+    @Override
+    public StoredBlob store(InputStream content) throws IOException {
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".tmp");
+        try {
+            DigestInputStream digestStream = new DigestInputStream(content, newDigest());
+            long size = Files.copy(digestStream, tmp, StandardCopyOption.REPLACE_EXISTING);
+            String hash = toHex(digestStream.getMessageDigest().digest());
+
+            Path target = pathOf(hash);
+            if (Files.exists(target)) {
+                // Làm mới thời gian sửa để lượt dọn blob mồ côi không xóa nhầm
+                Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+                return new StoredBlob(hash, size, true);
+            }
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Một request khác vừa lưu cùng nội dung
+                return new StoredBlob(hash, size, true);
+            }
+            return new StoredBlob(hash, size, false);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public Path locate(String contentHash) {
+        if (!isValidHash(contentHash)) {
+            return null;
+        }
+        Path path = pathOf(contentHash);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    @Override
+    public void storeRendition(String contentHash, String rendition, byte[] content) throws IOException {
+        Path target = renditionPathOf(contentHash, rendition);
+        Path tmp = Files.createTempFile(tmpDir, "rendition-", ".tmp");
+        try {
+            Files.write(tmp, content);
+            Files.createDirectories(target.getParent());
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public Path locateRendition(String contentHash, String rendition) {
+        if (!isValidHash(contentHash) || !isValidName(rendition)) {
+            return null;
+        }
+        Path path = renditionPathOf(contentHash, rendition);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    @Override
+    public int deleteUnreferenced(Set<String> referencedHashes, long minAgeMillis) throws IOException {
+        long cutoff = System.currentTimeMillis() - minAgeMillis;
+        List<Path> candidates;
+        try (Stream<Path> files = Files.walk(root)) {
+            candidates = files
+                    .filter(path -> !path.startsWith(tmpDir) && !path.startsWith(renditionDir))
+                    .filter(Files::isRegularFile)
+                    .filter(path -> isValidHash(path.getFileName().toString()))
+                    .filter(path -> !referencedHashes.contains(path.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+
+        int deleted = 0;
+        for (Path path : candidates) {
+            // Bỏ qua blob mới ghi: dòng screen_data có thể chưa kịp insert
+            if (Files.getLastModifiedTime(path).toMillis() < cutoff && Files.deleteIfExists(path)) {
+                deleted++;
+                deleteRenditions(path.getFileName().toString());
+            }
+        }
+        return deleted;
+    }
+
+    private void deleteRenditions(String hash) throws IOException {
+        try (Stream<Path> renditions = Files.list(renditionDir)) {
+            for (Path dir : renditions.collect(Collectors.toList())) {
+                Files.deleteIfExists(dir.resolve(hash.substring(0, 2)).resolve(hash + ".jpg"));
+            }
+        }
+    }
+
+    private Path pathOf(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private Path renditionPathOf(String hash, String rendition) {
+        return renditionDir.resolve(rendition).resolve(hash.substring(0, 2)).resolve(hash + ".jpg");
+    }
+
+    private static boolean isValidName(String name) {
+        return name != null && name.matches("[a-z]{1,16}");
+    }
+
+    private static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
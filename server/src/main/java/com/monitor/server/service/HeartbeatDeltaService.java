@@ -0,0 +1,86 @@
+package com.monitor.server.service;
+
+import com.monitor.server.heartbeat.HeartbeatDeltaMerger;
+import com.monitor.server.heartbeat.HeartbeatSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ghép heartbeat dạng delta thành sample đầy đủ
+ * - Keyframe ("encoding": "full", có "seq"): giữ sample đã giải mã làm trạng thái của máy, không parse lại
+ * - Delta ("encoding": "delta"): nếu seq nối tiếp, trường số lấy từ trạng thái rồi ghi đè bằng trường trong delta,
+ *   metrics được ghép trực tiếp trên byte (HeartbeatDeltaMerger) - không dựng cây JSON, không giải mã lại
+ * - Thiếu trạng thái hoặc đứt seq: bỏ sample, người gọi yêu cầu client gửi keyframe
+ * Heartbeat không có "seq" (client cũ, bản ghi gửi lại từ spool) được giữ nguyên.
+ */
+@Service
+public class HeartbeatDeltaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatDeltaService.class);
+
+    private final Map<String, MachineState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Trả về sample đầy đủ tương ứng với heartbeat nhận được
+     * @return null nếu là delta không ghép được (cần keyframe từ client)
+     */
+    public HeartbeatSample resolve(HeartbeatSample sample) {
+        String machineId = sample.getMachineId();
+        if (machineId == null || !sample.hasMetrics()) {
+            return sample;
+        }
+
+        if (!sample.isDelta()) {
+            if (sample.getSeq() > 0) {
+                states.put(machineId, new MachineState(sample, sample.getSeq()));
+            }
+            return sample;
+        }
+
+        MachineState state = states.get(machineId);
+        if (state == null) {
+            logger.debug("Chưa có keyframe heartbeat của machine {}, yêu cầu keyframe", machineId);
+            return null;
+        }
+        synchronized (state) {
+            if (sample.getSeq() != state.seq + 1) {
+                logger.debug("Heartbeat delta của machine {} đứt seq ({} -> {}), yêu cầu keyframe",
+                        machineId, state.seq, sample.getSeq());
+                states.remove(machineId, state);
+                return null;
+            }
+            HeartbeatSample full;
+            try {
+                full = HeartbeatDeltaMerger.apply(state.sample, sample);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Heartbeat delta không hợp lệ từ machine {}: {}", machineId, e.getMessage());
+                states.remove(machineId, state);
+                return null;
+            }
+            state.sample = full;
+            state.seq = sample.getSeq();
+            return full;
+        }
+    }
+
+    /**
+     * Xóa trạng thái của máy (khi máy bị xóa khỏi hệ thống)
+     */
+    public void remove(String machineId) {
+        states.remove(machineId);
+    }
+
+    private static final class MachineState {
+        HeartbeatSample sample;
+        long seq;
+
+        MachineState(HeartbeatSample sample, long seq) {
+            this.sample = sample;
+            this.seq = seq;
+        }
+    }
+}
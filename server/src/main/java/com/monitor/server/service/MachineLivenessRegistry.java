@@ -0,0 +1,281 @@
+package com.monitor.server.service;
+
+import com.monitor.server.model.Machine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bảng trạng thái online/offline của các máy trong bộ nhớ (write-behind)
+ * - Heartbeat, message WebSocket, kết quả lệnh... chỉ ghi lastSeen/online vào bộ nhớ
+ * - Flusher định kỳ ghi các dòng đã thay đổi xuống bảng machines bằng một batch UPDATE
+ * - Dashboard đọc trạng thái online từ đây thay vì từ database
+ * - Máy không phản hồi quá timeout được OfflineDetector (timing wheel) đánh dấu offline và cảnh báo
+ * - Ghi nhận interval heartbeat mà client báo để ước lượng tải nhận heartbeat
+ */
+@Service
+public class MachineLivenessRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(MachineLivenessRegistry.class);
+
+    private static final String SELECT_MACHINES_SQL = "SELECT machine_id, is_online, last_response_time FROM machines";
+
+    private static final String UPDATE_MACHINE_SQL = "UPDATE machines SET is_online = ?, last_response_time = ? WHERE machine_id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private AlertService alertService;
+
+    @Autowired
+    private DashboardPublisher dashboardPublisher;
+
+    // Thời gian không nhận heartbeat để coi là offline (giây)
+    @Value("${monitor.alert.offline.timeout:15}")
+    private int offlineTimeoutSeconds;
+
+    // Độ phân giải phát hiện offline (ms)
+    @Value("${monitor.offline.tick-ms:100}")
+    private long offlineTickMillis;
+
+    // Số slot của timing wheel
+    @Value("${monitor.offline.wheel-size:1024}")
+    private int offlineWheelSize;
+
+    private final Map<String, Liveness> machines = new ConcurrentHashMap<>();
+
+    private OfflineDetector offlineDetector;
+
+    /**
+     * Nạp trạng thái hiện có trong database khi khởi động
+     * Máy đang online được theo dõi tiếp, sẽ offline nếu không gửi heartbeat trong timeout
+     */
+    @PostConstruct
+    public void load() {
+        offlineDetector = new OfflineDetector(TimeUnit.SECONDS.toMillis(offlineTimeoutSeconds),
+                offlineTickMillis, offlineWheelSize, this::handleExpired);
+        offlineDetector.start();
+
+        try {
+            jdbcTemplate.query(SELECT_MACHINES_SQL, rs -> {
+                Liveness liveness = new Liveness();
+                liveness.online = rs.getBoolean("is_online");
+                Timestamp lastResponseTime = rs.getTimestamp("last_response_time");
+                liveness.lastSeen = lastResponseTime != null ? lastResponseTime.getTime() : 0;
+                machines.put(rs.getString("machine_id"), liveness);
+            });
+            machines.forEach((machineId, liveness) -> {
+                if (liveness.online && liveness.lastSeen > 0) {
+                    offlineDetector.touch(machineId, liveness.lastSeen);
+                }
+            });
+            logger.info("Đã nạp trạng thái online của {} máy", machines.size());
+        } catch (Exception e) {
+            logger.error("Lỗi khi nạp trạng thái máy từ database: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        offlineDetector.stop();
+        flush();
+    }
+
+    /**
+     * Ghi nhận máy vừa phản hồi tại thời điểm timestamp (ms)
+     */
+    public void markSeen(String machineId, long timestamp) {
+        markSeen(machineId, timestamp, 0);
+    }
+
+    /**
+     * Ghi nhận heartbeat kèm interval client đang dùng
+     * @param intervalMillis Interval heartbeat hiện tại của client, <= 0 nếu không rõ (giữ giá trị cũ)
+     */
+    public void markSeen(String machineId, long timestamp, long intervalMillis) {
+        if (machineId == null) {
+            return;
+        }
+        Liveness liveness = machines.computeIfAbsent(machineId, id -> new Liveness());
+        if (intervalMillis > 0) {
+            liveness.heartbeatInterval = intervalMillis;
+        }
+        if (timestamp > liveness.lastSeen) {
+            liveness.lastSeen = timestamp;
+        }
+        boolean wasOnline = liveness.online;
+        liveness.online = true;
+        liveness.dirty.set(true);
+        offlineDetector.touch(machineId, liveness.lastSeen);
+        if (!wasOnline) {
+            dashboardPublisher.publishMachineStatus(machineId, true, liveness.lastSeen);
+        }
+    }
+
+    /**
+     * Đánh dấu máy offline (giữ nguyên thời điểm phản hồi cuối)
+     */
+    public void markOffline(String machineId) {
+        if (machineId == null) {
+            return;
+        }
+        Liveness liveness = machines.computeIfAbsent(machineId, id -> new Liveness());
+        boolean wasOnline = liveness.online;
+        liveness.online = false;
+        liveness.dirty.set(true);
+        offlineDetector.cancel(machineId);
+        if (wasOnline) {
+            dashboardPublisher.publishMachineStatus(machineId, false, liveness.lastSeen);
+        }
+    }
+
+    /**
+     * Xóa máy khỏi bảng (khi máy bị xóa khỏi hệ thống)
+     */
+    public void remove(String machineId) {
+        machines.remove(machineId);
+        offlineDetector.cancel(machineId);
+    }
+
+    public boolean isOnline(String machineId) {
+        Liveness liveness = machines.get(machineId);
+        return liveness != null && liveness.online;
+    }
+
+    /**
+     * Thời điểm phản hồi cuối (ms), 0 nếu chưa biết
+     */
+    public long getLastSeen(String machineId) {
+        Liveness liveness = machines.get(machineId);
+        return liveness != null ? liveness.lastSeen : 0;
+    }
+
+    /**
+     * Thống kê interval heartbeat của các máy online
+     * - expectedHeartbeatsPerSecond: tổng tần suất heartbeat dự kiến theo interval client báo
+     * - intervals: số máy theo từng interval (ms)
+     */
+    public Map<String, Object> getHeartbeatStats() {
+        int online = 0;
+        int reporting = 0;
+        double perSecond = 0;
+        Map<Long, Integer> intervals = new TreeMap<>();
+        for (Liveness liveness : machines.values()) {
+            if (!liveness.online) {
+                continue;
+            }
+            online++;
+            long interval = liveness.heartbeatInterval;
+            if (interval > 0) {
+                reporting++;
+                perSecond += 1000.0 / interval;
+                intervals.merge(interval, 1, Integer::sum);
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("onlineMachines", online);
+        stats.put("reportingMachines", reporting);
+        stats.put("expectedHeartbeatsPerSecond", Math.round(perSecond * 100.0) / 100.0);
+        stats.put("intervals", intervals);
+        return stats;
+    }
+
+    /**
+     * Ghi đè trạng thái online và lastResponseTime của entity bằng giá trị trong bộ nhớ
+     */
+    public Machine applyTo(Machine machine) {
+        Liveness liveness = machines.get(machine.getMachineId());
+        if (liveness != null) {
+            machine.setIsOnline(liveness.online);
+            if (liveness.lastSeen > 0) {
+                machine.setLastResponseTime(toLocalDateTime(liveness.lastSeen));
+            }
+        }
+        return machine;
+    }
+
+    /**
+     * Ghi các máy có thay đổi xuống database trong một batch
+     */
+    @Scheduled(fixedDelayString = "${monitor.liveness.flush-interval-ms:3000}")
+    public void flush() {
+        List<Object[]> args = new ArrayList<>();
+        List<Liveness> flushed = new ArrayList<>();
+        for (Map.Entry<String, Liveness> entry : machines.entrySet()) {
+            Liveness liveness = entry.getValue();
+            // Xóa cờ trước khi đọc: cập nhật xen vào sẽ bật lại cờ và được ghi ở lần sau
+            if (liveness.dirty.compareAndSet(true, false)) {
+                long lastSeen = liveness.lastSeen;
+                args.add(new Object[] {
+                        liveness.online,
+                        lastSeen > 0 ? new Timestamp(lastSeen) : null,
+                        entry.getKey() });
+                flushed.add(liveness);
+            }
+        }
+        if (args.isEmpty()) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_MACHINE_SQL, args);
+            logger.debug("Đã ghi trạng thái online của {} máy", args.size());
+        } catch (Exception e) {
+            // Giữ lại để ghi ở lần flush sau
+            flushed.forEach(liveness -> liveness.dirty.set(true));
+            logger.error("Lỗi khi ghi trạng thái online của {} máy: {}", args.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Gọi từ OfflineDetector khi máy hết hạn heartbeat
+     */
+    private void handleExpired(String machineId) {
+        Liveness liveness = machines.get(machineId);
+        if (liveness == null || !liveness.online) {
+            return;
+        }
+        long secondsSinceLastHeartbeat = (System.currentTimeMillis() - liveness.lastSeen) / 1000;
+        if (secondsSinceLastHeartbeat < offlineTimeoutSeconds) {
+            return;
+        }
+
+        // Máy đã offline
+        liveness.online = false;
+        liveness.dirty.set(true);
+        logger.info("Machine {} offline (không phản hồi trong {} giây)", machineId, secondsSinceLastHeartbeat);
+        dashboardPublisher.publishMachineStatus(machineId, false, liveness.lastSeen);
+        alertService.handleMachineOffline(machineId, secondsSinceLastHeartbeat);
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private static final class Liveness {
+        volatile long lastSeen;
+        volatile boolean online;
+        volatile long heartbeatInterval;
+        final AtomicBoolean dirty = new AtomicBoolean();
+    }
+}
@@ -12,7 +12,9 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * Service quản lý máy tính client
@@ -35,6 +37,27 @@ public class MachineService {
     @Autowired
     private NotificationRepository notificationRepository;
 
+    @Autowired
+    private MachineLivenessRegistry livenessRegistry;
+
+    @Autowired
+    private RecentMetricStore recentMetricStore;
+
+    @Autowired
+    private AnalysisService analysisService;
+
+    @Autowired
+    private HeartbeatDeltaService heartbeatDeltaService;
+
+    @Autowired
+    private DashboardPublisher dashboardPublisher;
+
+    @Autowired
+    private OfflineCommandQueue offlineCommandQueue;
+
+    @Autowired
+    private MetricIngestionService metricIngestionService;
+
     /**
      * Đăng ký máy tính mới hoặc cập nhật thông tin
      */
@@ -62,36 +85,47 @@ public class MachineService {
             machine.setLastResponseTime(LocalDateTime.now());
         }
 
-        return machineRepository.save(machine);
+        machine = machineRepository.save(machine);
+        livenessRegistry.markSeen(machineId, System.currentTimeMillis());
+        if (!existing.isPresent()) {
+            dashboardPublisher.publishMachineEvent(machineId, "REGISTERED");
+        }
+        return machine;
     }
 
     /**
      * Cập nhật trạng thái online/offline dựa trên phản hồi
+     * Chỉ ghi vào bảng liveness trong bộ nhớ, database được cập nhật theo batch
      */
-    @Transactional
     public void updateOnlineStatus(String machineId, boolean isOnline) {
-        machineRepository.updateOnlineStatus(machineId, isOnline, LocalDateTime.now());
+        if (isOnline) {
+            livenessRegistry.markSeen(machineId, System.currentTimeMillis());
+        } else {
+            livenessRegistry.markOffline(machineId);
+        }
     }
 
     /**
-     * Lấy tất cả máy tính
+     * Lấy tất cả máy tính (trạng thái online lấy từ bảng liveness)
      */
     public List<Machine> getAllMachines() {
-        return machineRepository.findAllOrderByRegisteredAtDesc();
+        List<Machine> machines = machineRepository.findAllOrderByRegisteredAtDesc();
+        machines.forEach(livenessRegistry::applyTo);
+        return machines;
     }
 
     /**
      * Lấy máy tính theo ID
      */
     public Optional<Machine> getMachineById(String machineId) {
-        return machineRepository.findByMachineId(machineId);
+        return machineRepository.findByMachineId(machineId).map(livenessRegistry::applyTo);
     }
 
     /**
      * Lấy danh sách máy online
      */
     public List<Machine> getOnlineMachines() {
-        return machineRepository.findByIsOnline(true);
+        return getMachinesByOnline(true);
     }
 
     /**
@@ -108,12 +142,34 @@ public class MachineService {
 
         // Xóa machine
         machineRepository.deleteById(machineId);
+        livenessRegistry.remove(machineId);
+        recentMetricStore.remove(machineId);
+        analysisService.remove(machineId);
+        heartbeatDeltaService.remove(machineId);
+        offlineCommandQueue.remove(machineId);
+        dashboardPublisher.publishMachineEvent(machineId, "DELETED");
     }
 
     /**
      * Lấy danh sách máy offline
      */
     public List<Machine> getOfflineMachines() {
-        return machineRepository.findByIsOnline(false);
+        return getMachinesByOnline(false);
+    }
+
+    private List<Machine> getMachinesByOnline(boolean online) {
+        return getAllMachines().stream()
+                .filter(machine -> machine.isOnline() == online)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Thống kê interval heartbeat của các máy online (ước lượng tải nhận heartbeat)
+     * kèm thống kê pipeline ghi metrics (ingest)
+     */
+    public Map<String, Object> getHeartbeatStats() {
+        Map<String, Object> stats = livenessRegistry.getHeartbeatStats();
+        stats.put("ingest", metricIngestionService.getStats());
+        return stats;
     }
 }
@@ -0,0 +1,276 @@
+package com.monitor.server.service;
+
+import com.monitor.server.heartbeat.HeartbeatSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipeline ghi metrics bất đồng bộ
+ * - Controller chỉ đưa sample vào hàng đợi có giới hạn rồi trả lời ngay
+ * - Một thread writer gom sample thành batch và ghi bằng JDBC batch insert
+ * - Batch được flush khi đủ kích thước hoặc hết thời gian flush interval
+ * - Batch lỗi được thử lại với thời gian chờ tăng dần; vẫn lỗi thì ghi từng dòng,
+ *   chỉ dòng không ghi được mới bị bỏ (được đếm trong droppedSamples)
+ */
+@Service
+public class MetricIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricIngestionService.class);
+
+    private static final String INSERT_METRIC_SQL = "INSERT INTO metrics (machine_id, timestamp, cpu_usage, core_count, "
+            + "memory_total, memory_used, memory_usage_percent, disk_total, disk_used, disk_usage_percent, "
+            + "network_bytes_recv, network_bytes_sent, raw_data) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Số sample tối đa chờ ghi trong bộ nhớ
+    @Value("${monitor.ingest.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // Số dòng tối đa trong một batch insert
+    @Value("${monitor.ingest.batch-size:500}")
+    private int batchSize;
+
+    // Sample gửi lại từ spool chỉ được nhận khi hàng đợi còn ít hơn ngưỡng này (chừa chỗ cho heartbeat trực tiếp)
+    @Value("${monitor.ingest.replay-max-pending:5000}")
+    private int replayMaxPending;
+
+    // Thời gian tối đa một sample nằm chờ trước khi được ghi (ms)
+    @Value("${monitor.ingest.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    // Số lần thử lại một batch lỗi trước khi chuyển sang ghi từng dòng
+    @Value("${monitor.ingest.flush-retries:3}")
+    private int flushRetries;
+
+    // Thời gian chờ trước lần thử lại đầu tiên (ms), gấp đôi sau mỗi lần, tối đa MAX_RETRY_BACKOFF_MS
+    @Value("${monitor.ingest.retry-backoff-ms:500}")
+    private long retryBackoffMs;
+
+    private static final long MAX_RETRY_BACKOFF_MS = 10000;
+
+    private final AtomicLong writtenSamples = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    private BlockingQueue<HeartbeatSample> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        writerThread = new Thread(this::runWriter, "metric-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        logger.info("Đã khởi động metric writer (queue: {}, batch: {}, flush: {}ms)",
+                queueCapacity, batchSize, flushIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Đã dừng metric writer, còn {} sample chưa ghi", queue.size());
+    }
+
+    /**
+     * Đưa một sample vào hàng đợi ghi
+     * @param sample Sample đã giải mã
+     * @return false nếu hàng đợi đầy (server quá tải)
+     */
+    public boolean submit(HeartbeatSample sample) {
+        if (sample.getReceivedAt() == 0) {
+            sample.setReceivedAt(System.currentTimeMillis());
+        }
+        boolean accepted = queue.offer(sample);
+        if (!accepted) {
+            logger.warn("Hàng đợi metrics đầy, bỏ qua sample của machine: {}", sample.getMachineId());
+        }
+        return accepted;
+    }
+
+    /**
+     * Đưa một sample gửi lại từ spool vào hàng đợi ghi
+     * @return false nếu hàng đợi đã vượt ngưỡng dành cho sample gửi lại
+     */
+    public boolean submitReplay(HeartbeatSample sample) {
+        if (queue.size() >= replayMaxPending) {
+            return false;
+        }
+        return queue.offer(sample);
+    }
+
+    /**
+     * Số sample đang chờ ghi
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Thống kê pipeline ghi: số sample đang chờ, đã ghi và bị bỏ do lỗi database
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pendingSamples", queue.size());
+        stats.put("writtenSamples", writtenSamples.get());
+        stats.put("droppedSamples", droppedSamples.get());
+        return stats;
+    }
+
+    /**
+     * Vòng lặp của writer: gom batch theo kích thước hoặc thời gian rồi ghi
+     */
+    private void runWriter() {
+        List<HeartbeatSample> batch = new ArrayList<>(batchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    HeartbeatSample sample = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (sample == null) {
+                        break;
+                    }
+                    batch.add(sample);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // Khi shutdown: gom nốt những gì còn lại trong hàng đợi
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Ghi một batch metrics
+     * (trạng thái online do MachineLivenessRegistry ghi riêng)
+     * Sample đã được trả lời 200 cho client (client đã xóa khỏi spool) nên không bỏ cả batch khi gặp lỗi:
+     * thử lại batch vài lần, sau đó ghi từng dòng để một dòng lỗi không kéo theo các dòng khác
+     */
+    private void flush(List<HeartbeatSample> batch) {
+        long backoff = retryBackoffMs;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                jdbcTemplate.batchUpdate(INSERT_METRIC_SQL, batch, batch.size(), this::bindSample);
+                writtenSamples.addAndGet(batch.size());
+                logger.debug("Đã ghi batch {} metrics", batch.size());
+                return;
+            } catch (Exception e) {
+                if (attempt >= flushRetries || !sleep(backoff)) {
+                    logger.error("Lỗi khi ghi batch {} metrics sau {} lần thử, chuyển sang ghi từng dòng: {}",
+                            batch.size(), attempt + 1, e.getMessage(), e);
+                    break;
+                }
+                logger.warn("Lỗi khi ghi batch {} metrics, thử lại sau {}ms: {}", batch.size(), backoff, e.getMessage());
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MS);
+            }
+        }
+
+        int failed = 0;
+        for (HeartbeatSample sample : batch) {
+            try {
+                jdbcTemplate.update(INSERT_METRIC_SQL, ps -> bindSample(ps, sample));
+                writtenSamples.incrementAndGet();
+            } catch (Exception e) {
+                failed++;
+                logger.debug("Không ghi được metric của machine {}: {}", sample.getMachineId(), e.getMessage());
+            }
+        }
+        if (failed > 0) {
+            long total = droppedSamples.addAndGet(failed);
+            logger.error("Bỏ {} / {} metrics không ghi được (tổng đã bỏ: {})", failed, batch.size(), total);
+        }
+    }
+
+    /**
+     * Chờ trước lần thử lại
+     * @return false nếu bị ngắt (đang shutdown)
+     */
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private void bindSample(PreparedStatement ps, HeartbeatSample sample) throws SQLException {
+        ps.setString(1, sample.getMachineId());
+        ps.setTimestamp(2, new Timestamp(sample.getReceivedAt()));
+        setDouble(ps, 3, sample, HeartbeatSample.CPU_USAGE, sample.getCpuUsage());
+        if (sample.has(HeartbeatSample.CORE_COUNT)) {
+            ps.setInt(4, sample.getCoreCount());
+        } else {
+            ps.setNull(4, Types.INTEGER);
+        }
+        setLong(ps, 5, sample, HeartbeatSample.MEMORY_TOTAL, sample.getMemoryTotal());
+        setLong(ps, 6, sample, HeartbeatSample.MEMORY_USED, sample.getMemoryUsed());
+        setDouble(ps, 7, sample, HeartbeatSample.MEMORY_USAGE_PERCENT, sample.getMemoryUsagePercent());
+        setLong(ps, 8, sample, HeartbeatSample.DISK_TOTAL, sample.getDiskTotal());
+        setLong(ps, 9, sample, HeartbeatSample.DISK_USED, sample.getDiskUsed());
+        double diskUsagePercent = sample.getDiskUsagePercent();
+        if (!Double.isNaN(diskUsagePercent)) {
+            ps.setDouble(10, diskUsagePercent);
+        } else {
+            ps.setNull(10, Types.DOUBLE);
+        }
+        setLong(ps, 11, sample, HeartbeatSample.NETWORK_BYTES_RECV, sample.getNetworkBytesRecv());
+        setLong(ps, 12, sample, HeartbeatSample.NETWORK_BYTES_SENT, sample.getNetworkBytesSent());
+        ps.setString(13, sample.getRawJson());
+    }
+
+    private static void setDouble(PreparedStatement ps, int index, HeartbeatSample sample, int field, double value)
+            throws SQLException {
+        if (sample.has(field) && !Double.isNaN(value)) {
+            ps.setDouble(index, value);
+        } else {
+            ps.setNull(index, Types.DOUBLE);
+        }
+    }
+
+    private static void setLong(PreparedStatement ps, int index, HeartbeatSample sample, int field, long value)
+            throws SQLException {
+        if (sample.has(field)) {
+            ps.setLong(index, value);
+        } else {
+            ps.setNull(index, Types.BIGINT);
+        }
+    }
+}
@@ -1,25 +1,22 @@
 package com.monitor.server.service;
 
-import com.google.gson.Gson;
-import com.monitor.server.model.Machine;
+import com.monitor.server.heartbeat.HeartbeatSample;
 import com.monitor.server.model.Metric;
-import com.monitor.server.repository.MachineRepository;
 import com.monitor.server.repository.MetricRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 /**
  * Service xử lý metrics từ client
- * - Lưu metrics vào database
- * - Lấy metrics theo machineId
- * - Chuyển đổi dữ liệu JSON thành Metric entity
+ * - Đưa metrics vào pipeline ghi bất đồng bộ (MetricIngestionService)
+ * - Lấy metrics theo machineId (dữ liệu gần đây lấy từ RecentMetricStore)
  */
 @Service
 public class MetricService {
@@ -30,135 +27,98 @@ public class MetricService {
     private MetricRepository metricRepository;
     
     @Autowired
-    private MachineRepository machineRepository;
+    private MetricIngestionService metricIngestionService;
     
-    private Gson gson = new Gson();
+    @Autowired
+    private MachineLivenessRegistry livenessRegistry;
+    
+    @Autowired
+    private RecentMetricStore recentMetricStore;
+    
+    @Autowired
+    private AnalysisService analysisService;
+    
+    @Autowired
+    private DashboardPublisher dashboardPublisher;
     
     /**
-     * Lưu metrics từ heartbeat
-     * @param machineId ID của máy tính
-     * @param metricsData Dữ liệu metrics dạng Map
-     * @return Metric đã lưu
+     * Nhận một heartbeat đã giải mã và đưa vào pipeline ghi bất đồng bộ
+     * @param sample Heartbeat đã giải mã bởi HeartbeatDecoder
+     * @return false nếu pipeline đang quá tải và sample bị từ chối
      */
-    public Metric saveMetrics(String machineId, Map<String, Object> metricsData) {
-        try {
-            Metric metric = new Metric();
-            metric.setMachineId(machineId);
-            metric.setTimestamp(LocalDateTime.now());
-            
-            // Parse CPU metrics
-            if (metricsData.containsKey("cpu")) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> cpuData = (Map<String, Object>) metricsData.get("cpu");
-                if (cpuData.containsKey("totalUsage")) {
-                    metric.setCpuUsage(((Number) cpuData.get("totalUsage")).doubleValue());
-                }
-                if (cpuData.containsKey("coreCount")) {
-                    metric.setCoreCount(((Number) cpuData.get("coreCount")).intValue());
-                }
-            }
-            
-            // Parse Memory metrics
-            if (metricsData.containsKey("memory")) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> memoryData = (Map<String, Object>) metricsData.get("memory");
-                if (memoryData.containsKey("total")) {
-                    metric.setMemoryTotal(((Number) memoryData.get("total")).longValue());
-                }
-                if (memoryData.containsKey("used")) {
-                    metric.setMemoryUsed(((Number) memoryData.get("used")).longValue());
-                }
-                if (memoryData.containsKey("usagePercent")) {
-                    metric.setMemoryUsagePercent(((Number) memoryData.get("usagePercent")).doubleValue());
-                }
-            }
-            
-            // Parse Disk metrics
-            if (metricsData.containsKey("disk")) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> diskData = (Map<String, Object>) metricsData.get("disk");
-                if (diskData.containsKey("total")) {
-                    metric.setDiskTotal(((Number) diskData.get("total")).longValue());
-                }
-                if (diskData.containsKey("used")) {
-                    metric.setDiskUsed(((Number) diskData.get("used")).longValue());
-                }
-                if (diskData.containsKey("total") && diskData.containsKey("used")) {
-                    long total = ((Number) diskData.get("total")).longValue();
-                    long used = ((Number) diskData.get("used")).longValue();
-                    if (total > 0) {
-                        metric.setDiskUsagePercent((double) used / total * 100);
-                    }
-                }
-            }
-            
-            // Parse Network metrics
-            if (metricsData.containsKey("network")) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> networkData = (Map<String, Object>) metricsData.get("network");
-                if (networkData.containsKey("totalBytesRecv")) {
-                    metric.setNetworkBytesRecv(((Number) networkData.get("totalBytesRecv")).longValue());
-                }
-                if (networkData.containsKey("totalBytesSent")) {
-                    metric.setNetworkBytesSent(((Number) networkData.get("totalBytesSent")).longValue());
-                }
-            }
-            
-            // Lưu raw data dạng JSON
-            metric.setRawData(gson.toJson(metricsData));
-            
-            // Lưu vào database
-            Metric savedMetric = metricRepository.save(metric);
-            
-            // Cập nhật thông tin machine
-            updateMachineInfo(machineId, metricsData);
-            
-            logger.debug("Đã lưu metrics cho machine: {}", machineId);
-            return savedMetric;
-            
-        } catch (Exception e) {
-            logger.error("Lỗi khi lưu metrics: {}", e.getMessage(), e);
-            return null;
+    public boolean ingestSample(HeartbeatSample sample) {
+        if (!metricIngestionService.submit(sample)) {
+            return false;
         }
+        livenessRegistry.markSeen(sample.getMachineId(), sample.getReceivedAt(), sample.getHeartbeatInterval());
+        recentMetricStore.add(sample);
+        analysisService.analyzeSample(sample);
+        dashboardPublisher.publishMetric(sample);
+        return true;
     }
     
     /**
-     * Cập nhật thông tin machine từ metrics
+     * Nhận các heartbeat client gửi lại từ spool (lưu lúc mất kết nối)
+     * - Chỉ ghi vào lịch sử với thời điểm đo của client, không phân tích cảnh báo hay đẩy lên dashboard
+     * - RecentMetricStore không chứa các sample này: nếu ring buffer phủ khoảng thời gian của chúng thì bị bỏ,
+     *   để truy vấn khoảng đó đọc từ database thay vì thiếu mất đoạn vừa được lấp
+     * - Dừng ở sample đầu tiên không vào được hàng đợi, client gửi lại phần còn lại sau
+     * @return Số sample đầu batch đã xử lý xong (client xóa chừng đó bản ghi khỏi spool)
      */
-    private void updateMachineInfo(String machineId, Map<String, Object> metricsData) {
-        try {
-            Optional<Machine> machineOpt = machineRepository.findByMachineId(machineId);
-            if (machineOpt.isPresent()) {
-                Machine machine = machineOpt.get();
-                machine.setLastHeartbeat(LocalDateTime.now());
-                machine.setIsOnline(true);
-                machineRepository.save(machine);
+    public int replaySamples(String machineId, List<HeartbeatSample> samples) {
+        long now = System.currentTimeMillis();
+        int processed = 0;
+        int accepted = 0;
+        long latestReplayed = 0;
+        for (HeartbeatSample sample : samples) {
+            if (sample.hasMetrics()) {
+                long measuredAt = sample.getClientTimestamp();
+                sample.setReceivedAt(measuredAt > 0 && measuredAt < now ? measuredAt : now);
+                if (!metricIngestionService.submitReplay(sample)) {
+                    break;
+                }
+                accepted++;
+                latestReplayed = Math.max(latestReplayed, sample.getReceivedAt());
             }
-        } catch (Exception e) {
-            logger.error("Lỗi khi cập nhật machine info: {}", e.getMessage());
+            processed++;
+        }
+        if (accepted > 0) {
+            recentMetricStore.invalidateFrom(machineId, latestReplayed);
         }
+        if (processed > 0) {
+            livenessRegistry.markSeen(machineId, now);
+        }
+        logger.debug("Nhận {} / {} sample gửi lại từ machine {}", accepted, samples.size(), machineId);
+        return processed;
     }
-    
+
     /**
      * Lấy metrics mới nhất của một machine
+     * Đọc từ RecentMetricStore, chỉ truy vấn database khi bộ nhớ không đủ limit sample
      * @param machineId ID của máy tính
      * @param limit Số lượng metrics cần lấy
      * @return Danh sách metrics
      */
     public List<Metric> getLatestMetrics(String machineId, int limit) {
-        return metricRepository.findByMachineIdOrderByTimestampDesc(machineId)
-            .stream()
-            .limit(limit)
-            .collect(java.util.stream.Collectors.toList());
+        List<Metric> recent = recentMetricStore.getLatest(machineId, limit);
+        if (recent != null) {
+            return recent;
+        }
+        return metricRepository.findByMachineIdOrderByTimestampDesc(machineId, PageRequest.of(0, limit));
     }
     
     /**
      * Lấy metrics từ một thời điểm
+     * Khoảng thời gian gần đây đọc từ RecentMetricStore, khoảng cũ hơn đọc từ database
      * @param machineId ID của máy tính
      * @param since Thời điểm bắt đầu
      * @return Danh sách metrics
      */
     public List<Metric> getMetricsSince(String machineId, LocalDateTime since) {
+        List<Metric> recent = recentMetricStore.getSince(machineId, since);
+        if (recent != null) {
+            return recent;
+        }
         return metricRepository.findByMachineIdSince(machineId, since);
     }
     
@@ -2,10 +2,17 @@ package com.monitor.server.service;
 
 import com.monitor.server.model.Notification;
 import com.monitor.server.repository.NotificationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -15,12 +22,32 @@ import java.util.Map;
 @Service
 public class NotificationService {
     
+    private static final Logger logger = LoggerFactory.getLogger(NotificationService.class);
+    
+    private static final String INSERT_NOTIFICATION_SQL = "INSERT INTO notifications (machine_id, message, title, "
+            + "notification_type, sent_at, displayed_at) VALUES (?, ?, ?, ?, ?, ?)";
+    
+    private static final String INSERT_QUEUED_NOTIFICATION_SQL = "INSERT INTO notifications (machine_id, message, "
+            + "title, notification_type, sent_at) OUTPUT INSERTED.id VALUES (?, ?, ?, ?, ?)";
+    
+    private static final String MARK_DISPLAYED_IF_SENT_SQL = "UPDATE notifications SET displayed_at = ? WHERE id = ? "
+            + "AND EXISTS (SELECT 1 FROM commands WHERE id = ? AND status IN ('SENT', 'COMPLETED'))";
+    
+    @Autowired
+    private OfflineCommandQueue offlineCommandQueue;
+    
     @Autowired
     private NotificationRepository notificationRepository;
     
     @Autowired
     private CommandService commandService;
     
+    @Autowired
+    private BroadcastService broadcastService;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
     /**
      * Gửi thông báo đến client
      */
@@ -45,7 +72,8 @@ public class NotificationService {
             "{\"title\":\"" + title + "\",\"message\":\"" + message + "\",\"type\":\"" + notificationType + "\"}", 
             extraData);
         
-        if (sent) {
+        // Máy offline: thông báo được xếp hàng, chưa hiển thị (displayedAt được ghi khi lệnh chờ được gửi)
+        if (sent && commandService.isClientOnline(machineId)) {
             notification.setDisplayedAt(java.time.LocalDateTime.now());
             notificationRepository.save(notification);
         }
@@ -53,6 +81,60 @@ public class NotificationService {
         return sent;
     }
     
+    /**
+     * Gửi thông báo đến nhiều máy cùng lúc
+     * @param machineIds Danh sách máy; null = tất cả client đang kết nối
+     * @return Kết quả tổng hợp của broadcast (có broadcastId)
+     */
+    public Map<String, Object> broadcastNotification(Collection<String> machineIds, String title, String message,
+            String notificationType) {
+        String type = notificationType != null ? notificationType : "INFO";
+        Map<String, Object> data = new HashMap<>();
+        data.put("title", title);
+        data.put("message", message);
+        data.put("type", type);
+
+        Map<String, Object> summary = broadcastService.broadcast(machineIds, "NOTIFICATION", data);
+        
+        // Ghi lịch sử thông báo trong một batch, máy đã nhận lệnh có displayedAt (máy offline thì chưa)
+        // Máy có lệnh xếp hàng: ghi riêng để lấy id, gắn notificationId vào lệnh chờ (displayedAt ghi khi gửi)
+        @SuppressWarnings("unchecked")
+        Map<String, String> results = (Map<String, String>) summary.get("results");
+        Map<String, Long> queuedCommandIds = broadcastService.getQueuedCommandIds((String) summary.get("broadcastId"));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> rows = new ArrayList<>(results.size());
+        results.forEach((machineId, status) -> {
+            if ("UNKNOWN".equals(status)) {
+                return;
+            }
+            Long commandId = queuedCommandIds.get(machineId);
+            if (commandId != null) {
+                attachQueuedNotification(machineId, commandId, message, title, type, now);
+                return;
+            }
+            rows.add(new Object[] { machineId, message, title, type, now, "OFFLINE".equals(status) ? null : now });
+        });
+        jdbcTemplate.batchUpdate(INSERT_NOTIFICATION_SQL, rows);
+        
+        return summary;
+    }
+    
+    /**
+     * Ghi thông báo của máy có lệnh broadcast đang xếp hàng và gắn notificationId vào lệnh đó
+     * Lệnh đã rời hàng đợi trong lúc ghi: thông báo chỉ được tính là đã hiển thị nếu lệnh đã được gửi
+     */
+    private void attachQueuedNotification(String machineId, Long commandId, String message, String title,
+            String type, Timestamp sentAt) {
+        Long notificationId = jdbcTemplate.queryForObject(INSERT_QUEUED_NOTIFICATION_SQL, Long.class,
+                machineId, message, title, type, sentAt);
+        Map<String, Object> extraData = new HashMap<>();
+        extraData.put("notificationId", notificationId);
+        if (!offlineCommandQueue.attachExtraData(machineId, commandId, extraData)) {
+            logger.debug("Lệnh thông báo {} của machine {} không còn trong hàng đợi", commandId, machineId);
+            jdbcTemplate.update(MARK_DISPLAYED_IF_SENT_SQL, sentAt, notificationId, commandId);
+        }
+    }
+    
     /**
      * Lấy lịch sử thông báo của máy
      */
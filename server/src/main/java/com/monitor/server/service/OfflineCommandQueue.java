@@ -0,0 +1,336 @@
+package com.monitor.server.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hàng đợi lệnh cho máy đang offline
+ * - Lệnh được giữ trong bộ nhớ, dòng commands có status QUEUED (kèm extra_data) là bản lưu bền
+ * - Khi máy kết nối lại, tất cả lệnh còn hạn được lấy ra theo thứ tự để gửi trong một frame
+ * - Mỗi loại lệnh có thời hạn riêng (TTL = 0: không xếp hàng, ghi FAILED như trước)
+ */
+@Service
+public class OfflineCommandQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(OfflineCommandQueue.class);
+
+    private static final String SELECT_QUEUED_SQL = "SELECT id, machine_id, command_type, command_data, extra_data, "
+            + "created_at FROM commands WHERE status = 'QUEUED' ORDER BY id";
+
+    private static final String UPDATE_EXTRA_DATA_SQL = "UPDATE commands SET extra_data = ? WHERE id = ?";
+
+    private static final String UPDATE_NOTIFICATION_DISPLAYED_SQL = "UPDATE notifications SET displayed_at = ? "
+            + "WHERE id = ? AND displayed_at IS NULL";
+
+    private static final String UPDATE_STATUS_SQL = "UPDATE commands SET status = ?, response_data = ?, executed_at = ? "
+            + "WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${monitor.command.offline-queue.enabled:true}")
+    private boolean enabled;
+
+    // Thời hạn theo loại lệnh, dạng LOẠI:ms,LOẠI:ms
+    @Value("${monitor.command.offline-queue.ttl:LOCK:3600000,UNLOCK:3600000,NOTIFICATION:1800000}")
+    private String ttlConfig;
+
+    // Số lệnh tối đa giữ cho một máy (bỏ lệnh cũ nhất khi vượt)
+    @Value("${monitor.command.offline-queue.max-per-machine:50}")
+    private int maxPerMachine;
+
+    private final Map<String, Long> ttlByType = new HashMap<>();
+
+    private final Gson gson = new Gson();
+
+    // Mọi thay đổi trên danh sách của một máy đều đi qua compute của map (khóa theo key)
+    private final Map<String, LinkedList<QueuedCommand>> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Đọc cấu hình TTL và nạp lại các lệnh đang chờ trong database
+     */
+    @PostConstruct
+    public void load() {
+        for (String entry : ttlConfig.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length == 2) {
+                ttlByType.put(parts[0].trim(), Long.parseLong(parts[1].trim()));
+            }
+        }
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.query(SELECT_QUEUED_SQL, rs -> {
+                Timestamp createdAt = rs.getTimestamp("created_at");
+                QueuedCommand command = new QueuedCommand(rs.getLong("id"), rs.getString("command_type"),
+                        rs.getString("command_data"), parseExtraData(rs.getString("extra_data")),
+                        createdAt != null ? createdAt.getTime() : System.currentTimeMillis());
+                queues.computeIfAbsent(rs.getString("machine_id"), id -> new LinkedList<>()).add(command);
+            });
+            int total = queues.values().stream().mapToInt(List::size).sum();
+            logger.info("Đã nạp {} lệnh chờ gửi cho {} máy offline", total, queues.size());
+            purgeExpired();
+        } catch (Exception e) {
+            logger.error("Lỗi khi nạp lệnh chờ gửi từ database: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Loại lệnh này có được xếp hàng khi máy offline không
+     */
+    public boolean accepts(String commandType) {
+        return enabled && getTtl(commandType) > 0;
+    }
+
+    public long getTtl(String commandType) {
+        return ttlByType.getOrDefault(commandType, 0L);
+    }
+
+    /**
+     * Thêm lệnh đã ghi vào database (status QUEUED)
+     * Lệnh cùng coalesce key còn chờ bị thay thế (ví dụ LOCK rồi UNLOCK chỉ giữ UNLOCK)
+     */
+    public void enqueue(String machineId, long commandId, String commandType, String commandData,
+            Map<String, Object> extraData, long createdAt) {
+        QueuedCommand command = new QueuedCommand(commandId, commandType, commandData, extraData, createdAt);
+        String coalesceKey = CommandService.coalesceKeyOf(commandType);
+        List<QueuedCommand> superseded = new ArrayList<>();
+        List<QueuedCommand> overflow = new ArrayList<>();
+
+        queues.compute(machineId, (id, queue) -> {
+            if (queue == null) {
+                queue = new LinkedList<>();
+            }
+            if (coalesceKey != null) {
+                Iterator<QueuedCommand> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    QueuedCommand queued = iterator.next();
+                    if (coalesceKey.equals(CommandService.coalesceKeyOf(queued.commandType))) {
+                        iterator.remove();
+                        superseded.add(queued);
+                    }
+                }
+            }
+            queue.add(command);
+            while (queue.size() > maxPerMachine) {
+                overflow.add(queue.removeFirst());
+            }
+            return queue;
+        });
+
+        markStatus(superseded, "FAILED", "Bị thay thế bởi lệnh mới hơn");
+        markStatus(overflow, "FAILED", "Hàng đợi offline đầy");
+    }
+
+    /**
+     * Gắn thêm extraData cho lệnh đang chờ (vd. notificationId của broadcast, chỉ có sau khi lệnh đã xếp hàng)
+     * @return false nếu lệnh không còn trong hàng đợi (đã gửi, hết hạn hoặc bị bỏ)
+     */
+    public boolean attachExtraData(String machineId, long commandId, Map<String, Object> extraData) {
+        // Map đã ghép (extraData cũ + mới), null nếu không tìm thấy lệnh
+        AtomicReference<Map<String, Object>> attached = new AtomicReference<>();
+        queues.computeIfPresent(machineId, (id, queue) -> {
+            for (ListIterator<QueuedCommand> iterator = queue.listIterator(); iterator.hasNext(); ) {
+                QueuedCommand queued = iterator.next();
+                if (queued.id == commandId) {
+                    Map<String, Object> merged = new HashMap<>();
+                    if (queued.extraData != null) {
+                        merged.putAll(queued.extraData);
+                    }
+                    merged.putAll(extraData);
+                    iterator.set(new QueuedCommand(queued.id, queued.commandType, queued.commandData, merged,
+                            queued.createdAt));
+                    attached.set(merged);
+                    break;
+                }
+            }
+            return queue;
+        });
+        if (attached.get() != null) {
+            try {
+                jdbcTemplate.update(UPDATE_EXTRA_DATA_SQL, gson.toJson(attached.get()), commandId);
+            } catch (Exception e) {
+                logger.error("Lỗi khi lưu extraData của lệnh chờ {}: {}", commandId, e.getMessage());
+            }
+        }
+        return attached.get() != null;
+    }
+
+    /**
+     * Lấy ra tất cả lệnh còn hạn của máy (theo thứ tự), lệnh hết hạn được đánh dấu EXPIRED
+     */
+    public List<QueuedCommand> drain(String machineId) {
+        List<QueuedCommand> commands = queues.remove(machineId);
+        if (commands == null) {
+            return new ArrayList<>();
+        }
+
+        long now = System.currentTimeMillis();
+        List<QueuedCommand> live = new ArrayList<>(commands.size());
+        List<QueuedCommand> expired = new ArrayList<>();
+        for (QueuedCommand command : commands) {
+            (isExpired(command, now) ? expired : live).add(command);
+        }
+        markStatus(expired, "EXPIRED", "Hết hạn trước khi máy online");
+        return live;
+    }
+
+    /**
+     * Bỏ các lệnh của máy (máy bị xóa, dòng commands đã bị xóa theo)
+     */
+    public void remove(String machineId) {
+        queues.remove(machineId);
+    }
+
+    /**
+     * Số lệnh đang chờ theo máy
+     */
+    public Map<String, Integer> getQueuedCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String machineId : queues.keySet()) {
+            queues.computeIfPresent(machineId, (id, queue) -> {
+                counts.put(id, queue.size());
+                return queue;
+            });
+        }
+        return counts;
+    }
+
+    /**
+     * Đánh dấu EXPIRED các lệnh quá hạn của máy vẫn còn offline
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        List<QueuedCommand> expired = new ArrayList<>();
+        for (String machineId : queues.keySet()) {
+            queues.computeIfPresent(machineId, (id, queue) -> {
+                Iterator<QueuedCommand> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    QueuedCommand command = iterator.next();
+                    if (isExpired(command, now)) {
+                        iterator.remove();
+                        expired.add(command);
+                    }
+                }
+                return queue.isEmpty() ? null : queue;
+            });
+        }
+        markStatus(expired, "EXPIRED", "Hết hạn trước khi máy online");
+    }
+
+    /**
+     * Cập nhật trạng thái nhiều lệnh trong một batch
+     */
+    public void markStatus(List<QueuedCommand> commands, String status, String responseData) {
+        if (commands.isEmpty()) {
+            return;
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> args = new ArrayList<>(commands.size());
+        for (QueuedCommand command : commands) {
+            args.add(new Object[] { status, responseData, "SENT".equals(status) ? null : now, command.id });
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_STATUS_SQL, args);
+        } catch (Exception e) {
+            logger.error("Lỗi khi cập nhật trạng thái {} lệnh chờ gửi: {}", commands.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Đánh dấu đã hiển thị các thông báo trong những lệnh NOTIFICATION vừa được gửi (theo notificationId)
+     */
+    public void markNotificationsDisplayed(List<QueuedCommand> commands) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> args = new ArrayList<>();
+        for (QueuedCommand command : commands) {
+            Object notificationId = command.extraData != null ? command.extraData.get("notificationId") : null;
+            if ("NOTIFICATION".equals(command.commandType) && notificationId instanceof Number) {
+                args.add(new Object[] { now, ((Number) notificationId).longValue() });
+            }
+        }
+        if (args.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_NOTIFICATION_DISPLAYED_SQL, args);
+        } catch (Exception e) {
+            logger.error("Lỗi khi cập nhật displayed_at của {} thông báo: {}", args.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Đọc extra_data; số nguyên giữ kiểu Long (notificationId không bị thành 4.0 trong payload)
+     */
+    private Map<String, Object> parseExtraData(String json) {
+        if (json == null || json.isEmpty()) {
+            return null;
+        }
+        try {
+            JsonObject object = JsonParser.parseString(json).getAsJsonObject();
+            Map<String, Object> extraData = new HashMap<>();
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                JsonElement value = entry.getValue();
+                if (value.isJsonPrimitive() && ((JsonPrimitive) value).isNumber()) {
+                    double number = value.getAsDouble();
+                    extraData.put(entry.getKey(), number == Math.rint(number) ? (Object) value.getAsLong() : number);
+                } else {
+                    extraData.put(entry.getKey(), gson.fromJson(value, Object.class));
+                }
+            }
+            return extraData;
+        } catch (RuntimeException e) {
+            logger.warn("extraData của lệnh chờ không hợp lệ: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isExpired(QueuedCommand command, long now) {
+        return now - command.createdAt > getTtl(command.commandType);
+    }
+
+    /**
+     * Lệnh đang chờ máy online
+     */
+    public static final class QueuedCommand {
+        final long id;
+        final String commandType;
+        final String commandData;
+        final Map<String, Object> extraData;
+        final long createdAt;
+
+        QueuedCommand(long id, String commandType, String commandData, Map<String, Object> extraData,
+                long createdAt) {
+            this.id = id;
+            this.commandType = commandType;
+            this.commandData = commandData;
+            this.extraData = extraData;
+            this.createdAt = createdAt;
+        }
+    }
+}
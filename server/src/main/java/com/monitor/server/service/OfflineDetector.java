@@ -0,0 +1,188 @@
+package com.monitor.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Phát hiện máy offline bằng hashed timing wheel
+ * - Mỗi heartbeat chỉ đẩy deadline của máy ra xa (một lần ghi volatile), không di chuyển entry
+ * - Thread của wheel mỗi tick chỉ xử lý một slot; entry có deadline đã bị đẩy ra được xếp lại slot mới
+ * - Chi phí tỉ lệ với số máy hết hạn, không tỉ lệ với tổng số máy
+ */
+class OfflineDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(OfflineDetector.class);
+
+    private final long timeoutMillis;
+    private final long tickMillis;
+    private final int mask;
+    private final Consumer<String> onExpired;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Entry mới cần xếp vào wheel, chỉ thread của wheel lấy ra
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+
+    // Các field dưới đây chỉ thread của wheel truy cập
+    private final List<Entry>[] slots;
+    private List<Entry> spare = new ArrayList<>();
+    private long startTime;
+    private long currentTick;
+
+    private Thread workerThread;
+    private volatile boolean running;
+
+    /**
+     * @param timeoutMillis Thời gian không phản hồi để coi là offline
+     * @param tickMillis Độ phân giải của wheel
+     * @param wheelSize Số slot (làm tròn lên lũy thừa của 2)
+     * @param onExpired Gọi trên thread của wheel với machineId đã hết hạn
+     */
+    @SuppressWarnings("unchecked")
+    OfflineDetector(long timeoutMillis, long tickMillis, int wheelSize, Consumer<String> onExpired) {
+        this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+        this.mask = size - 1;
+        this.onExpired = onExpired;
+        this.slots = new List[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ArrayList<>();
+        }
+    }
+
+    void start() {
+        startTime = System.currentTimeMillis();
+        running = true;
+        workerThread = new Thread(this::runWheel, "offline-detector");
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    void stop() {
+        running = false;
+        if (workerThread != null) {
+            workerThread.interrupt();
+        }
+    }
+
+    /**
+     * Máy vừa phản hồi tại lastSeen: đặt lại deadline hết hạn
+     */
+    void touch(String machineId, long lastSeen) {
+        Entry entry = entries.computeIfAbsent(machineId, Entry::new);
+        long deadline = lastSeen + timeoutMillis;
+        if (deadline > entry.deadline) {
+            entry.deadline = deadline;
+        }
+        if (entry.scheduled.compareAndSet(false, true)) {
+            pending.add(entry);
+        }
+    }
+
+    /**
+     * Ngừng theo dõi máy (đã offline hoặc bị xóa)
+     */
+    void cancel(String machineId) {
+        Entry entry = entries.remove(machineId);
+        if (entry != null) {
+            entry.cancelled = true;
+        }
+    }
+
+    private void runWheel() {
+        while (running) {
+            try {
+                long nextTickTime = startTime + (currentTick + 1) * tickMillis;
+                long sleep = nextTickTime - System.currentTimeMillis();
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+                currentTick++;
+
+                Entry entry;
+                while ((entry = pending.poll()) != null) {
+                    place(entry);
+                }
+                processSlot((int) (currentTick & mask));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Lỗi trong offline detector: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void processSlot(int index) {
+        List<Entry> bucket = slots[index];
+        slots[index] = spare;
+        long now = System.currentTimeMillis();
+
+        for (Entry entry : bucket) {
+            if (entry.cancelled) {
+                continue;
+            }
+            if (entry.rounds > 0) {
+                entry.rounds--;
+                slots[index].add(entry);
+                continue;
+            }
+            if (entry.deadline > now) {
+                // Đã có heartbeat mới: xếp lại theo deadline mới
+                place(entry);
+                continue;
+            }
+
+            // Hết hạn: nhả cờ rồi đọc lại deadline để không bỏ sót heartbeat đến cùng lúc
+            entry.scheduled.set(false);
+            if (entry.deadline > now) {
+                if (entry.scheduled.compareAndSet(false, true)) {
+                    place(entry);
+                }
+                continue;
+            }
+            if (entries.remove(entry.machineId, entry)) {
+                try {
+                    onExpired.accept(entry.machineId);
+                } catch (Exception e) {
+                    logger.error("Lỗi khi xử lý máy offline {}: {}", entry.machineId, e.getMessage(), e);
+                }
+            }
+        }
+
+        bucket.clear();
+        spare = bucket;
+    }
+
+    /**
+     * Xếp entry vào slot ứng với deadline (ít nhất là tick kế tiếp)
+     */
+    private void place(Entry entry) {
+        long targetTick = Math.max((entry.deadline - startTime + tickMillis - 1) / tickMillis, currentTick + 1);
+        long wheelSize = mask + 1L;
+        entry.rounds = (targetTick - currentTick - 1) / wheelSize;
+        slots[(int) (targetTick & mask)].add(entry);
+    }
+
+    private static final class Entry {
+        final String machineId;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile long deadline;
+        volatile boolean cancelled;
+        // Số vòng wheel còn phải chờ, chỉ thread của wheel truy cập
+        long rounds;
+
+        Entry(String machineId) {
+            this.machineId = machineId;
+        }
+    }
+}
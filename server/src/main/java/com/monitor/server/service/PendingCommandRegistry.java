@@ -0,0 +1,73 @@
+package com.monitor.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ghép response từ client với lệnh đang chờ theo commandId
+ * - Gửi lệnh: đăng ký một CompletableFuture cho commandId
+ * - Nhận frame "result" qua WebSocket: hoàn thành future tương ứng
+ * - Không thread nào phải đứng chờ hay polling database
+ */
+@Service
+public class PendingCommandRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingCommandRegistry.class);
+
+    private final Map<Long, PendingCommand> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Đăng ký lệnh đang chờ response
+     * Future tự được gỡ khỏi registry khi hoàn thành, bị hủy hoặc timeout
+     */
+    public CompletableFuture<Map<String, Object>> register(Long commandId, String machineId) {
+        PendingCommand command = new PendingCommand(machineId);
+        pending.put(commandId, command);
+        command.future.whenComplete((result, error) -> pending.remove(commandId, command));
+        return command.future;
+    }
+
+    /**
+     * Hoàn thành lệnh khi nhận được kết quả từ client
+     * @return false nếu không có ai chờ lệnh này
+     */
+    public boolean complete(Long commandId, Map<String, Object> result) {
+        PendingCommand command = pending.remove(commandId);
+        if (command == null) {
+            return false;
+        }
+        return command.future.complete(result);
+    }
+
+    /**
+     * Hủy các lệnh đang chờ của máy (máy mất kết nối)
+     */
+    public void failAll(String machineId, String reason) {
+        pending.values().removeIf(command -> {
+            if (command.machineId.equals(machineId)) {
+                command.future.completeExceptionally(new IllegalStateException(reason));
+                return true;
+            }
+            return false;
+        });
+        logger.debug("Đã hủy các lệnh đang chờ của machine {}: {}", machineId, reason);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private static final class PendingCommand {
+        final String machineId;
+        final CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+
+        PendingCommand(String machineId) {
+            this.machineId = machineId;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.monitor.server.service;
+
+import com.monitor.server.heartbeat.HeartbeatSample;
+import com.monitor.server.model.Metric;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lưu N sample gần nhất của mỗi máy trong bộ nhớ (ring buffer)
+ * - Dữ liệu nằm trong mảng nguyên thủy, ghi ngay khi nhận heartbeat
+ * - Phục vụ truy vấn metric mới nhất / N metric gần nhất / metric từ một thời điểm gần đây
+ *   mà không cần truy cập database
+ * - rawData (chứa topProcesses) chỉ giữ cho sample mới nhất
+ */
+@Service
+public class RecentMetricStore {
+
+    // Số sample giữ lại cho mỗi máy (heartbeat 1 giây => 600 = 10 phút)
+    @Value("${monitor.metrics.recent-capacity:600}")
+    private int capacity;
+
+    private final Map<String, MetricRing> rings = new ConcurrentHashMap<>();
+
+    /**
+     * Thêm sample vừa nhận vào ring buffer của máy
+     */
+    public void add(HeartbeatSample sample) {
+        rings.computeIfAbsent(sample.getMachineId(), id -> new MetricRing(id, capacity)).add(sample);
+    }
+
+    /**
+     * Lấy tối đa limit metric mới nhất (mới nhất trước)
+     * @return null nếu bộ nhớ không đủ limit sample (cần đọc database)
+     */
+    public List<Metric> getLatest(String machineId, int limit) {
+        MetricRing ring = rings.get(machineId);
+        if (ring == null) {
+            return null;
+        }
+        return ring.latest(limit);
+    }
+
+    /**
+     * Lấy metric từ thời điểm since (mới nhất trước)
+     * @return null nếu since cũ hơn sample cũ nhất còn trong bộ nhớ (cần đọc database)
+     */
+    public List<Metric> getSince(String machineId, LocalDateTime since) {
+        MetricRing ring = rings.get(machineId);
+        if (ring == null) {
+            return null;
+        }
+        return ring.since(since.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    public void remove(String machineId) {
+        rings.remove(machineId);
+    }
+
+    /**
+     * Bỏ ring buffer của máy nếu nó phủ thời điểm timestamp (vd. sample gửi lại từ spool lấp khoảng mất kết nối)
+     * Sau đó truy vấn khoảng thời gian này đọc từ database, ring buffer được tạo lại từ các heartbeat tiếp theo
+     */
+    public void invalidateFrom(String machineId, long timestamp) {
+        rings.computeIfPresent(machineId, (id, ring) -> ring.covers(timestamp) ? null : ring);
+    }
+
+    /**
+     * Ring buffer của một máy, các trường lưu theo cột trong mảng nguyên thủy
+     */
+    private static final class MetricRing {
+
+        private final String machineId;
+        private final long[] timestamps;
+        private final int[] fields;
+        private final double[] cpuUsage;
+        private final int[] coreCount;
+        private final long[] memoryTotal;
+        private final long[] memoryUsed;
+        private final double[] memoryUsagePercent;
+        private final long[] diskTotal;
+        private final long[] diskUsed;
+        private final double[] diskUsagePercent;
+        private final long[] networkBytesRecv;
+        private final long[] networkBytesSent;
+
+        // Vị trí sẽ ghi tiếp theo và số sample đang có
+        private int head;
+        private int size;
+        private String latestRawData;
+
+        MetricRing(String machineId, int capacity) {
+            this.machineId = machineId;
+            this.timestamps = new long[capacity];
+            this.fields = new int[capacity];
+            this.cpuUsage = new double[capacity];
+            this.coreCount = new int[capacity];
+            this.memoryTotal = new long[capacity];
+            this.memoryUsed = new long[capacity];
+            this.memoryUsagePercent = new double[capacity];
+            this.diskTotal = new long[capacity];
+            this.diskUsed = new long[capacity];
+            this.diskUsagePercent = new double[capacity];
+            this.networkBytesRecv = new long[capacity];
+            this.networkBytesSent = new long[capacity];
+        }
+
+        synchronized void add(HeartbeatSample sample) {
+            int i = head;
+            timestamps[i] = sample.getReceivedAt();
+            fields[i] = sample.getFields();
+            cpuUsage[i] = sample.getCpuUsage();
+            coreCount[i] = sample.getCoreCount();
+            memoryTotal[i] = sample.getMemoryTotal();
+            memoryUsed[i] = sample.getMemoryUsed();
+            memoryUsagePercent[i] = sample.getMemoryUsagePercent();
+            diskTotal[i] = sample.getDiskTotal();
+            diskUsed[i] = sample.getDiskUsed();
+            diskUsagePercent[i] = sample.getDiskUsagePercent();
+            networkBytesRecv[i] = sample.getNetworkBytesRecv();
+            networkBytesSent[i] = sample.getNetworkBytesSent();
+            latestRawData = sample.getRawJson();
+
+            head = (head + 1) % timestamps.length;
+            if (size < timestamps.length) {
+                size++;
+            }
+        }
+
+        /**
+         * timestamp không cũ hơn sample cũ nhất trong ring (truy vấn khoảng này đang được phục vụ từ bộ nhớ)
+         */
+        synchronized boolean covers(long timestamp) {
+            return size > 0 && timestamp >= timestamps[indexOf(size - 1)];
+        }
+
+        synchronized List<Metric> latest(int limit) {
+            if (limit > size) {
+                return null;
+            }
+            List<Metric> result = new ArrayList<>(limit);
+            for (int n = 0; n < limit; n++) {
+                result.add(toMetric(indexOf(n), n == 0));
+            }
+            return result;
+        }
+
+        synchronized List<Metric> since(long sinceMillis) {
+            if (size == 0 || sinceMillis < timestamps[indexOf(size - 1)]) {
+                return null;
+            }
+            List<Metric> result = new ArrayList<>();
+            for (int n = 0; n < size; n++) {
+                int i = indexOf(n);
+                if (timestamps[i] < sinceMillis) {
+                    break;
+                }
+                result.add(toMetric(i, n == 0));
+            }
+            return result;
+        }
+
+        /**
+         * Vị trí trong mảng của sample thứ n tính từ mới nhất (n = 0 là mới nhất)
+         */
+        private int indexOf(int n) {
+            int length = timestamps.length;
+            return ((head - 1 - n) % length + length) % length;
+        }
+
+        private Metric toMetric(int i, boolean latest) {
+            Metric metric = new Metric();
+            metric.setMachineId(machineId);
+            metric.setTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamps[i]), ZoneId.systemDefault()));
+            int present = fields[i];
+            if ((present & HeartbeatSample.CPU_USAGE) != 0 && !Double.isNaN(cpuUsage[i])) {
+                metric.setCpuUsage(cpuUsage[i]);
+            }
+            if ((present & HeartbeatSample.CORE_COUNT) != 0) {
+                metric.setCoreCount(coreCount[i]);
+            }
+            if ((present & HeartbeatSample.MEMORY_TOTAL) != 0) {
+                metric.setMemoryTotal(memoryTotal[i]);
+            }
+            if ((present & HeartbeatSample.MEMORY_USED) != 0) {
+                metric.setMemoryUsed(memoryUsed[i]);
+            }
+            if ((present & HeartbeatSample.MEMORY_USAGE_PERCENT) != 0 && !Double.isNaN(memoryUsagePercent[i])) {
+                metric.setMemoryUsagePercent(memoryUsagePercent[i]);
+            }
+            if ((present & HeartbeatSample.DISK_TOTAL) != 0) {
+                metric.setDiskTotal(diskTotal[i]);
+            }
+            if ((present & HeartbeatSample.DISK_USED) != 0) {
+                metric.setDiskUsed(diskUsed[i]);
+            }
+            if (!Double.isNaN(diskUsagePercent[i])) {
+                metric.setDiskUsagePercent(diskUsagePercent[i]);
+            }
+            if ((present & HeartbeatSample.NETWORK_BYTES_RECV) != 0) {
+                metric.setNetworkBytesRecv(networkBytesRecv[i]);
+            }
+            if ((present & HeartbeatSample.NETWORK_BYTES_SENT) != 0) {
+                metric.setNetworkBytesSent(networkBytesSent[i]);
+            }
+            if (latest) {
+                metric.setRawData(latestRawData);
+            }
+            return metric;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.monitor.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tạo ảnh thu nhỏ (JPEG) cho ảnh màn hình
+ * - thumb: lưới nhiều máy trên dashboard (vài chục KB)
+ * - medium: xem nhanh một máy
+ * Chạy nền trên executor có giới hạn ngay sau khi ảnh được lưu
+ * - Request cần rendition chưa có: chờ job đang chạy (hoặc lên lịch job mới) trong thời gian giới hạn,
+ *   không tự giải mã ảnh gốc trên thread xử lý request
+ * - Ảnh không tạo được rendition (ví dụ server không đọc được WEBP) được ghi nhớ, các lần sau trả ảnh gốc ngay
+ */
+@Service
+public class ScreenRenditionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScreenRenditionService.class);
+
+    public static final String THUMB = "thumb";
+    public static final String MEDIUM = "medium";
+    public static final String FULL = "full";
+
+    @Autowired
+    private ScreenshotStore screenshotStore;
+
+    // Chiều rộng ảnh thumb (px)
+    @Value("${monitor.screen.rendition.thumb-width:320}")
+    private int thumbWidth;
+
+    // Chiều rộng ảnh medium (px)
+    @Value("${monitor.screen.rendition.medium-width:1280}")
+    private int mediumWidth;
+
+    // Chất lượng JPEG (0.0 - 1.0)
+    @Value("${monitor.screen.rendition.jpeg-quality:0.75}")
+    private float jpegQuality;
+
+    // Số thread tạo rendition
+    @Value("${monitor.screen.rendition.threads:2}")
+    private int threads;
+
+    // Số ảnh tối đa chờ tạo rendition (vượt quá thì bỏ, sẽ tạo khi được yêu cầu)
+    @Value("${monitor.screen.rendition.queue-size:100}")
+    private int queueSize;
+
+    // Thời gian tối đa một request chờ rendition đang tạo (quá thì trả ảnh gốc)
+    @Value("${monitor.screen.rendition.wait-millis:3000}")
+    private long waitMillis;
+
+    // Số ảnh lỗi tối đa được ghi nhớ
+    private static final int MAX_FAILED = 10000;
+
+    // Ảnh đang chờ hoặc đang tạo rendition, job hoàn thành khi tạo xong (kể cả lỗi)
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    // Ảnh không tạo được rendition
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "screen-rendition-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Lên lịch tạo rendition cho ảnh vừa lưu (bỏ qua nếu đã có)
+     */
+    public void submit(String contentHash) {
+        if (contentHash == null || failed.contains(contentHash) || hasAll(contentHash)) {
+            return;
+        }
+        schedule(contentHash);
+    }
+
+    /**
+     * File rendition của ảnh; chưa có thì chờ job tạo rendition tối đa waitMillis
+     * @return null nếu không có ảnh gốc, không đọc được hoặc chưa tạo xong (người gọi trả ảnh gốc)
+     */
+    public Path locate(String contentHash, String rendition) {
+        Path path = screenshotStore.locateRendition(contentHash, rendition);
+        if (path != null || failed.contains(contentHash)) {
+            return path;
+        }
+        try {
+            schedule(contentHash).get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.debug("Rendition {} của ảnh {} chưa tạo xong, trả ảnh gốc", rendition, contentHash);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+        return screenshotStore.locateRendition(contentHash, rendition);
+    }
+
+    /**
+     * Tên rendition hợp lệ (null/không rõ = full)
+     */
+    public static String normalize(String size) {
+        if (THUMB.equalsIgnoreCase(size)) {
+            return THUMB;
+        }
+        if (MEDIUM.equalsIgnoreCase(size)) {
+            return MEDIUM;
+        }
+        return FULL;
+    }
+
+    /**
+     * Job tạo rendition của ảnh: dùng lại job đang chờ/đang chạy nếu có
+     */
+    private CompletableFuture<Void> schedule(String contentHash) {
+        CompletableFuture<Void> job = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlight.putIfAbsent(contentHash, job);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    // Job khác có thể vừa tạo xong trước khi job này được lên lịch
+                    if (!hasAll(contentHash)) {
+                        render(contentHash);
+                    }
+                } finally {
+                    inFlight.remove(contentHash, job);
+                    job.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(contentHash, job);
+            job.complete(null);
+            logger.warn("Hàng đợi tạo rendition đầy, bỏ qua ảnh {}", contentHash);
+        }
+        return job;
+    }
+
+    private void markFailed(String contentHash) {
+        if (failed.size() >= MAX_FAILED) {
+            failed.clear();
+        }
+        failed.add(contentHash);
+    }
+
+    private boolean hasAll(String contentHash) {
+        return screenshotStore.locateRendition(contentHash, THUMB) != null
+                && screenshotStore.locateRendition(contentHash, MEDIUM) != null;
+    }
+
+    /**
+     * Đọc ảnh gốc một lần, tạo medium rồi tạo thumb từ medium
+     */
+    private void render(String contentHash) {
+        Path original = screenshotStore.locate(contentHash);
+        if (original == null) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            BufferedImage image = ImageIO.read(original.toFile());
+            if (image == null) {
+                logger.warn("Không đọc được ảnh {} để tạo rendition", contentHash);
+                markFailed(contentHash);
+                return;
+            }
+            BufferedImage medium = scaleToWidth(image, mediumWidth);
+            BufferedImage thumb = scaleToWidth(medium, thumbWidth);
+            Map<String, BufferedImage> renditions = Map.of(MEDIUM, medium, THUMB, thumb);
+            for (Map.Entry<String, BufferedImage> entry : renditions.entrySet()) {
+                screenshotStore.storeRendition(contentHash, entry.getKey(), encodeJpeg(entry.getValue()));
+            }
+            logger.debug("Đã tạo rendition cho ảnh {} trong {}ms", contentHash, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("Lỗi khi tạo rendition cho ảnh {}: {}", contentHash, e.getMessage());
+            markFailed(contentHash);
+        }
+    }
+
+    /**
+     * Thu nhỏ theo từng bước một nửa rồi bước cuối về đúng kích thước
+     * (một bước bilinear từ 1920 xuống 320 bị răng cưa, chữ trên màn hình khó đọc)
+     */
+    private static BufferedImage scaleToWidth(BufferedImage source, int targetWidth) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width <= targetWidth) {
+            return toRgb(source, width, height);
+        }
+        int targetHeight = Math.max(1, (int) Math.round((double) height * targetWidth / width));
+
+        BufferedImage current = source;
+        do {
+            width = Math.max(width / 2, targetWidth);
+            height = Math.max(height / 2, targetHeight);
+            current = toRgb(current, width, height);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private static BufferedImage toRgb(BufferedImage source, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
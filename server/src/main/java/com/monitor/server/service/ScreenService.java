@@ -1,37 +1,195 @@
 package com.monitor.server.service;
 
 import com.monitor.server.model.ScreenData;
+import com.monitor.server.model.ScreenDataSummary;
 import com.monitor.server.repository.ScreenDataRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Service quản lý dữ liệu màn hình
+ * Nội dung ảnh nằm trong ScreenshotStore, bảng screen_data chỉ giữ metadata và content hash
  */
 @Service
 public class ScreenService {
     
+    private static final Logger logger = LoggerFactory.getLogger(ScreenService.class);
+    
     @Autowired
     private ScreenDataRepository screenDataRepository;
     
     @Autowired
     private CommandService commandService;
     
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ScreenshotStore screenshotStore;
+    
+    @Autowired
+    private ScreenRenditionService renditionService;
+    
+    // Kích thước tối đa của một ảnh upload (bytes)
+    @Value("${monitor.screen.max-upload-bytes:20971520}")
+    private long maxUploadBytes;
+    
+    // Tham số chụp mặc định gửi kèm lệnh SCREEN_CAPTURE (PNG, JPEG hoặc WEBP)
+    @Value("${monitor.screen.capture.format:JPEG}")
+    private String captureFormat;
+    
+    // Chất lượng nén mặc định (0.0 - 1.0)
+    @Value("${monitor.screen.capture.quality:0.8}")
+    private float captureQuality;
+    
+    // Chiều rộng tối đa mặc định, ảnh lớn hơn được thu nhỏ trên client (0 = giữ nguyên)
+    @Value("${monitor.screen.capture.max-width:1920}")
+    private int captureMaxWidth;
+    
+    // Blob không còn dòng nào tham chiếu và cũ hơn thời gian này thì bị xóa (ms)
+    @Value("${monitor.screen.store.orphan-min-age-ms:3600000}")
+    private long orphanMinAgeMillis;
+    
+    // Định dạng client có thể nén (WEBP cần plugin ImageIO trên client, không có thì client dùng JPEG)
+    private static final List<String> CAPTURE_FORMATS = Arrays.asList("PNG", "JPEG", "WEBP");
+    
+    private static final String INSERT_SCREEN_SQL = "INSERT INTO screen_data (machine_id, content_hash, size_bytes, "
+            + "image_format, captured_at, command_id) OUTPUT INSERTED.id VALUES (?, ?, ?, ?, ?, ?)";
+    
+    private static final String SELECT_HASHES_SQL = "SELECT DISTINCT content_hash FROM screen_data "
+            + "WHERE content_hash IS NOT NULL";
+    
+    private static final String IMAGE_DATA_NULLABLE_SQL = "SELECT IS_NULLABLE FROM INFORMATION_SCHEMA.COLUMNS "
+            + "WHERE TABLE_NAME = 'screen_data' AND COLUMN_NAME = 'image_data'";
+    
+    /**
+     * Database cũ: cột image_data NOT NULL, ddl-auto=update không tự đổi được
+     */
+    @PostConstruct
+    public void migrateSchema() {
+        try {
+            List<String> nullable = jdbcTemplate.queryForList(IMAGE_DATA_NULLABLE_SQL, String.class);
+            if (!nullable.isEmpty() && "NO".equals(nullable.get(0))) {
+                jdbcTemplate.execute("ALTER TABLE screen_data ALTER COLUMN image_data VARBINARY(MAX) NULL");
+                logger.info("Đã cho phép screen_data.image_data NULL (ảnh mới lưu trong ScreenshotStore)");
+            }
+        } catch (Exception e) {
+            logger.error("Lỗi khi cập nhật cột screen_data.image_data: {}", e.getMessage());
+        }
+    }
+    
     /**
      * Lưu ảnh màn hình từ client
      */
     @Transactional
     public ScreenData saveScreenData(String machineId, byte[] imageData, String imageFormat, Long commandId) {
+        ScreenshotStore.StoredBlob blob;
+        try {
+            blob = screenshotStore.store(new ByteArrayInputStream(imageData));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Không thể lưu ảnh màn hình", e);
+        }
+        
         ScreenData screenData = new ScreenData();
         screenData.setMachineId(machineId);
-        screenData.setImageData(imageData);
+        screenData.setContentHash(blob.getContentHash());
+        screenData.setSizeBytes(blob.getSize());
         screenData.setImageFormat(imageFormat != null ? imageFormat : "PNG");
         screenData.setCommandId(commandId);
-        return screenDataRepository.save(screenData);
+        ScreenData saved = screenDataRepository.save(screenData);
+        renditionService.submit(blob.getContentHash());
+        return saved;
+    }
+    
+    /**
+     * Lưu ảnh màn hình từ body request nhị phân
+     * Stream được ghi thẳng vào ScreenshotStore, database chỉ nhận một dòng metadata
+     * @return id của dòng screen_data
+     */
+    public Long saveScreenStream(String machineId, InputStream imageStream, String imageFormat, Long commandId)
+            throws IOException {
+        ScreenshotStore.StoredBlob blob = screenshotStore.store(new LimitedInputStream(imageStream, maxUploadBytes));
+        if (blob.isDuplicate()) {
+            logger.debug("Ảnh của machine {} trùng nội dung đã lưu ({})", machineId, blob.getContentHash());
+        }
+        Long id = jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(INSERT_SCREEN_SQL);
+            ps.setString(1, machineId);
+            ps.setString(2, blob.getContentHash());
+            ps.setLong(3, blob.getSize());
+            ps.setString(4, imageFormat != null ? imageFormat : "PNG");
+            ps.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+            if (commandId != null) {
+                ps.setLong(6, commandId);
+            } else {
+                ps.setNull(6, Types.BIGINT);
+            }
+            return ps;
+        }, rs -> rs.next() ? rs.getLong(1) : null);
+        renditionService.submit(blob.getContentHash());
+        return id;
+    }
+    
+    /**
+     * File chứa nội dung ảnh (null nếu ảnh là dòng cũ lưu trong database hoặc file đã mất)
+     */
+    public Path locateImage(ScreenData screenData) {
+        return screenData.getContentHash() != null ? screenshotStore.locate(screenData.getContentHash()) : null;
+    }
+    
+    /**
+     * File chứa ảnh theo kích thước yêu cầu
+     * @param size thumb, medium hoặc full (rendition chưa có thì chờ job tạo rendition trong thời gian giới hạn)
+     */
+    public Path locateImage(ScreenData screenData, String size) {
+        if (ScreenRenditionService.FULL.equals(size) || screenData.getContentHash() == null) {
+            return locateImage(screenData);
+        }
+        return renditionService.locate(screenData.getContentHash(), size);
+    }
+    
+    /**
+     * Xóa các file ảnh không còn dòng screen_data nào tham chiếu (máy bị xóa...)
+     */
+    @Scheduled(cron = "${monitor.screen.store.cleanup-cron:0 30 3 * * *}")
+    public void deleteOrphanImages() {
+        try {
+            Set<String> referenced = new HashSet<>(jdbcTemplate.queryForList(SELECT_HASHES_SQL, String.class));
+            int deleted = screenshotStore.deleteUnreferenced(referenced, orphanMinAgeMillis);
+            if (deleted > 0) {
+                logger.info("Đã xóa {} file ảnh không còn được tham chiếu", deleted);
+            }
+        } catch (Exception e) {
+            logger.error("Lỗi khi dọn kho ảnh màn hình: {}", e.getMessage());
+        }
+    }
+    
+    public long getMaxUploadBytes() {
+        return maxUploadBytes;
     }
     
     /**
@@ -42,10 +200,18 @@ public class ScreenService {
     }
     
     /**
-     * Lấy lịch sử ảnh màn hình của máy
+     * Lấy lịch sử ảnh màn hình của máy (chỉ metadata, mới nhất trước)
+     * @param beforeId Cursor: chỉ lấy ảnh có id nhỏ hơn (null = trang đầu)
      */
-    public List<ScreenData> getScreenDataHistory(String machineId) {
-        return screenDataRepository.findByMachineIdOrderByCapturedAtDesc(machineId);
+    public List<ScreenDataSummary> getScreenDataHistory(String machineId, Long beforeId, int limit) {
+        return screenDataRepository.findHistory(machineId, beforeId != null ? beforeId : Long.MAX_VALUE, limit);
+    }
+    
+    /**
+     * Lấy ảnh màn hình theo id
+     */
+    public Optional<ScreenData> getScreenData(Long id) {
+        return screenDataRepository.findById(id);
     }
     
     /**
@@ -59,7 +225,119 @@ public class ScreenService {
      * Yêu cầu client chụp màn hình
      */
     public boolean requestScreenCapture(String machineId) {
-        return commandService.sendScreenCaptureCommand(machineId);
+        return requestScreenCapture(machineId, captureOptions(null));
+    }
+    
+    /**
+     * Yêu cầu client chụp màn hình với tham số nén
+     * @param options Kết quả của captureOptions
+     */
+    public boolean requestScreenCapture(String machineId, Map<String, Object> options) {
+        return commandService.sendScreenCaptureCommand(machineId, options);
+    }
+    
+    /**
+     * Tham số chụp màn hình: giá trị trong request đè lên mặc định của server
+     * @param requested format, quality, maxWidth, region {x, y, width, height} (có thể null)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public Map<String, Object> captureOptions(Map<String, Object> requested) {
+        Map<String, Object> options = new HashMap<>();
+        options.put("format", captureFormat);
+        options.put("quality", captureQuality);
+        options.put("maxWidth", captureMaxWidth);
+        if (requested == null) {
+            return options;
+        }
+        
+        Object format = requested.get("format");
+        if (format != null) {
+            String name = format.toString().trim().toUpperCase();
+            if (!CAPTURE_FORMATS.contains(name)) {
+                throw new IllegalArgumentException("Định dạng ảnh không hỗ trợ: " + format
+                        + " (chỉ " + CAPTURE_FORMATS + ")");
+            }
+            options.put("format", name);
+        }
+        Object quality = requested.get("quality");
+        if (quality != null) {
+            double value = toNumber(quality, "quality");
+            if (value < 0 || value > 1) {
+                throw new IllegalArgumentException("quality phải nằm trong khoảng 0.0 - 1.0");
+            }
+            options.put("quality", value);
+        }
+        Object maxWidth = requested.get("maxWidth");
+        if (maxWidth != null) {
+            double value = toNumber(maxWidth, "maxWidth");
+            if (value < 0) {
+                throw new IllegalArgumentException("maxWidth không được âm");
+            }
+            options.put("maxWidth", (int) value);
+        }
+        Object region = requested.get("region");
+        if (region instanceof Map) {
+            Map<?, ?> rect = (Map<?, ?>) region;
+            Map<String, Object> value = new HashMap<>();
+            for (String key : new String[] { "x", "y", "width", "height" }) {
+                value.put(key, (int) toNumber(rect.get(key), "region." + key));
+            }
+            if ((int) value.get("width") <= 0 || (int) value.get("height") <= 0) {
+                throw new IllegalArgumentException("region.width và region.height phải lớn hơn 0");
+            }
+            options.put("region", value);
+        } else if (region != null) {
+            throw new IllegalArgumentException("region phải có dạng {x, y, width, height}");
+        }
+        return options;
+    }
+    
+    private static double toNumber(Object value, String name) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " phải là số");
+        }
+    }
+    
+    /**
+     * Chặn body upload vượt quá kích thước cho phép (request không có Content-Length)
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+        
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+        
+        private void count(int n) throws IOException {
+            count += n;
+            if (count > limit) {
+                throw new IOException("Ảnh vượt quá " + limit + " bytes");
+            }
+        }
     }
 }
-
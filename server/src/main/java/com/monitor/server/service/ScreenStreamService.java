@@ -0,0 +1,339 @@
+package com.monitor.server.service;
+
+import com.google.gson.Gson;
+import com.monitor.server.websocket.OutboundQueue;
+import com.monitor.server.websocket.OutboundSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chuyển tiếp stream màn hình trực tiếp từ client đến người xem trên dashboard
+ * - Người xem đầu tiên mở /ws-screen?machineId=... thì gửi lệnh STREAM_START, người xem cuối cùng rời đi thì STREAM_STOP
+ * - Client chỉ gửi các tile thay đổi (message binary, định dạng xem ScreenStreamer phía client);
+ *   server chuyển tiếp nguyên message cho người xem, không ghi database hay kho ảnh
+ * - Tile mới nhất của mỗi vị trí được giữ trong bộ nhớ: người xem mới (hoặc người xem bị bỏ frame do mạng chậm)
+ *   nhận ngay một keyframe ghép từ các tile này, không cần yêu cầu client gửi lại
+ */
+@Service
+public class ScreenStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScreenStreamService.class);
+
+    private static final byte FRAME_MAGIC = 'S';
+    private static final byte FRAME_VERSION = 1;
+    private static final int FLAG_KEYFRAME = 1;
+    private static final int HEADER_SIZE = 15;
+    private static final int TILE_HEADER_SIZE = 8;
+
+    // Kích thước tối đa một message keyframe gửi cho người xem
+    private static final int MAX_MESSAGE_BYTES = 256 * 1024;
+
+    // Khoảng cách tối thiểu giữa hai lần gửi STREAM_STOP cho client stream mà không còn người xem (ms)
+    private static final long ORPHAN_STOP_INTERVAL_MS = 10000;
+
+    @Autowired
+    private CommandService commandService;
+
+    @Autowired
+    private OutboundSender outboundSender;
+
+    // Số khung hình mỗi giây client chụp
+    @Value("${monitor.screen.stream.fps:5}")
+    private int fps;
+
+    // Chất lượng JPEG của tile (0.0 - 1.0)
+    @Value("${monitor.screen.stream.jpeg-quality:0.6}")
+    private float jpegQuality;
+
+    // Cạnh của một tile (px)
+    @Value("${monitor.screen.stream.tile-size:128}")
+    private int tileSize;
+
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+
+    // Lần gửi STREAM_STOP gần nhất cho client stream không có người xem
+    private final Map<String, Long> orphanStops = new ConcurrentHashMap<>();
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Thêm người xem; người xem đầu tiên bật stream trên client
+     */
+    public void addViewer(String machineId, WebSocketSession session) {
+        OutboundQueue queue = outboundSender.openViewer(machineId, session);
+        boolean[] first = { false };
+        Stream stream = streams.compute(machineId, (id, existing) -> {
+            Stream s = existing;
+            if (s == null) {
+                s = new Stream();
+                first[0] = true;
+            }
+            s.viewers.put(session, queue);
+            return s;
+        });
+
+        logger.info("Người xem {} bắt đầu xem màn hình machine {} ({} người xem)", session.getId(), machineId,
+                stream.viewers.size());
+        if (first[0]) {
+            sendStart(machineId);
+        } else {
+            sendKeyframe(stream, session, queue);
+        }
+    }
+
+    /**
+     * Bỏ người xem; không còn ai xem thì tắt stream trên client
+     */
+    public void removeViewer(String machineId, WebSocketSession session) {
+        outboundSender.release(session);
+        boolean[] last = { false };
+        streams.computeIfPresent(machineId, (id, stream) -> {
+            stream.viewers.remove(session);
+            stream.needsKeyframe.remove(session);
+            if (stream.viewers.isEmpty()) {
+                last[0] = true;
+                return null;
+            }
+            return stream;
+        });
+
+        if (last[0]) {
+            logger.info("Không còn người xem màn hình machine {}, dừng stream", machineId);
+            // Message đang trên đường tới không cần gửi thêm STREAM_STOP
+            orphanStops.put(machineId, System.currentTimeMillis());
+            commandService.sendCommand(machineId, "STREAM_STOP", null, null);
+        }
+    }
+
+    /**
+     * Client kết nối lại trong lúc vẫn có người xem: bật lại stream
+     */
+    public void onClientRegistered(String machineId) {
+        Stream stream = streams.get(machineId);
+        if (stream != null) {
+            synchronized (stream) {
+                stream.tiles.clear();
+            }
+            sendStart(machineId);
+        }
+    }
+
+    /**
+     * Nhận một message tile từ client và chuyển tiếp cho người xem
+     */
+    public void onFrame(String machineId, ByteBuffer payload) {
+        Stream stream = streams.get(machineId);
+        if (stream == null) {
+            stopOrphan(machineId);
+            return;
+        }
+
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        // Cập nhật tile và xếp hàng cho người xem trong cùng khóa: keyframe của người xem mới không bị xen giữa
+        synchronized (stream) {
+            if (!stream.update(bytes)) {
+                logger.warn("Bỏ qua message stream không hợp lệ từ machine {} ({} bytes)", machineId, bytes.length);
+                return;
+            }
+            for (Map.Entry<WebSocketSession, OutboundQueue> viewer : stream.viewers.entrySet()) {
+                WebSocketSession session = viewer.getKey();
+                OutboundQueue queue = viewer.getValue();
+                if (stream.needsKeyframe.remove(session)) {
+                    // Người xem đã mất tile do bị bỏ frame: gửi lại toàn bộ từ bộ nhớ (đã gồm message này)
+                    sendKeyframe(stream, session, queue);
+                } else {
+                    queue.offer(new BinaryMessage(bytes), OutboundQueue.Priority.LOW, null,
+                            reason -> stream.needsKeyframe.add(session));
+                }
+            }
+        }
+    }
+
+    /**
+     * Trạng thái stream của máy (null nếu không ai đang xem)
+     */
+    public Map<String, Object> getStreamStats(String machineId) {
+        Stream stream = streams.get(machineId);
+        if (stream == null) {
+            return null;
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("viewers", stream.viewers.size());
+        synchronized (stream) {
+            stats.put("width", stream.width);
+            stats.put("height", stream.height);
+            stats.put("tileSize", stream.tileSize);
+            stats.put("messages", stream.messages);
+            stats.put("bytes", stream.bytes);
+            stats.put("lastFrameAt", stream.lastFrameAt);
+        }
+        return stats;
+    }
+
+    private void sendStart(String machineId) {
+        orphanStops.remove(machineId);
+        Map<String, Object> data = new HashMap<>();
+        data.put("fps", fps);
+        data.put("quality", jpegQuality);
+        data.put("tileSize", tileSize);
+        if (!commandService.sendCommand(machineId, "STREAM_START", gson.toJson(data), null)) {
+            logger.warn("Không thể bật stream màn hình của machine {} (máy offline?)", machineId);
+        }
+    }
+
+    /**
+     * Client vẫn stream sau khi không còn người xem (server khởi động lại, lệnh STOP bị mất...)
+     */
+    private void stopOrphan(String machineId) {
+        long now = System.currentTimeMillis();
+        Long last = orphanStops.get(machineId);
+        if (last == null || now - last > ORPHAN_STOP_INTERVAL_MS) {
+            orphanStops.put(machineId, now);
+            commandService.sendCommand(machineId, "STREAM_STOP", null, null);
+        }
+    }
+
+    private void sendKeyframe(Stream stream, WebSocketSession session, OutboundQueue queue) {
+        synchronized (stream) {
+            for (byte[] message : stream.buildKeyframe()) {
+                if (!queue.offer(new BinaryMessage(message), OutboundQueue.Priority.LOW, null,
+                        reason -> stream.needsKeyframe.add(session))) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Người xem và tile mới nhất của một máy
+     */
+    private static final class Stream {
+        final Map<WebSocketSession, OutboundQueue> viewers = new ConcurrentHashMap<>();
+        final Set<WebSocketSession> needsKeyframe = ConcurrentHashMap.newKeySet();
+
+        // Các trường dưới được bảo vệ bởi synchronized (this)
+        // Vị trí (row * cols + col) -> bản ghi tile {col, row, length, JPEG}
+        final Map<Integer, byte[]> tiles = new HashMap<>();
+        int width;
+        int height;
+        int tileSize;
+        int seq;
+        long messages;
+        long bytes;
+        long lastFrameAt;
+
+        /**
+         * Kiểm tra message và cập nhật tile
+         * @return false nếu message sai định dạng
+         */
+        boolean update(byte[] message) {
+            if (message.length < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(message);
+            if (buffer.get() != FRAME_MAGIC || buffer.get() != FRAME_VERSION) {
+                return false;
+            }
+            int flags = buffer.get();
+            int frameSeq = buffer.getInt();
+            int frameWidth = buffer.getShort() & 0xFFFF;
+            int frameHeight = buffer.getShort() & 0xFFFF;
+            int frameTileSize = buffer.getShort() & 0xFFFF;
+            int tileCount = buffer.getShort() & 0xFFFF;
+            if (frameTileSize == 0) {
+                return false;
+            }
+
+            // Kiểm tra toàn bộ message trước khi sửa bộ nhớ tile
+            int cols = (frameWidth + frameTileSize - 1) / frameTileSize;
+            int rows = (frameHeight + frameTileSize - 1) / frameTileSize;
+            int[] offsets = new int[tileCount];
+            for (int i = 0; i < tileCount; i++) {
+                if (buffer.remaining() < TILE_HEADER_SIZE) {
+                    return false;
+                }
+                offsets[i] = buffer.position();
+                int col = buffer.getShort() & 0xFFFF;
+                int row = buffer.getShort() & 0xFFFF;
+                int length = buffer.getInt();
+                if (col >= cols || row >= rows || length < 0 || length > buffer.remaining()) {
+                    return false;
+                }
+                buffer.position(buffer.position() + length);
+            }
+
+            if ((flags & FLAG_KEYFRAME) != 0 || frameWidth != width || frameHeight != height
+                    || frameTileSize != tileSize) {
+                tiles.clear();
+                width = frameWidth;
+                height = frameHeight;
+                tileSize = frameTileSize;
+            }
+            for (int i = 0; i < tileCount; i++) {
+                int offset = offsets[i];
+                int end = i + 1 < tileCount ? offsets[i + 1] : buffer.position();
+                ByteBuffer record = ByteBuffer.wrap(message, offset, TILE_HEADER_SIZE);
+                int col = record.getShort() & 0xFFFF;
+                int row = record.getShort() & 0xFFFF;
+                byte[] copy = new byte[end - offset];
+                System.arraycopy(message, offset, copy, 0, copy.length);
+                tiles.put(row * cols + col, copy);
+            }
+            seq = frameSeq;
+            messages++;
+            bytes += message.length;
+            lastFrameAt = System.currentTimeMillis();
+            return true;
+        }
+
+        /**
+         * Ghép các tile đang giữ thành keyframe (một hoặc nhiều message)
+         */
+        List<byte[]> buildKeyframe() {
+            List<byte[]> result = new ArrayList<>();
+            List<byte[]> batch = new ArrayList<>();
+            int size = HEADER_SIZE;
+            for (byte[] tile : tiles.values()) {
+                if (!batch.isEmpty() && size + tile.length > MAX_MESSAGE_BYTES) {
+                    result.add(pack(batch, size, result.isEmpty()));
+                    batch.clear();
+                    size = HEADER_SIZE;
+                }
+                batch.add(tile);
+                size += tile.length;
+            }
+            if (!batch.isEmpty()) {
+                result.add(pack(batch, size, result.isEmpty()));
+            }
+            return result;
+        }
+
+        private byte[] pack(List<byte[]> batch, int size, boolean first) {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            buffer.put(FRAME_MAGIC);
+            buffer.put(FRAME_VERSION);
+            buffer.put((byte) (first ? FLAG_KEYFRAME : 0));
+            buffer.putInt(seq);
+            buffer.putShort((short) width);
+            buffer.putShort((short) height);
+            buffer.putShort((short) tileSize);
+            buffer.putShort((short) batch.size());
+            batch.forEach(buffer::put);
+            return buffer.array();
+        }
+    }
+}
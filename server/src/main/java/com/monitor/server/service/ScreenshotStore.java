@@ -0,0 +1,72 @@
+package com.monitor.server.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Kho lưu nội dung ảnh màn hình theo content hash
+ * Bảng screen_data chỉ giữ metadata và hash; ảnh giống hệt nhau (màn hình đứng yên) chỉ lưu một lần
+ */
+public interface ScreenshotStore {
+
+    /**
+     * Lưu ảnh từ stream
+     * @return hash và kích thước nội dung đã lưu
+     */
+    StoredBlob store(InputStream content) throws IOException;
+
+    /**
+     * File chứa nội dung của hash
+     * @return null nếu không tồn tại
+     */
+    Path locate(String contentHash);
+
+    /**
+     * Lưu một bản thu nhỏ (rendition) của ảnh gốc, ghi đè nếu đã có
+     */
+    void storeRendition(String contentHash, String rendition, byte[] content) throws IOException;
+
+    /**
+     * File chứa rendition của ảnh gốc
+     * @return null nếu chưa tạo
+     */
+    Path locateRendition(String contentHash, String rendition);
+
+    /**
+     * Xóa các blob (kèm rendition) không còn được tham chiếu và cũ hơn minAgeMillis
+     * @return Số blob đã xóa
+     */
+    int deleteUnreferenced(Set<String> referencedHashes, long minAgeMillis) throws IOException;
+
+    /**
+     * Kết quả lưu một blob
+     */
+    final class StoredBlob {
+        private final String contentHash;
+        private final long size;
+        private final boolean duplicate;
+
+        public StoredBlob(String contentHash, long size, boolean duplicate) {
+            this.contentHash = contentHash;
+            this.size = size;
+            this.duplicate = duplicate;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Nội dung đã có sẵn trong kho (không ghi thêm)
+         */
+        public boolean isDuplicate() {
+            return duplicate;
+        }
+    }
+}
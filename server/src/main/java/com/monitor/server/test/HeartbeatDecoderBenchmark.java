@@ -0,0 +1,263 @@
+package com.monitor.server.test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.monitor.server.heartbeat.HeartbeatDecoder;
+import com.monitor.server.heartbeat.HeartbeatSample;
+import com.monitor.server.model.Metric;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * So sánh lượng bộ nhớ cấp phát và thời gian xử lý một heartbeat giữa:
+ * - Đường cũ: bind body vào Map (Jackson, như @RequestBody Map), đọc Map bằng containsKey/cast,
+ *   rồi gson.toJson(metrics) để lấy rawData
+ * - Đường mới: HeartbeatDecoder đọc thẳng từ byte[] và lấy rawData từ đoạn byte gốc
+ *
+ * Chạy: java -cp server.jar com.monitor.server.test.HeartbeatDecoderBenchmark [số vòng lặp]
+ */
+public class HeartbeatDecoderBenchmark {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Gson gson = new Gson();
+
+    // Giữ kết quả để JIT không loại bỏ công việc
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        byte[] body = buildHeartbeatBody();
+        System.out.println("Heartbeat body: " + body.length + " bytes, " + iterations + " vòng lặp");
+
+        // Kiểm tra hai đường cho cùng kết quả
+        Metric legacy = legacyPath(body);
+        HeartbeatSample sample = HeartbeatDecoder.decode(body);
+        System.out.println("CPU: " + legacy.getCpuUsage() + " / " + sample.getCpuUsage()
+                + ", RAM: " + legacy.getMemoryUsagePercent() + " / " + sample.getMemoryUsagePercent()
+                + ", Disk used: " + legacy.getDiskUsed() + " / " + sample.getDiskUsed());
+
+        // Warmup cho JIT
+        for (int i = 0; i < iterations / 4; i++) {
+            sink += legacyPath(body).getRawData().length();
+            sink += newPath(body).length();
+        }
+
+        Result legacyResult = measure("Map + gson.toJson (cũ)", iterations, () -> legacyPath(body).getRawData().length());
+        Result decoderResult = measure("HeartbeatDecoder (mới)", iterations, () -> newPath(body).length());
+
+        System.out.println(legacyResult);
+        System.out.println(decoderResult);
+        System.out.printf("Giảm cấp phát: %.1fx, nhanh hơn: %.1fx%n",
+                legacyResult.bytesPerOp / decoderResult.bytesPerOp,
+                legacyResult.nanosPerOp / decoderResult.nanosPerOp);
+        System.out.println("(sink=" + sink + ")");
+    }
+
+    private static String newPath(byte[] body) {
+        HeartbeatSample sample = HeartbeatDecoder.decode(body);
+        sample.setReceivedAt(System.currentTimeMillis());
+        return sample.getRawJson();
+    }
+
+    /**
+     * Tái hiện đường xử lý trước đây của HeartbeatController + MetricService.saveMetrics
+     */
+    @SuppressWarnings("unchecked")
+    private static Metric legacyPath(byte[] body) throws Exception {
+        Map<String, Object> request = objectMapper.readValue(body, Map.class);
+        Map<String, Object> payload = (Map<String, Object>) request.get("payload");
+        Map<String, Object> metricsData = (Map<String, Object>) payload.get("metrics");
+
+        Metric metric = new Metric();
+        metric.setMachineId((String) payload.get("machineId"));
+        metric.setTimestamp(LocalDateTime.now());
+        if (metricsData.containsKey("cpu")) {
+            Map<String, Object> cpuData = (Map<String, Object>) metricsData.get("cpu");
+            if (cpuData.containsKey("totalUsage")) {
+                metric.setCpuUsage(((Number) cpuData.get("totalUsage")).doubleValue());
+            }
+            if (cpuData.containsKey("coreCount")) {
+                metric.setCoreCount(((Number) cpuData.get("coreCount")).intValue());
+            }
+        }
+        if (metricsData.containsKey("memory")) {
+            Map<String, Object> memoryData = (Map<String, Object>) metricsData.get("memory");
+            if (memoryData.containsKey("total")) {
+                metric.setMemoryTotal(((Number) memoryData.get("total")).longValue());
+            }
+            if (memoryData.containsKey("used")) {
+                metric.setMemoryUsed(((Number) memoryData.get("used")).longValue());
+            }
+            if (memoryData.containsKey("usagePercent")) {
+                metric.setMemoryUsagePercent(((Number) memoryData.get("usagePercent")).doubleValue());
+            }
+        }
+        if (metricsData.containsKey("disk")) {
+            Map<String, Object> diskData = (Map<String, Object>) metricsData.get("disk");
+            if (diskData.containsKey("total")) {
+                metric.setDiskTotal(((Number) diskData.get("total")).longValue());
+            }
+            if (diskData.containsKey("used")) {
+                metric.setDiskUsed(((Number) diskData.get("used")).longValue());
+            }
+            if (diskData.containsKey("total") && diskData.containsKey("used")) {
+                long total = ((Number) diskData.get("total")).longValue();
+                long used = ((Number) diskData.get("used")).longValue();
+                if (total > 0) {
+                    metric.setDiskUsagePercent((double) used / total * 100);
+                }
+            }
+        }
+        if (metricsData.containsKey("network")) {
+            Map<String, Object> networkData = (Map<String, Object>) metricsData.get("network");
+            if (networkData.containsKey("totalBytesRecv")) {
+                metric.setNetworkBytesRecv(((Number) networkData.get("totalBytesRecv")).longValue());
+            }
+            if (networkData.containsKey("totalBytesSent")) {
+                metric.setNetworkBytesSent(((Number) networkData.get("totalBytesSent")).longValue());
+            }
+        }
+        metric.setRawData(gson.toJson(metricsData));
+        return metric;
+    }
+
+    private static Result measure(String name, int iterations, Op op) throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        return new Result(name, (double) allocated / iterations, (double) elapsed / iterations);
+    }
+
+    /**
+     * Tạo body heartbeat giống HeartbeatManager (format có signature)
+     */
+    private static byte[] buildHeartbeatBody() {
+        Map<String, Object> cpu = new HashMap<>();
+        cpu.put("totalUsage", 37.42);
+        cpu.put("coreCount", 8);
+        List<Double> coreUsages = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            coreUsages.add(20.0 + i * 3.17);
+        }
+        cpu.put("coreUsages", coreUsages);
+
+        Map<String, Object> memory = new HashMap<>();
+        memory.put("total", 17179869184L);
+        memory.put("used", 9876543210L);
+        memory.put("available", 7303325974L);
+        memory.put("usagePercent", 57.49);
+        memory.put("totalFormatted", "16 GiB");
+        memory.put("usedFormatted", "9.2 GiB");
+        memory.put("availableFormatted", "6.8 GiB");
+
+        Map<String, Object> disk = new HashMap<>();
+        List<Map<String, Object>> disks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> d = new HashMap<>();
+            d.put("name", "Local Disk (" + (char) ('C' + i) + ":)");
+            d.put("mount", (char) ('C' + i) + ":\\");
+            d.put("total", 512110190592L);
+            d.put("used", 312110190592L - i * 1000L);
+            d.put("free", 200000000000L + i * 1000L);
+            d.put("usagePercent", 60.95);
+            d.put("type", "NTFS");
+            disks.add(d);
+        }
+        disk.put("disks", disks);
+        disk.put("total", 1536330571776L);
+        disk.put("used", 936330568776L);
+        disk.put("free", 600000003000L);
+        disk.put("totalFormatted", "1.4 TiB");
+        disk.put("usedFormatted", "872 GiB");
+        disk.put("freeFormatted", "558.8 GiB");
+
+        Map<String, Object> network = new HashMap<>();
+        List<Map<String, Object>> interfaces = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> n = new HashMap<>();
+            n.put("name", "eth" + i);
+            n.put("displayName", "Intel(R) Ethernet Connection I219-V #" + i);
+            n.put("bytesRecv", 123456789L * (i + 1));
+            n.put("bytesSent", 98765432L * (i + 1));
+            n.put("packetsRecv", 123456L * (i + 1));
+            n.put("packetsSent", 65432L * (i + 1));
+            n.put("bytesRecvFormatted", "117.7 MiB");
+            n.put("bytesSentFormatted", "94.2 MiB");
+            interfaces.add(n);
+        }
+        network.put("interfaces", interfaces);
+        network.put("totalBytesRecv", 740740734L);
+        network.put("totalBytesSent", 592592592L);
+        network.put("totalPacketsRecv", 740736L);
+        network.put("totalPacketsSent", 392592L);
+        network.put("totalBytesRecvFormatted", "706.4 MiB");
+        network.put("totalBytesSentFormatted", "565.1 MiB");
+
+        List<Map<String, Object>> topProcesses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> p = new HashMap<>();
+            p.put("pid", 1000 + i);
+            p.put("name", "process-" + i + ".exe");
+            p.put("cpuUsage", 12.5 - i);
+            p.put("memoryUsage", 104857600L * (i + 1));
+            p.put("memoryUsageFormatted", (100 * (i + 1)) + " MiB");
+            p.put("state", "RUNNING");
+            topProcesses.add(p);
+        }
+
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("cpu", cpu);
+        metrics.put("memory", memory);
+        metrics.put("disk", disk);
+        metrics.put("network", network);
+        metrics.put("topProcesses", topProcesses);
+        metrics.put("timestamp", System.currentTimeMillis());
+
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("machineId", "MACHINE-lab01-pc17");
+        payload.put("metrics", metrics);
+        payload.put("timestamp", System.currentTimeMillis());
+
+        Map<String, Object> request = new HashMap<>();
+        request.put("payload", payload);
+        request.put("signature", "q9v0kX0oH7m3p2cQm2p1o0jv3vQe7l4m1o0p9o8i7u6=");
+
+        return gson.toJson(request).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private interface Op {
+        long run() throws Exception;
+    }
+
+    private static final class Result {
+        final String name;
+        final double bytesPerOp;
+        final double nanosPerOp;
+
+        Result(String name, double bytesPerOp, double nanosPerOp) {
+            this.name = name;
+            this.bytesPerOp = bytesPerOp;
+            this.nanosPerOp = nanosPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-24s %10.0f bytes/op %10.0f ns/op", name, bytesPerOp, nanosPerOp);
+        }
+    }
+}
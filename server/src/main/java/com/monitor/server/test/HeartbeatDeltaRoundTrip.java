@@ -0,0 +1,128 @@
+package com.monitor.server.test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.monitor.server.heartbeat.HeartbeatDecoder;
+import com.monitor.server.heartbeat.HeartbeatSample;
+import com.monitor.server.service.HeartbeatDeltaService;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kiểm tra HeartbeatDeltaService ghép lại đúng trạng thái mà HeartbeatDeltaEncoder phía client đã commit
+ * - Đọc file do com.monitor.client.test.HeartbeatDeltaVectors sinh ra
+ * - Mỗi frame: giải mã bằng HeartbeatDecoder, resolve, so metrics ghép được với "state" của client
+ *   (key có giá trị null tương đương không có key, đúng quy tắc delta: null = xóa key)
+ * - Frame "expect": "keyframe" phải bị từ chối (đứt seq)
+ *
+ * Chạy: java -cp server.jar com.monitor.server.test.HeartbeatDeltaRoundTrip [file]
+ */
+public class HeartbeatDeltaRoundTrip {
+
+    public static void main(String[] args) throws Exception {
+        Path file = Paths.get(args.length > 0 ? args[0] : "heartbeat-delta-vectors.jsonl");
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        HeartbeatDeltaService service = new HeartbeatDeltaService();
+
+        int failures = 0;
+        int deltas = 0;
+        int keyframes = 0;
+        long deltaBytes = 0;
+        long keyframeBytes = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            JsonObject line = JsonParser.parseString(lines.get(i)).getAsJsonObject();
+            byte[] frame = line.get("frame").getAsString().getBytes(StandardCharsets.UTF_8);
+            boolean expectKeyframeRequest = "keyframe".equals(line.get("expect").getAsString());
+
+            HeartbeatSample sample = HeartbeatDecoder.decode(frame);
+            if (sample.isDelta()) {
+                deltas++;
+                deltaBytes += frame.length;
+            } else {
+                keyframes++;
+                keyframeBytes += frame.length;
+            }
+            HeartbeatSample full = service.resolve(sample);
+
+            if (expectKeyframeRequest) {
+                if (full != null) {
+                    failures++;
+                    System.out.println("Frame " + (i + 1) + " (seq " + sample.getSeq()
+                            + "): server phải yêu cầu keyframe nhưng đã ghép được sample");
+                }
+                continue;
+            }
+            if (full == null) {
+                failures++;
+                System.out.println("Frame " + (i + 1) + " (seq " + sample.getSeq() + "): server không ghép được delta");
+                continue;
+            }
+            JsonElement expected = withoutNulls(line.get("state"));
+            JsonElement actual = withoutNulls(JsonParser.parseString(full.getRawJson()));
+            if (!expected.equals(actual)) {
+                failures++;
+                System.out.println("Frame " + (i + 1) + " (seq " + sample.getSeq() + ", "
+                        + sample.getEncoding() + "): trạng thái khác nhau");
+                System.out.println("  client: " + expected);
+                System.out.println("  server: " + actual);
+            }
+            // Trường số ghép từ trạng thái phải giống khi giải mã lại metrics đầy đủ
+            String decoded = describe(HeartbeatDecoder.decode(
+                    ("{\"metrics\":" + full.getRawJson() + "}").getBytes(StandardCharsets.UTF_8)));
+            if (!decoded.equals(describe(full))) {
+                failures++;
+                System.out.println("Frame " + (i + 1) + " (seq " + sample.getSeq() + ", "
+                        + sample.getEncoding() + "): trường số khác nhau");
+                System.out.println("  giải mã lại: " + decoded);
+                System.out.println("  server:      " + describe(full));
+            }
+        }
+
+        System.out.println(lines.size() + " frame: " + keyframes + " keyframe (trung bình "
+                + (keyframes > 0 ? keyframeBytes / keyframes : 0) + " bytes), " + deltas + " delta (trung bình "
+                + (deltas > 0 ? deltaBytes / deltas : 0) + " bytes)");
+        if (failures > 0) {
+            System.out.println("THẤT BẠI: " + failures + " frame không khớp");
+            System.exit(1);
+        }
+        System.out.println("OK: trạng thái server khớp với client ở mọi frame");
+    }
+
+    private static String describe(HeartbeatSample sample) {
+        return "fields=" + Integer.toBinaryString(sample.getFields())
+                + " cpu=" + sample.getCpuUsage() + "/" + sample.getCoreCount()
+                + " memory=" + sample.getMemoryUsed() + "/" + sample.getMemoryTotal() + "/" + sample.getMemoryUsagePercent()
+                + " disk=" + sample.getDiskUsed() + "/" + sample.getDiskTotal()
+                + " network=" + sample.getNetworkBytesRecv() + "/" + sample.getNetworkBytesSent();
+    }
+
+    /**
+     * Bỏ các key có giá trị null trong object (đệ quy); phần tử null trong mảng được giữ nguyên
+     */
+    private static JsonElement withoutNulls(JsonElement element) {
+        if (element.isJsonObject()) {
+            JsonObject result = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                if (!entry.getValue().isJsonNull()) {
+                    result.add(entry.getKey(), withoutNulls(entry.getValue()));
+                }
+            }
+            return result;
+        }
+        if (element.isJsonArray()) {
+            JsonArray result = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                result.add(withoutNulls(item));
+            }
+            return result;
+        }
+        return element;
+    }
+}
@@ -1,13 +1,19 @@
 package com.monitor.server.websocket;
 
 import com.google.gson.Gson;
+import com.monitor.server.heartbeat.HeartbeatDecoder;
+import com.monitor.server.heartbeat.HeartbeatSample;
 import com.monitor.server.service.CommandService;
+import com.monitor.server.service.HeartbeatDeltaService;
 import com.monitor.server.service.MachineService;
+import com.monitor.server.service.MetricService;
 import com.monitor.server.service.ScreenService;
+import com.monitor.server.service.ScreenStreamService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
@@ -25,6 +31,10 @@ public class ClientWebSocketHandler extends TextWebSocketHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(ClientWebSocketHandler.class);
 
+    // Client serialize frame bằng Gson (không có khoảng trắng); chuỗi này không thể nằm trong một giá trị string
+    // vì dấu ngoặc kép trong string luôn được escape
+    private static final String HEARTBEAT_TYPE = "\"type\":\"HEARTBEAT\"";
+
     @Autowired
     private CommandService commandService;
 
@@ -34,6 +44,15 @@ public class ClientWebSocketHandler extends TextWebSocketHandler {
     @Autowired
     private ScreenService screenService;
 
+    @Autowired
+    private MetricService metricService;
+
+    @Autowired
+    private ScreenStreamService screenStreamService;
+
+    @Autowired
+    private HeartbeatDeltaService heartbeatDeltaService;
+
     private Gson gson = new Gson();
 
     @Override
@@ -47,6 +66,28 @@ public class ClientWebSocketHandler extends TextWebSocketHandler {
             String payload = message.getPayload();
             logger.debug("Nhận message từ client: {}", payload);
 
+            // Heartbeat gửi qua WebSocket: giải mã trực tiếp và đi chung pipeline ghi với HeartbeatController
+            // Lọc nhanh theo chuỗi trước để kết quả lệnh, keepalive, ảnh base64... không bị giải mã hai lần
+            HeartbeatSample sample = payload.contains(HEARTBEAT_TYPE) ? HeartbeatDecoder.decode(message.asBytes()) : null;
+            if (sample != null && "HEARTBEAT".equals(sample.getType()) && sample.getMachineId() != null) {
+                if (!sample.hasMetrics()) {
+                    machineService.updateOnlineStatus(sample.getMachineId(), true);
+                    return;
+                }
+                // Heartbeat delta: ghép với trạng thái đã lưu, không ghép được thì yêu cầu keyframe
+                HeartbeatSample full = heartbeatDeltaService.resolve(sample);
+                if (full == null) {
+                    Map<String, Object> resync = new HashMap<>();
+                    resync.put("type", "HEARTBEAT_KEYFRAME");
+                    commandService.sendRawMessage(sample.getMachineId(), gson.toJson(resync));
+                    return;
+                }
+                if (!metricService.ingestSample(full)) {
+                    logger.warn("Bỏ qua heartbeat WebSocket của machine {} do hàng đợi đầy", sample.getMachineId());
+                }
+                return;
+            }
+
             // Parse message
             @SuppressWarnings("unchecked")
             Map<String, Object> data = (Map<String, Object>) gson.fromJson(payload, Map.class);
@@ -74,7 +115,10 @@ public class ClientWebSocketHandler extends TextWebSocketHandler {
                 Map<String, Object> response = new HashMap<>();
                 response.put("status", "connected");
                 response.put("message", "Đã kết nối thành công");
-                session.sendMessage(new TextMessage(gson.toJson(response)));
+                commandService.sendRawMessage(machineId, gson.toJson(response));
+
+                // Vẫn có người xem màn hình từ trước khi mất kết nối
+                screenStreamService.onClientRegistered(machineId);
             }
 
             // Cập nhật lastResponseTime mỗi khi nhận message từ client (giữ máy online)
@@ -110,6 +154,13 @@ public class ClientWebSocketHandler extends TextWebSocketHandler {
 
                 logger.info("Nhận kết quả từ client {} - command: {}, result: {}", machineId, command, result);
 
+                // Trả kết quả cho request đang chờ (nếu có) trước khi ghi database
+                if (commandId != null && result instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> resultMap = (Map<String, Object>) result;
+                    commandService.completePendingCommand(commandId, resultMap);
+                }
+
                 // Cập nhật trạng thái command
                 if (commandId != null) {
                     String status = result instanceof Map && ((Map<?, ?>) result).containsKey("success") &&
@@ -137,6 +188,19 @@ public class ClientWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    /**
+     * Message binary: tile của stream màn hình trực tiếp
+     */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        String machineId = commandService.getMachineId(session);
+        if (machineId == null) {
+            logger.warn("Bỏ qua message binary từ session chưa đăng ký: {}", session.getId());
+            return;
+        }
+        screenStreamService.onFrame(machineId, message.getPayload());
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         logger.info("Client WebSocket đã đóng: {} - {}", session.getId(), status);
@@ -0,0 +1,307 @@
+package com.monitor.server.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hàng đợi gửi của một WebSocket session
+ * - Thread gọi (REST, broadcast...) chỉ xếp frame vào hàng đợi rồi trả về ngay
+ * - Một task trên pool của OutboundSender lấy frame ra và gửi, mỗi lúc chỉ một thread gửi trên session
+ * - Giới hạn số byte đang chờ và thời gian một lần gửi; client chậm được xử lý theo OverflowPolicy
+ */
+public class OutboundQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    // Số frame tối đa gửi trong một lượt trước khi nhường thread cho session khác
+    private static final int MAX_FRAMES_PER_DRAIN = 32;
+
+    /**
+     * Độ ưu tiên của frame: LOW có thể bị bỏ khi hàng đợi đầy
+     */
+    public enum Priority {
+        HIGH, LOW
+    }
+
+    /**
+     * Cách xử lý client chậm khi hàng đợi đầy
+     * - DROP_LOW_PRIORITY: bỏ frame LOW cũ nhất để nhường chỗ; chỉ ngắt kết nối khi frame HIGH không còn chỗ
+     * - DISCONNECT: ngắt kết nối ngay
+     */
+    public enum OverflowPolicy {
+        DROP_LOW_PRIORITY, DISCONNECT
+    }
+
+    private final WebSocketSession session;
+    private final String machineId;
+    private final Executor executor;
+    private final int bufferSizeLimit;
+    private final long sendTimeLimitMillis;
+    private final OverflowPolicy overflowPolicy;
+
+    // Được bảo vệ bởi synchronized (this)
+    private final LinkedList<Frame> frames = new LinkedList<>();
+    private int bufferedBytes;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    // Thời điểm bắt đầu lần gửi hiện tại, 0 nếu không gửi
+    private volatile long sendStartTime;
+    private volatile boolean closed;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    OutboundQueue(WebSocketSession session, String machineId, Executor executor, int bufferSizeLimit,
+            long sendTimeLimitMillis, OverflowPolicy overflowPolicy) {
+        this.session = session;
+        this.machineId = machineId;
+        this.executor = executor;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Xếp frame vào hàng đợi
+     * @param coalesceKey Frame cùng key còn trong hàng đợi bị thay bằng frame mới (null = không gộp)
+     * @param onFailure Gọi với lý do khi frame bị bỏ, bị thay thế hoặc gửi lỗi (có thể null)
+     * @return false nếu frame bị từ chối ngay (session đã đóng hoặc hàng đợi đầy)
+     */
+    public boolean offer(String payload, Priority priority, String coalesceKey, Consumer<String> onFailure) {
+        return offer(new TextMessage(payload), priority, coalesceKey, onFailure);
+    }
+
+    /**
+     * Xếp frame (text hoặc binary) vào hàng đợi
+     * @see #offer(String, Priority, String, Consumer)
+     */
+    public boolean offer(WebSocketMessage<?> message, Priority priority, String coalesceKey,
+            Consumer<String> onFailure) {
+        Frame frame = new Frame(message, priority, coalesceKey, onFailure);
+        if (closed || !session.isOpen()) {
+            frame.fail("Session đã đóng");
+            return false;
+        }
+
+        List<Frame> evicted = new ArrayList<>();
+        boolean accepted = true;
+        String overflowReason = null;
+
+        synchronized (this) {
+            if (coalesceKey != null) {
+                ListIterator<Frame> iterator = frames.listIterator();
+                while (iterator.hasNext()) {
+                    Frame queued = iterator.next();
+                    if (coalesceKey.equals(queued.coalesceKey)) {
+                        iterator.remove();
+                        bufferedBytes -= queued.size;
+                        evicted.add(queued);
+                    }
+                }
+            }
+
+            long start = sendStartTime;
+            if (start > 0 && System.currentTimeMillis() - start > sendTimeLimitMillis) {
+                overflowReason = "gửi một frame quá " + sendTimeLimitMillis + "ms";
+            } else if (bufferedBytes + frame.size > bufferSizeLimit) {
+                if (overflowPolicy == OverflowPolicy.DROP_LOW_PRIORITY) {
+                    Iterator<Frame> iterator = frames.iterator();
+                    while (bufferedBytes + frame.size > bufferSizeLimit && iterator.hasNext()) {
+                        Frame queued = iterator.next();
+                        if (queued.priority == Priority.LOW) {
+                            iterator.remove();
+                            bufferedBytes -= queued.size;
+                            evicted.add(queued);
+                            droppedCount.incrementAndGet();
+                        }
+                    }
+                    if (bufferedBytes + frame.size > bufferSizeLimit) {
+                        if (priority == Priority.LOW) {
+                            accepted = false;
+                            droppedCount.incrementAndGet();
+                        } else {
+                            overflowReason = "hàng đợi vượt " + bufferSizeLimit + " bytes";
+                        }
+                    }
+                } else {
+                    overflowReason = "hàng đợi vượt " + bufferSizeLimit + " bytes";
+                }
+            }
+
+            if (accepted && overflowReason == null) {
+                frames.add(frame);
+                bufferedBytes += frame.size;
+            }
+        }
+
+        evicted.forEach(queued -> queued.fail(coalesceKey != null && coalesceKey.equals(queued.coalesceKey)
+                ? "Bị thay thế bởi lệnh mới hơn" : "Bị bỏ do client chậm"));
+
+        if (overflowReason != null) {
+            logger.warn("Client {} nhận chậm ({}), ngắt kết nối", machineId, overflowReason);
+            frame.fail("Client nhận chậm");
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+            return false;
+        }
+        if (!accepted) {
+            logger.debug("Bỏ frame LOW của machine {} do hàng đợi đầy", machineId);
+            frame.fail("Hàng đợi gửi đầy");
+            return false;
+        }
+
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Đóng session và hủy các frame còn chờ
+     */
+    public void close(CloseStatus status) {
+        closed = true;
+        failQueued("Session đã đóng");
+        try {
+            session.close(status);
+        } catch (Exception e) {
+            logger.debug("Lỗi khi đóng session của machine {}: {}", machineId, e.getMessage());
+        }
+    }
+
+    /**
+     * Session đã đóng từ phía client: hủy các frame còn chờ
+     */
+    void discard() {
+        closed = true;
+        failQueued("Client đã ngắt kết nối");
+    }
+
+    public synchronized int getDepth() {
+        return frames.size();
+    }
+
+    public synchronized int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public String getMachineId() {
+        return machineId;
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public boolean isOpen() {
+        return !closed && session.isOpen();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (Exception e) {
+                draining.set(false);
+                logger.error("Không thể lên lịch gửi cho machine {}: {}", machineId, e.getMessage());
+            }
+        }
+    }
+
+    private void drain() {
+        int sent = 0;
+        while (sent < MAX_FRAMES_PER_DRAIN && !closed) {
+            Frame frame;
+            synchronized (this) {
+                frame = frames.poll();
+                if (frame != null) {
+                    bufferedBytes -= frame.size;
+                }
+            }
+            if (frame == null) {
+                break;
+            }
+
+            sendStartTime = System.currentTimeMillis();
+            try {
+                session.sendMessage(frame.message);
+                sentCount.incrementAndGet();
+                sent++;
+            } catch (Exception e) {
+                logger.warn("Lỗi khi gửi đến machine {}: {}", machineId, e.getMessage());
+                frame.fail("Lỗi gửi: " + e.getMessage());
+                close(CloseStatus.SERVER_ERROR);
+            } finally {
+                sendStartTime = 0;
+            }
+        }
+
+        // Nhả cờ rồi kiểm tra lại để không bỏ sót frame được xếp vào cùng lúc
+        draining.set(false);
+        boolean pending;
+        synchronized (this) {
+            pending = !frames.isEmpty();
+        }
+        if (pending && !closed) {
+            scheduleDrain();
+        }
+    }
+
+    private void failQueued(String reason) {
+        List<Frame> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(frames);
+            frames.clear();
+            bufferedBytes = 0;
+        }
+        remaining.forEach(frame -> frame.fail(reason));
+    }
+
+    private static final class Frame {
+        final WebSocketMessage<?> message;
+        final Priority priority;
+        final String coalesceKey;
+        final Consumer<String> onFailure;
+        final int size;
+
+        Frame(WebSocketMessage<?> message, Priority priority, String coalesceKey, Consumer<String> onFailure) {
+            this.message = message;
+            this.priority = priority;
+            this.coalesceKey = coalesceKey;
+            this.onFailure = onFailure;
+            // Text: ước lượng số byte UTF-8 (payload chủ yếu là ASCII)
+            this.size = message instanceof TextMessage ? ((TextMessage) message).getPayload().length()
+                    : message.getPayloadLength();
+        }
+
+        void fail(String reason) {
+            if (onFailure == null) {
+                return;
+            }
+            try {
+                onFailure.accept(reason);
+            } catch (Exception e) {
+                logger.error("Lỗi khi xử lý frame gửi thất bại: {}", e.getMessage(), e);
+            }
+        }
+    }
+}
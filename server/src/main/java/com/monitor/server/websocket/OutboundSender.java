@@ -0,0 +1,112 @@
+package com.monitor.server.websocket;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Quản lý hàng đợi gửi (OutboundQueue) của các WebSocket session client và người xem stream màn hình
+ * Một pool thread nhỏ dùng chung để gửi cho tất cả session
+ */
+@Component
+public class OutboundSender {
+
+    // Số thread gửi dùng chung
+    @Value("${monitor.websocket.sender-threads:4}")
+    private int senderThreads;
+
+    // Số byte tối đa đang chờ gửi cho mỗi session
+    @Value("${monitor.websocket.send-buffer-size-limit:524288}")
+    private int bufferSizeLimit;
+
+    // Thời gian tối đa của một lần gửi trước khi coi client là chậm (ms)
+    @Value("${monitor.websocket.send-time-limit-ms:10000}")
+    private long sendTimeLimitMillis;
+
+    // DROP_LOW_PRIORITY hoặc DISCONNECT
+    @Value("${monitor.websocket.overflow-policy:DROP_LOW_PRIORITY}")
+    private OutboundQueue.OverflowPolicy overflowPolicy;
+
+    private final Map<WebSocketSession, OutboundQueue> queues = new ConcurrentHashMap<>();
+
+    // Người xem stream màn hình (không tính vào thống kê hàng đợi của client)
+    private final Map<WebSocketSession, OutboundQueue> viewerQueues = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ws-sender-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Tạo hàng đợi gửi cho session của client
+     */
+    public OutboundQueue open(String machineId, WebSocketSession session) {
+        return queues.computeIfAbsent(session, s -> new OutboundQueue(s, machineId, executor,
+                bufferSizeLimit, sendTimeLimitMillis, overflowPolicy));
+    }
+
+    /**
+     * Tạo hàng đợi gửi cho người xem stream màn hình của một máy
+     */
+    public OutboundQueue openViewer(String machineId, WebSocketSession session) {
+        return viewerQueues.computeIfAbsent(session, s -> new OutboundQueue(s, machineId, executor,
+                bufferSizeLimit, sendTimeLimitMillis, overflowPolicy));
+    }
+
+    /**
+     * Hủy hàng đợi khi session đóng
+     */
+    public void release(WebSocketSession session) {
+        OutboundQueue queue = queues.remove(session);
+        if (queue == null) {
+            queue = viewerQueues.remove(session);
+        }
+        if (queue != null) {
+            queue.discard();
+        }
+    }
+
+    public OutboundQueue get(WebSocketSession session) {
+        return queues.get(session);
+    }
+
+    /**
+     * Độ sâu hàng đợi của từng máy
+     * @return machineId -> {depth, bufferedBytes, sent, dropped}
+     */
+    public Map<String, Map<String, Object>> getQueueStats() {
+        Map<String, Map<String, Object>> stats = new HashMap<>();
+        queues.values().forEach(queue -> stats.put(queue.getMachineId(), toStats(queue)));
+        return stats;
+    }
+
+    public static Map<String, Object> toStats(OutboundQueue queue) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("depth", queue.getDepth());
+        stats.put("bufferedBytes", queue.getBufferedBytes());
+        stats.put("sent", queue.getSentCount());
+        stats.put("dropped", queue.getDroppedCount());
+        return stats;
+    }
+}
@@ -0,0 +1,53 @@
+package com.monitor.server.websocket;
+
+import com.monitor.server.service.ScreenStreamService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * WebSocket Handler cho người xem stream màn hình trên dashboard (/ws-screen?machineId=...)
+ * Người xem chỉ nhận message binary chứa tile, không cần gửi gì lên
+ */
+@Component
+public class ScreenViewerHandler extends AbstractWebSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScreenViewerHandler.class);
+
+    private static final String MACHINE_ID_ATTRIBUTE = "machineId";
+
+    @Autowired
+    private ScreenStreamService screenStreamService;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        String machineId = session.getUri() != null
+                ? UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst("machineId")
+                : null;
+        if (machineId == null || machineId.isEmpty()) {
+            logger.warn("Người xem {} không chỉ định machineId", session.getId());
+            session.close(CloseStatus.BAD_DATA.withReason("Thiếu machineId"));
+            return;
+        }
+        session.getAttributes().put(MACHINE_ID_ATTRIBUTE, machineId);
+        screenStreamService.addViewer(machineId, session);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        String machineId = (String) session.getAttributes().get(MACHINE_ID_ATTRIBUTE);
+        if (machineId != null) {
+            screenStreamService.removeViewer(machineId, session);
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+        logger.debug("Lỗi WebSocket của người xem {}: {}", session.getId(), exception.getMessage());
+    }
+}
@@ -56,6 +56,7 @@ CREATE TABLE commands (
     created_at DATETIME DEFAULT GETDATE(),
     executed_at DATETIME,
     response_data NVARCHAR(MAX),
+    extra_data NVARCHAR(MAX),
 
     CONSTRAINT FK_commands_machine
         FOREIGN KEY (machine_id)
@@ -102,7 +103,9 @@ CREATE INDEX idx_notifications_sent ON notifications(sent_at);
 CREATE TABLE screen_data (
     id BIGINT IDENTITY(1,1) PRIMARY KEY,
     machine_id NVARCHAR(100) NOT NULL,
-    image_data VARBINARY(MAX) NOT NULL,
+    image_data VARBINARY(MAX) NULL,
+    content_hash NVARCHAR(64) NULL,
+    size_bytes BIGINT NULL,
     image_format NVARCHAR(20) DEFAULT 'PNG',
     captured_at DATETIME DEFAULT GETDATE(),
     command_id BIGINT NULL,
@@ -121,3 +124,4 @@ CREATE TABLE screen_data (
 CREATE INDEX idx_screen_data_machine ON screen_data(machine_id);
 CREATE INDEX idx_screen_data_captured ON screen_data(captured_at);
 CREATE INDEX idx_screen_data_command ON screen_data(command_id);
+CREATE INDEX idx_screen_data_hash ON screen_data(content_hash);